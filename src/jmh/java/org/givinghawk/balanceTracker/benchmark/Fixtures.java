@@ -0,0 +1,102 @@
+package org.givinghawk.balanceTracker.benchmark;
+
+import net.milkbowl.vault.economy.Economy;
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.Server;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Synthetic Bukkit and Vault objects for benchmarks. Only the methods the
+ * plugin calls on its hot paths return anything meaningful.
+ */
+final class Fixtures {
+    private Fixtures() {
+    }
+
+    /**
+     * Creates offline players with sequential indexes and random UUIDs.
+     */
+    static OfflinePlayer[] players(int count, long lastPlayed) {
+        OfflinePlayer[] players = new OfflinePlayer[count];
+        for (int i = 0; i < count; i++) {
+            players[i] = (OfflinePlayer) Proxy.newProxyInstance(Fixtures.class.getClassLoader(),
+                    new Class<?>[]{OfflinePlayer.class}, new FakePlayer(i, UUID.randomUUID(), lastPlayed));
+        }
+        return players;
+    }
+
+    static int index(OfflinePlayer player) {
+        return ((FakePlayer) Proxy.getInvocationHandler(player)).index;
+    }
+
+    /**
+     * Points {@link Bukkit} at a server that reports the given offline
+     * players and nobody online. The field is set directly because
+     * {@code Bukkit.setServer} only works once per JVM and expects a real
+     * server build.
+     */
+    static void installServer(Supplier<OfflinePlayer[]> offlinePlayers) throws ReflectiveOperationException {
+        Server server = (Server) Proxy.newProxyInstance(Fixtures.class.getClassLoader(), new Class<?>[]{Server.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getOfflinePlayers" -> offlinePlayers.get();
+                    case "getOnlinePlayers" -> Collections.emptyList();
+                    default -> defaultValue(method);
+                });
+        Field field = Bukkit.class.getDeclaredField("server");
+        field.setAccessible(true);
+        field.set(null, server);
+    }
+
+    static Economy economy(ToDoubleFunction<OfflinePlayer> balances) {
+        return (Economy) Proxy.newProxyInstance(Fixtures.class.getClassLoader(), new Class<?>[]{Economy.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getBalance" -> balances.applyAsDouble((OfflinePlayer) args[0]);
+                    case "getName" -> "Benchmark";
+                    default -> defaultValue(method);
+                });
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        if (type == double.class) return 0.0;
+        return null;
+    }
+
+    private static final class FakePlayer implements InvocationHandler {
+        private final int index;
+        private final UUID uuid;
+        private final long lastPlayed;
+
+        FakePlayer(int index, UUID uuid, long lastPlayed) {
+            this.index = index;
+            this.uuid = uuid;
+            this.lastPlayed = lastPlayed;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            return switch (method.getName()) {
+                case "getUniqueId" -> uuid;
+                case "getName" -> "Player" + index;
+                case "getLastPlayed" -> lastPlayed;
+                case "isOnline" -> false;
+                case "hashCode" -> uuid.hashCode();
+                case "equals" -> proxy == args[0];
+                case "toString" -> "FakePlayer[" + index + "]";
+                default -> defaultValue(method);
+            };
+        }
+    }
+}
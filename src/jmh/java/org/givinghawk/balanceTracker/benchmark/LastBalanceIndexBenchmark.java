@@ -0,0 +1,80 @@
+package org.givinghawk.balanceTracker.benchmark;
+
+import org.givinghawk.balanceTracker.LastBalanceIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups and updates on the last-balance cache, with a
+ * {@code ConcurrentHashMap} lookup as a reference point.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LastBalanceIndexBenchmark {
+    private static final double CHANGE_THRESHOLD = 0.001;
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    private UUID[] uuids;
+    private LastBalanceIndex index;
+    private ConcurrentHashMap<UUID, Double> map;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+        long changes;
+
+        int advance(int size) {
+            if (++next >= size) next = 0;
+            return next;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        uuids = new UUID[size];
+        index = new LastBalanceIndex();
+        map = new ConcurrentHashMap<>();
+        for (int i = 0; i < size; i++) {
+            uuids[i] = UUID.randomUUID();
+            index.put(uuids[i], i);
+            map.put(uuids[i], (double) i);
+        }
+    }
+
+    @Benchmark
+    public double get(Cursor cursor) {
+        return index.get(uuids[cursor.advance(size)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public double getContended(Cursor cursor) {
+        return index.get(uuids[cursor.advance(size)]);
+    }
+
+    @Benchmark
+    public double putIfChangedUnchanged(Cursor cursor) {
+        // Setup stored each player's index as the balance
+        int i = cursor.advance(size);
+        return index.putIfChanged(uuids[i], i, CHANGE_THRESHOLD);
+    }
+
+    @Benchmark
+    public double putIfChangedChanged(Cursor cursor) {
+        return index.putIfChanged(uuids[cursor.advance(size)], ++cursor.changes, CHANGE_THRESHOLD);
+    }
+
+    @Benchmark
+    public Double concurrentHashMapGet(Cursor cursor) {
+        return map.get(uuids[cursor.advance(size)]);
+    }
+}
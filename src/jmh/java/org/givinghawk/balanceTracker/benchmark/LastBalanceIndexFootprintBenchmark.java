@@ -0,0 +1,75 @@
+package org.givinghawk.balanceTracker.benchmark;
+
+import org.givinghawk.balanceTracker.LastBalanceIndex;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memory cost of the last-balance cache next to the
+ * {@code ConcurrentHashMap<UUID, Double>} it replaced. Each operation builds
+ * a full cache of {@code size} players the way the startup load does. Run
+ * with the GC profiler:
+ * <pre>
+ * mvn -P benchmarks test-compile exec:exec -Djmh.args="LastBalanceIndexFootprint -prof gc"
+ * </pre>
+ * {@code gc.alloc.rate.norm} is then the bytes allocated per build, resize
+ * garbage included. The retained size of the last build, measured with JOL,
+ * is printed at the end of each trial.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LastBalanceIndexFootprintBenchmark {
+    @Param({"10000", "1000000"})
+    public int size;
+
+    private long[] msbs;
+    private long[] lsbs;
+    private Object built;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(1);
+        msbs = new long[size];
+        lsbs = new long[size];
+        for (int i = 0; i < size; i++) {
+            msbs[i] = random.nextLong();
+            lsbs[i] = random.nextLong();
+        }
+    }
+
+    @Benchmark
+    public LastBalanceIndex index() {
+        LastBalanceIndex index = new LastBalanceIndex();
+        for (int i = 0; i < size; i++) {
+            index.put(msbs[i], lsbs[i], i);
+        }
+        built = index;
+        return index;
+    }
+
+    @Benchmark
+    public ConcurrentHashMap<UUID, Double> concurrentHashMap() {
+        ConcurrentHashMap<UUID, Double> map = new ConcurrentHashMap<>();
+        for (int i = 0; i < size; i++) {
+            map.put(new UUID(msbs[i], lsbs[i]), (double) i);
+        }
+        built = map;
+        return map;
+    }
+
+    @TearDown(Level.Trial)
+    public void printRetainedSize() {
+        long bytes = GraphLayout.parseInstance(built).totalSize();
+        System.out.printf("%n%s retained %,d bytes for %,d players (%.1f bytes per player)%n",
+                built.getClass().getSimpleName(), bytes, size, (double) bytes / size);
+    }
+}
@@ -0,0 +1,75 @@
+package org.givinghawk.balanceTracker.benchmark;
+
+import net.milkbowl.vault.economy.Economy;
+import org.bukkit.OfflinePlayer;
+import org.givinghawk.balanceTracker.ParallelBalanceFetcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Balance lookups against an economy that waits {@code latencyMicros} per
+ * call, as providers backed by their own database do. A concurrency of 1
+ * runs the lookups inline like the sequential sweep.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParallelFetchBenchmark {
+    @Param({"1000"})
+    public int players;
+
+    @Param({"1000"})
+    public long latencyMicros;
+
+    @Param({"1", "16", "64"})
+    public int concurrency;
+
+    @Param({"true", "false"})
+    public boolean virtualThreads;
+
+    private OfflinePlayer[] offlinePlayers;
+    private Economy economy;
+    private ParallelBalanceFetcher fetcher;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        offlinePlayers = Fixtures.players(players, 0);
+        economy = Fixtures.economy(player -> {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(latencyMicros));
+            return Fixtures.index(player);
+        });
+        if (concurrency > 1) {
+            fetcher = new ParallelBalanceFetcher(concurrency, 0, virtualThreads);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (fetcher != null) {
+            fetcher.close();
+        }
+    }
+
+    @Benchmark
+    public double sweep() {
+        // Blackholes must not be shared across threads, so results are summed instead
+        DoubleAdder total = new DoubleAdder();
+        for (OfflinePlayer player : offlinePlayers) {
+            if (fetcher == null) {
+                total.add(economy.getBalance(player));
+            } else {
+                fetcher.submit(() -> total.add(economy.getBalance(player)));
+            }
+        }
+        if (fetcher != null) {
+            fetcher.awaitIdle();
+        }
+        return total.sum();
+    }
+}
@@ -0,0 +1,117 @@
+package org.givinghawk.balanceTracker.benchmark;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.givinghawk.balanceTracker.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Write and read paths of {@link DatabaseManager} against an embedded
+ * SQLite database seeded with {@code players * rowsPerPlayer} history rows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StorageBenchmark {
+    private static final int PAGE_SIZE = 10;
+
+    @Param({"1000"})
+    public int players;
+
+    @Param({"200"})
+    public int rowsPerPlayer;
+
+    @Param({"500"})
+    public int batchSize;
+
+    private File directory;
+    private DatabaseManager storage;
+    private UUID[] uuids;
+    private long timestamp;
+    private int nextPlayer;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("balancetracker-bench").toFile();
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("writeBatchSize", batchSize);
+
+        storage = new DatabaseManager(Logger.getLogger("StorageBenchmark"), false, new BalanceMetrics(), config,
+                new SQLiteDialect(new File(directory, "balances.db")));
+        storage.initializeDatabase();
+
+        uuids = new UUID[players];
+        for (int i = 0; i < players; i++) {
+            uuids[i] = UUID.randomUUID();
+        }
+        timestamp = System.currentTimeMillis() - rowsPerPlayer * 60_000L;
+        for (int row = 0; row < rowsPerPlayer; row++) {
+            storage.recordBalances(nextBatch(players));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        storage.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public int recordBalances() {
+        return storage.recordBalances(nextBatch(batchSize));
+    }
+
+    @Benchmark
+    public HistoryPage firstPageCached() {
+        return storage.getBalanceHistory(nextPlayer(), HistoryCursor.START, 0, Long.MAX_VALUE, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public HistoryPage firstPageUncached() {
+        // A lower bound on the range bypasses the cache
+        return storage.getBalanceHistory(nextPlayer(), HistoryCursor.START, 1, Long.MAX_VALUE, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public HistoryCursor seekDeepPage() {
+        return storage.seekHistoryCursor(nextPlayer(), HistoryCursor.START, 0, Long.MAX_VALUE, rowsPerPlayer / 2);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int loadLastBalances() throws SQLException {
+        return storage.loadLastBalances(new LastBalanceIndex());
+    }
+
+    private UUID nextPlayer() {
+        UUID uuid = uuids[nextPlayer];
+        nextPlayer = (nextPlayer + 1) % uuids.length;
+        return uuid;
+    }
+
+    private List<PlayerBalance> nextBatch(int size) {
+        List<PlayerBalance> batch = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            timestamp++;
+            batch.add(new PlayerBalance(nextPlayer(), timestamp % 100_000, null, timestamp));
+        }
+        return batch;
+    }
+}
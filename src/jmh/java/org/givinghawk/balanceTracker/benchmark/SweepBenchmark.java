@@ -0,0 +1,68 @@
+package org.givinghawk.balanceTracker.benchmark;
+
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.givinghawk.balanceTracker.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * One full sweep over every offline player: shard rebuild, balance lookup
+ * against an in-memory economy and change detection. A fixed share of the
+ * players changes balance between sweeps.
+ * <p>
+ * Run with {@code -prof gc} to check allocation: the balance source is a
+ * plain lambda rather than a proxied {@code Economy}, so everything
+ * allocated per operation comes from the sweep itself.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SweepBenchmark {
+    private static final double CHANGE_THRESHOLD = 0.001;
+
+    @Param({"10000", "100000", "1000000"})
+    public int players;
+
+    @Param({"0.01"})
+    public double changeRate;
+
+    private OfflinePlayer[] offlinePlayers;
+    private BalanceChecker checker;
+    private SweepScheduler scheduler;
+    private int changeEvery;
+    private int epoch;
+
+    @Setup(Level.Trial)
+    public void setup() throws ReflectiveOperationException {
+        offlinePlayers = Fixtures.players(players, 0);
+        Fixtures.installServer(() -> offlinePlayers);
+        changeEvery = Math.max(1, (int) Math.round(1 / changeRate));
+        checker = new BalanceChecker(player -> {
+            int index = Fixtures.index(player);
+            return 1000 + index + (index % changeEvery == 0 ? epoch : 0);
+        }, new LastBalanceIndex(), CHANGE_THRESHOLD, new BalanceMetrics(), Logger.getLogger("SweepBenchmark"), false);
+        // A single shard with a generous budget makes each invocation a complete pass
+        scheduler = new SweepScheduler(1, TimeUnit.HOURS.toMillis(1), 0);
+        sweep();
+    }
+
+    @Benchmark
+    public List<PlayerBalance> sweep() {
+        epoch++;
+        List<PlayerBalance> changes = new ArrayList<>();
+        for (UUID uuid : scheduler.collectPriorityPlayers()) {
+            checker.check(Bukkit.getOfflinePlayer(uuid), changes);
+        }
+        scheduler.sweepShard(player -> checker.check(player, changes));
+        return changes;
+    }
+}
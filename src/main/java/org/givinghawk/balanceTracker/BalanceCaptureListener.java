@@ -0,0 +1,111 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Marks players dirty when they join or quit, and when one of the configured
+ * economy plugin events fires. Economy events are bound by class name so the
+ * plugin does not depend on any particular economy implementation.
+ */
+public class BalanceCaptureListener implements Listener {
+    private final BalanceTrackerPlugin plugin;
+    private final DirtyPlayerQueue queue;
+    private final Map<Class<?>, Method> playerAccessors = new ConcurrentHashMap<>();
+
+    public BalanceCaptureListener(BalanceTrackerPlugin plugin, DirtyPlayerQueue queue) {
+        this.plugin = plugin;
+        this.queue = queue;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        queue.markDirty(event.getPlayer().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        queue.markDirty(event.getPlayer().getUniqueId());
+    }
+
+    /**
+     * Registers a listener for each configured economy event class that is
+     * present on the server.
+     *
+     * @return the number of events that were hooked
+     */
+    public int registerEconomyEvents(List<String> eventClassNames) {
+        int registered = 0;
+        for (String className : eventClassNames) {
+            Class<? extends Event> eventClass;
+            try {
+                eventClass = Class.forName(className).asSubclass(Event.class);
+            } catch (ClassNotFoundException | ClassCastException e) {
+                if (plugin.debugMode) {
+                    plugin.getLogger().info("Economy event not available: " + className);
+                }
+                continue;
+            }
+
+            Method accessor = findPlayerAccessor(eventClass);
+            if (accessor == null) {
+                plugin.getLogger().warning("Economy event " + className + " does not expose a player");
+                continue;
+            }
+            playerAccessors.put(eventClass, accessor);
+
+            plugin.getServer().getPluginManager().registerEvent(eventClass, this, EventPriority.MONITOR,
+                    (listener, event) -> onEconomyEvent(event), plugin, true);
+            registered++;
+        }
+        return registered;
+    }
+
+    private void onEconomyEvent(Event event) {
+        Method accessor = playerAccessors.get(event.getClass());
+        if (accessor == null) {
+            // Subclass of a registered event
+            accessor = findPlayerAccessor(event.getClass());
+            if (accessor == null) return;
+            playerAccessors.put(event.getClass(), accessor);
+        }
+
+        try {
+            Object result = accessor.invoke(event);
+            if (result instanceof OfflinePlayer player) {
+                queue.markDirty(player.getUniqueId());
+            } else if (result instanceof UUID uuid) {
+                queue.markDirty(uuid);
+            }
+        } catch (ReflectiveOperationException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to read player from " + event.getEventName(), e);
+        }
+    }
+
+    private static Method findPlayerAccessor(Class<?> eventClass) {
+        for (String name : new String[]{"getPlayer", "getUniqueId", "getUUID"}) {
+            try {
+                Method method = eventClass.getMethod(name);
+                Class<?> type = method.getReturnType();
+                if (OfflinePlayer.class.isAssignableFrom(type) || type == UUID.class) {
+                    return method;
+                }
+            } catch (NoSuchMethodException ignored) {
+                // Try the next accessor name
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,145 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.ChatColor;
+import org.bukkit.OfflinePlayer;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compares a player's current balance with the last recorded one. An
+ * unchanged player costs no allocation: names and log messages are only
+ * built when debug logging is on, and a {@link PlayerBalance} is only
+ * created for an actual change. Safe to call from several threads.
+ * <p>
+ * While the last-balance cache is still loading in the background, players
+ * it has not reached yet are looked up one by one, so a cold cache never
+ * makes an unchanged player look new.
+ */
+public class BalanceChecker {
+    private final ToDoubleFunction<OfflinePlayer> balances;
+    private final LastBalanceIndex lastBalances;
+    private final double threshold;
+    private final BalanceMetrics metrics;
+    private final Logger logger;
+    private final boolean debugMode;
+    // Set while the cache warms up, cleared once the background load is done; a cluster keeps it set
+    private volatile ColdLookup coldLookup;
+    private final LongAdder coldLookups = new LongAdder();
+
+    public BalanceChecker(ToDoubleFunction<OfflinePlayer> balances, LastBalanceIndex lastBalances, double threshold,
+                          BalanceMetrics metrics, Logger logger, boolean debugMode) {
+        this.balances = balances;
+        this.lastBalances = lastBalances;
+        this.threshold = threshold;
+        this.metrics = metrics;
+        this.logger = logger;
+        this.debugMode = debugMode;
+    }
+
+    /**
+     * Looks up uncached players with {@code lookup} until {@link #markWarm}.
+     */
+    public void loadOnDemand(ColdLookup lookup) {
+        coldLookup = lookup;
+    }
+
+    public void markWarm() {
+        coldLookup = null;
+    }
+
+    public boolean isWarm() {
+        return coldLookup == null;
+    }
+
+    /**
+     * @return the number of players looked up individually because they were not cached
+     */
+    public long getColdLookups() {
+        return coldLookups.sum();
+    }
+
+    /**
+     * Adds a change to {@code changes} when the balance is new or moved by
+     * more than the threshold.
+     *
+     * @return whether the player was checked
+     */
+    public boolean check(OfflinePlayer player, List<PlayerBalance> changes) {
+        UUID uuid = player.getUniqueId();
+        if (uuid == null) return false;
+
+        try {
+            long lookupStart = System.nanoTime();
+            double currentBalance = balances.applyAsDouble(player);
+            metrics.recordBalanceLookup(System.nanoTime() - lookupStart);
+
+            ColdLookup cold = coldLookup;
+            if (cold != null && !lastBalances.contains(uuid)) {
+                // A failed lookup throws and skips the player this round rather than making them look new
+                double stored = cold.lastBalance(uuid);
+                coldLookups.increment();
+                if (!Double.isNaN(stored)) {
+                    lastBalances.putIfAbsent(uuid, stored);
+                }
+            }
+            double lastBalance = lastBalances.putIfChanged(uuid, currentBalance, threshold);
+
+            if (Double.isNaN(lastBalance)) {
+                // New player detected
+                if (debugMode) {
+                    logStyled("&7◆ New player detected: &e" + nameOf(player) + " &7(&a" +
+                            formatCurrency(currentBalance) + "&7)");
+                }
+                changes.add(new PlayerBalance(uuid, currentBalance, null));
+            } else if (Math.abs(currentBalance - lastBalance) > threshold) {
+                // Balance changed
+                if (debugMode) {
+                    logStyled("&7◆ Balance change: &e" + nameOf(player) +
+                            " &7(&e" + formatCurrency(lastBalance) + " &6→ &a" +
+                            formatCurrency(currentBalance) + "&7)");
+                }
+                changes.add(new PlayerBalance(uuid, currentBalance, null));
+            }
+        } catch (Exception e) {
+            metrics.recordLookupFailure();
+            String playerName = player.getName() != null ? player.getName() : uuid.toString();
+            logStyled("&c⚠ Failed to check balance for player: &e" + playerName);
+            if (debugMode) {
+                logger.log(Level.WARNING, "Balance check error", e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the stored balance of a player who is not cached.
+     */
+    @FunctionalInterface
+    public interface ColdLookup {
+        /**
+         * @return the stored balance, or {@code NaN} if the player has none
+         */
+        double lastBalance(UUID uuid) throws SQLException;
+    }
+
+    private static String nameOf(OfflinePlayer player) {
+        String name = player.getName();
+        return name != null ? name : "Unknown";
+    }
+
+    // String.format rather than a shared NumberFormat, which is not thread-safe
+    private static String formatCurrency(double amount) {
+        return String.format(Locale.US, "⛃ %,.2f", amount);
+    }
+
+    private void logStyled(String message) {
+        logger.info(ChatColor.translateAlternateColorCodes('&', message));
+    }
+}
@@ -3,79 +3,177 @@ package org.givinghawk.balanceTracker;
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
-import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
 
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 
-public class BalanceHistoryCommand implements CommandExecutor {
-    private final DatabaseManager databaseManager;
+public class BalanceHistoryCommand implements TabExecutor {
+    private static final int PAGE_SIZE = 10;
+    private static final int MAX_CACHED_CURSORS = 256;
 
-    public BalanceHistoryCommand(DatabaseManager databaseManager) {
+    private static final int MAX_COMPLETIONS = 50;
+
+    private final BalanceStorage databaseManager;
+    private final PlayerNameIndex nameIndex;
+    // Remembers where each page starts so "next page" continues the keyset scan
+    private final Map<String, HistoryCursor> pageCursors = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, HistoryCursor> eldest) {
+                    return size() > MAX_CACHED_CURSORS;
+                }
+            });
+
+    public BalanceHistoryCommand(BalanceStorage databaseManager, PlayerNameIndex nameIndex) {
         this.databaseManager = databaseManager;
+        this.nameIndex = nameIndex;
     }
 
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
-        if (args.length != 1) {
-            sender.sendMessage("§cUsage: /balancehistory <player>");
+        if (args.length < 1 || args.length > 4) {
+            sender.sendMessage("§cUsage: /balancehistory <player> [page] [from] [to]");
             return true;
         }
 
         final String playerName = args[0];
+        final String range = args.length > 2 ? " " + String.join(" ", Arrays.copyOfRange(args, 2, args.length)) : "";
+        final int page;
+        final long from;
+        final long to;
+        try {
+            page = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+            from = args.length > 2 ? parseDate(args[2]) : 0;
+            // The end date is inclusive, so the range runs until the start of the next day
+            to = args.length > 3 ? parseDate(args[3]) + 24L * 60 * 60 * 1000 : Long.MAX_VALUE;
+        } catch (NumberFormatException e) {
+            sender.sendMessage("§cPage must be a number");
+            return true;
+        } catch (DateTimeParseException e) {
+            sender.sendMessage("§cDates must use the format yyyy-MM-dd");
+            return true;
+        }
+        if (page < 1) {
+            sender.sendMessage("§cPage must be at least 1");
+            return true;
+        }
+
         Bukkit.getScheduler().runTaskAsynchronously(Bukkit.getPluginManager().getPlugin("BalanceTracker"), () -> {
-            OfflinePlayer player = findPlayer(playerName);
-            if (player == null || player.getUniqueId() == null) {
+            UUID uuid = findPlayer(playerName);
+            if (uuid == null) {
                 sender.sendMessage("§cPlayer not found: " + playerName);
                 return;
             }
 
-            UUID uuid = player.getUniqueId();
-            List<BalanceRecord> records = databaseManager.getBalanceHistory(uuid);
+            HistoryCursor cursor = findPageCursor(sender, uuid, page, from, to);
+            HistoryPage history = cursor == null ? null :
+                    databaseManager.getBalanceHistory(uuid, cursor, from, to, PAGE_SIZE);
 
-            if (records.isEmpty()) {
-                sender.sendMessage("§eNo balance records found for " + playerName);
+            if (history == null || history.getRecords().isEmpty()) {
+                sender.sendMessage("§eNo balance records found for " + playerName +
+                        (page > 1 ? " on page " + page : ""));
                 return;
             }
 
-            List<BalanceRecord> changes = findSignificantChanges(records);
-            displayBalanceChanges(sender, playerName, changes);
+            if (history.hasMore()) {
+                pageCursors.put(cursorKey(sender, uuid, page + 1, from, to), history.getNextCursor());
+            }
+            displayBalanceChanges(sender, playerName, page, range, history);
         });
 
         return true;
     }
 
-    private OfflinePlayer findPlayer(String name) {
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        if (args.length == 1) {
+            return nameIndex.complete(args[0], MAX_COMPLETIONS);
+        }
+        return Collections.emptyList();
+    }
+
+    private UUID findPlayer(String name) {
+        UUID uuid = nameIndex.find(name);
+        if (uuid != null) {
+            return uuid;
+        }
+
+        // Names seen by other servers sharing the database
+        uuid = databaseManager.findPlayerUuid(name);
+        if (uuid != null || nameIndex.isLoaded()) {
+            return uuid;
+        }
+
+        // The index is still warming up, so fall back to a scan
         for (OfflinePlayer player : Bukkit.getOfflinePlayers()) {
             if (name.equalsIgnoreCase(player.getName())) {
-                return player;
+                return player.getUniqueId();
             }
         }
         return null;
     }
 
-    private List<BalanceRecord> findSignificantChanges(List<BalanceRecord> records) {
-        List<BalanceRecord> changes = new ArrayList<>();
-        double lastBalance = -1;
+    /**
+     * Returns the cursor a page starts at. Pages reached by paging forward are
+     * already cached; anything else is located from the closest known page.
+     */
+    private HistoryCursor findPageCursor(CommandSender sender, UUID uuid, int page, long from, long to) {
+        if (page == 1) {
+            return HistoryCursor.START;
+        }
 
-        for (BalanceRecord record : records) {
-            if (lastBalance == -1 || Math.abs(record.getBalance() - lastBalance) > 0.001) {
-                changes.add(record);
-                lastBalance = record.getBalance();
-            }
+        HistoryCursor cursor = pageCursors.get(cursorKey(sender, uuid, page, from, to));
+        if (cursor != null) {
+            return cursor;
         }
-        return changes;
+
+        int knownPage = page - 1;
+        HistoryCursor known = null;
+        while (knownPage > 1 && (known = pageCursors.get(cursorKey(sender, uuid, knownPage, from, to))) == null) {
+            knownPage--;
+        }
+        if (known == null) {
+            known = HistoryCursor.START;
+        }
+
+        cursor = databaseManager.seekHistoryCursor(uuid, known, from, to, (page - knownPage) * PAGE_SIZE);
+        if (cursor != null) {
+            pageCursors.put(cursorKey(sender, uuid, page, from, to), cursor);
+        }
+        return cursor;
+    }
+
+    private static String cursorKey(CommandSender sender, UUID uuid, int page, long from, long to) {
+        return sender.getName() + ':' + uuid + ':' + from + ':' + to + ':' + page;
     }
 
-    private void displayBalanceChanges(CommandSender sender, String playerName, List<BalanceRecord> changes) {
-        int displayCount = Math.min(changes.size(), 10);
+    private static long parseDate(String date) {
+        return LocalDate.parse(date).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
 
-        sender.sendMessage("§6Balance changes for §e" + playerName + "§6 (last " + displayCount + " changes):");
-        for (int i = 0; i < displayCount; i++) {
-            BalanceRecord record = changes.get(i);
+    private void displayBalanceChanges(CommandSender sender, String playerName, int page, String range,
+                                       HistoryPage history) {
+        List<BalanceRecord> changes = history.getRecords();
+
+        sender.sendMessage("§6Balance changes for §e" + playerName + "§6 (page " + page + "):");
+        for (BalanceRecord record : changes) {
             String time = new Date(record.getTimestamp()).toString();
             String balance = String.format("$%.2f", record.getBalance());
+            if (record instanceof RollupRecord rollup) {
+                String period = rollup.getResolution() == RollupRecord.DAILY ? "day" : "hour";
+                sender.sendMessage("§7- §a" + time + "§f: §b" + balance + String.format(
+                        " §7(%s, low $%.2f, high $%.2f)", period, rollup.getMin(), rollup.getMax()));
+                continue;
+            }
             sender.sendMessage("§7- §a" + time + "§f: §b" + balance);
         }
+        if (history.hasMore()) {
+            sender.sendMessage("§7Use §e/balancehistory " + playerName + " " + (page + 1) + range +
+                    "§7 for older changes");
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,183 @@
+package org.givinghawk.balanceTracker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Always-on runtime metrics. Hot paths only touch counters and histograms;
+ * text is built when someone asks for it through {@code /balancetracker stats}
+ * or the Prometheus endpoint.
+ */
+public class BalanceMetrics {
+    private static final String PREFIX = "balancetracker_";
+
+    private final LatencyHistogram sweepDuration = new LatencyHistogram();
+    private final LatencyHistogram shardDuration = new LatencyHistogram();
+    private final LatencyHistogram balanceLookup = new LatencyHistogram();
+    private final LatencyHistogram dbWrite = new LatencyHistogram();
+    private final LatencyHistogram dbQuery = new LatencyHistogram();
+
+    private final LongAdder playersChecked = new LongAdder();
+    private final LongAdder balanceChanges = new LongAdder();
+    private final LongAdder lookupFailures = new LongAdder();
+    private final LongAdder rowsWritten = new LongAdder();
+    private final LongAdder writeFailures = new LongAdder();
+    private volatile int lastSweepPlayers;
+    private volatile int lastSweepChanges;
+    private volatile int lastShardPlayers;
+    private volatile long lastShardPlayersPerSecond;
+    // Last completed duration of each shard, sized when the first shard finishes
+    private volatile AtomicLongArray shardNanos = new AtomicLongArray(0);
+
+    // Registered once at startup, read on every scrape
+    private final List<Gauge> gauges = new CopyOnWriteArrayList<>();
+
+    public void recordSweep(long nanos, int players, int changes) {
+        sweepDuration.record(nanos);
+        playersChecked.add(players);
+        balanceChanges.add(changes);
+        lastSweepPlayers = players;
+        lastSweepChanges = changes;
+    }
+
+    /**
+     * Records a shard that finished, with the time spent on it summed over
+     * every run it took to get through.
+     */
+    public void recordShard(SweepScheduler.ShardResult shard) {
+        shardDuration.record(shard.nanos);
+        lastShardPlayers = shard.players;
+        lastShardPlayersPerSecond = shard.getPlayersPerSecond();
+        AtomicLongArray perShard = shardNanos;
+        if (perShard.length() != shard.shardCount) {
+            perShard = new AtomicLongArray(shard.shardCount);
+            shardNanos = perShard;
+        }
+        perShard.set(shard.shard, shard.nanos);
+    }
+
+    public void recordBalanceLookup(long nanos) {
+        balanceLookup.record(nanos);
+    }
+
+    public void recordLookupFailure() {
+        lookupFailures.increment();
+    }
+
+    public void recordWrite(long nanos, int rows) {
+        dbWrite.record(nanos);
+        rowsWritten.add(rows);
+    }
+
+    public void recordWriteFailure() {
+        writeFailures.increment();
+    }
+
+    public void recordQuery(long nanos) {
+        dbQuery.record(nanos);
+    }
+
+    /**
+     * Registers a value that is read whenever metrics are reported.
+     */
+    public void gauge(String name, String help, DoubleSupplier value) {
+        gauges.add(new Gauge(name, help, value));
+    }
+
+    /**
+     * @return color-coded lines for {@code /balancetracker stats}
+     */
+    public List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        lines.add("§6Sweeps: §e" + sweepDuration.getCount() + "§6, last checked §e" + lastSweepPlayers +
+                "§6 players with §e" + lastSweepChanges + "§6 changes");
+        lines.add("§7  duration " + sweepDuration.describe());
+        lines.add("§6Shards: §e" + shardDuration.getCount() + "§6 completed, last checked §e" + lastShardPlayers +
+                "§6 players at §e" + lastShardPlayersPerSecond + "§6 players/s");
+        lines.add("§7  duration " + shardDuration.describe());
+        lines.add("§6Balance lookups: §e" + playersChecked.sum() + "§6 total, §e" + balanceChanges.sum() +
+                "§6 changes, §e" + lookupFailures.sum() + "§6 failures");
+        lines.add("§7  latency " + balanceLookup.describe());
+        lines.add("§6Database writes: §e" + rowsWritten.sum() + "§6 rows, §e" + writeFailures.sum() + "§6 failed batches");
+        lines.add("§7  batch " + dbWrite.describe());
+        lines.add("§6History queries:");
+        lines.add("§7  query " + dbQuery.describe());
+        for (Gauge gauge : gauges) {
+            lines.add("§6" + gauge.help + ": §e" + formatValue(gauge.value.getAsDouble()));
+        }
+        return lines;
+    }
+
+    /**
+     * Renders every metric in the Prometheus text exposition format.
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        appendSummary(out, "sweep_duration_seconds", "Duration of a balance sweep", sweepDuration);
+        appendSummary(out, "sweep_shard_duration_seconds", "Time spent sweeping one shard of offline players",
+                shardDuration);
+        AtomicLongArray perShard = shardNanos;
+        out.append("# HELP ").append(PREFIX).append("sweep_shard_last_seconds Last duration of each shard\n");
+        out.append("# TYPE ").append(PREFIX).append("sweep_shard_last_seconds gauge\n");
+        for (int i = 0; i < perShard.length(); i++) {
+            out.append(PREFIX).append("sweep_shard_last_seconds{shard=\"").append(i).append("\"} ")
+                    .append(seconds(perShard.get(i))).append('\n');
+        }
+        appendSummary(out, "balance_lookup_seconds", "Latency of Economy.getBalance", balanceLookup);
+        appendSummary(out, "db_write_seconds", "Latency of a history write transaction", dbWrite);
+        appendSummary(out, "db_query_seconds", "Latency of a history page query", dbQuery);
+        appendCounter(out, "players_checked_total", "Balance lookups performed by sweeps", playersChecked.sum());
+        appendCounter(out, "balance_changes_total", "Balance changes detected by sweeps", balanceChanges.sum());
+        appendCounter(out, "lookup_failures_total", "Balance lookups that threw", lookupFailures.sum());
+        appendCounter(out, "rows_written_total", "History rows written", rowsWritten.sum());
+        appendCounter(out, "write_failures_total", "History write batches that failed", writeFailures.sum());
+        for (Gauge gauge : gauges) {
+            out.append("# HELP ").append(PREFIX).append(gauge.name).append(' ').append(gauge.help).append('\n');
+            out.append("# TYPE ").append(PREFIX).append(gauge.name).append(" gauge\n");
+            out.append(PREFIX).append(gauge.name).append(' ').append(formatValue(gauge.value.getAsDouble())).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void appendSummary(StringBuilder out, String name, String help, LatencyHistogram histogram) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(" summary\n");
+        for (double quantile : new double[]{0.5, 0.9, 0.99}) {
+            out.append(PREFIX).append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(histogram.getPercentileNanos(quantile))).append('\n');
+        }
+        out.append(PREFIX).append(name).append("_sum ").append(seconds(histogram.getSumNanos())).append('\n');
+        out.append(PREFIX).append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+    private static void appendCounter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(" counter\n");
+        out.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    private static String formatValue(double value) {
+        return value == Math.rint(value) ? Long.toString((long) value) : String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static class Gauge {
+        final String name;
+        final String help;
+        final DoubleSupplier value;
+
+        Gauge(String name, String help, DoubleSupplier value) {
+            this.name = name;
+            this.help = help;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package org.givinghawk.balanceTracker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Players ordered by a score, highest first, in an order-statistic treap.
+ * Every node tracks the size of its subtree, so updates, rank lookups and
+ * fetching the entry at a given rank all take O(log n). Ties are broken by
+ * UUID so the order is stable.
+ * <p>
+ * Each player costs one tree node plus one hash map entry, roughly 80 bytes.
+ * All methods are synchronized; a rotation touches the whole path to the root.
+ */
+public class BalanceRanking {
+    private final Map<UUID, Node> nodes = new HashMap<>();
+    private Node root;
+    private double total;
+
+    // Outputs of split(), only touched while holding the monitor
+    private Node splitBefore;
+    private Node splitAfter;
+
+    /**
+     * Sets a player's score.
+     *
+     * @return the previous score, or {@code NaN} if the player was not ranked
+     */
+    public synchronized double put(UUID uuid, double score) {
+        Node node = nodes.get(uuid);
+        double previous = Double.NaN;
+        if (node != null) {
+            previous = node.score;
+            if (previous == score) {
+                return previous;
+            }
+            root = delete(root, node);
+            total -= previous;
+            node.score = score;
+            node.left = null;
+            node.right = null;
+            node.size = 1;
+        } else {
+            node = new Node(uuid, score);
+            nodes.put(uuid, node);
+        }
+        root = insert(root, node);
+        total += score;
+        return previous;
+    }
+
+    /**
+     * @return the removed score, or {@code NaN} if the player was not ranked
+     */
+    public synchronized double remove(UUID uuid) {
+        Node node = nodes.remove(uuid);
+        if (node == null) {
+            return Double.NaN;
+        }
+        root = delete(root, node);
+        total -= node.score;
+        return node.score;
+    }
+
+    /**
+     * @return the player's score, or {@code NaN} if the player is not ranked
+     */
+    public synchronized double get(UUID uuid) {
+        Node node = nodes.get(uuid);
+        return node == null ? Double.NaN : node.score;
+    }
+
+    /**
+     * @return the player's 1-based rank, or {@code 0} if the player is not ranked
+     */
+    public synchronized int rank(UUID uuid) {
+        Node node = nodes.get(uuid);
+        if (node == null) {
+            return 0;
+        }
+
+        int rank = 0;
+        Node current = root;
+        while (current != node) {
+            if (before(node, current)) {
+                current = current.left;
+            } else {
+                rank += size(current.left) + 1;
+                current = current.right;
+            }
+        }
+        return rank + size(node.left) + 1;
+    }
+
+    /**
+     * @return up to {@code count} entries starting at the 1-based rank {@code fromRank}, highest first
+     */
+    public synchronized List<Entry> top(int fromRank, int count) {
+        List<Entry> entries = new ArrayList<>(Math.max(0, Math.min(count, size() - fromRank + 1)));
+        for (int rank = Math.max(1, fromRank); rank < fromRank + count && rank <= size(); rank++) {
+            Node node = select(rank);
+            entries.add(new Entry(node.uuid, node.score, rank));
+        }
+        return entries;
+    }
+
+    /**
+     * @return up to {@code count} of the lowest entries, lowest first
+     */
+    public synchronized List<Entry> bottom(int count) {
+        List<Entry> entries = new ArrayList<>(Math.min(count, size()));
+        for (int rank = size(); rank > size() - count && rank >= 1; rank--) {
+            Node node = select(rank);
+            entries.add(new Entry(node.uuid, node.score, rank));
+        }
+        return entries;
+    }
+
+    /**
+     * @return the score at the 1-based rank, or {@code NaN} if the rank is out of range
+     */
+    public synchronized double scoreAt(int rank) {
+        return rank < 1 || rank > size() ? Double.NaN : select(rank).score;
+    }
+
+    public synchronized int size() {
+        return size(root);
+    }
+
+    public synchronized double getTotal() {
+        return total;
+    }
+
+    public synchronized void clear() {
+        nodes.clear();
+        root = null;
+        total = 0;
+    }
+
+    private Node select(int rank) {
+        Node current = root;
+        while (true) {
+            int leftSize = size(current.left);
+            if (rank <= leftSize) {
+                current = current.left;
+            } else if (rank == leftSize + 1) {
+                return current;
+            } else {
+                rank -= leftSize + 1;
+                current = current.right;
+            }
+        }
+    }
+
+    private Node insert(Node tree, Node node) {
+        if (tree == null) {
+            return node;
+        }
+        if (node.priority > tree.priority) {
+            split(tree, node);
+            node.left = splitBefore;
+            node.right = splitAfter;
+            update(node);
+            return node;
+        }
+        if (before(node, tree)) {
+            tree.left = insert(tree.left, node);
+        } else {
+            tree.right = insert(tree.right, node);
+        }
+        update(tree);
+        return tree;
+    }
+
+    private Node delete(Node tree, Node node) {
+        if (tree == node) {
+            return merge(tree.left, tree.right);
+        }
+        if (before(node, tree)) {
+            tree.left = delete(tree.left, node);
+        } else {
+            tree.right = delete(tree.right, node);
+        }
+        update(tree);
+        return tree;
+    }
+
+    /**
+     * Splits {@code tree} into the nodes ordered before {@code key}
+     * ({@link #splitBefore}) and the rest ({@link #splitAfter}).
+     */
+    private void split(Node tree, Node key) {
+        if (tree == null) {
+            splitBefore = null;
+            splitAfter = null;
+            return;
+        }
+        if (before(tree, key)) {
+            split(tree.right, key);
+            tree.right = splitBefore;
+            update(tree);
+            splitBefore = tree;
+        } else {
+            split(tree.left, key);
+            tree.left = splitAfter;
+            update(tree);
+            splitAfter = tree;
+        }
+    }
+
+    // Every node of a is ordered before every node of b
+    private static Node merge(Node a, Node b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        }
+        b.left = merge(a, b.left);
+        update(b);
+        return b;
+    }
+
+    private static boolean before(Node a, Node b) {
+        if (a.score != b.score) {
+            return a.score > b.score;
+        }
+        return a.uuid.compareTo(b.uuid) < 0;
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static void update(Node node) {
+        node.size = size(node.left) + size(node.right) + 1;
+    }
+
+    public static class Entry {
+        public final UUID uuid;
+        public final double score;
+        public final int rank;
+
+        Entry(UUID uuid, double score, int rank) {
+            this.uuid = uuid;
+            this.score = score;
+            this.rank = rank;
+        }
+    }
+
+    private static final class Node {
+        final UUID uuid;
+        final int priority = ThreadLocalRandom.current().nextInt();
+        double score;
+        int size = 1;
+        Node left;
+        Node right;
+
+        Node(UUID uuid, double score) {
+            this.uuid = uuid;
+            this.score = score;
+        }
+    }
+}
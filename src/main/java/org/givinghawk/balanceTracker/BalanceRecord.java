@@ -1,14 +1,24 @@
 package org.givinghawk.balanceTracker;
 
 public class BalanceRecord {
+    private final long id;
     private final long timestamp;
     private final double balance;
 
     public BalanceRecord(long timestamp, double balance) {
+        this(0, timestamp, balance);
+    }
+
+    public BalanceRecord(long id, long timestamp, double balance) {
+        this.id = id;
         this.timestamp = timestamp;
         this.balance = balance;
     }
 
+    public long getId() {
+        return id;
+    }
+
     public long getTimestamp() {
         return timestamp;
     }
@@ -16,4 +26,4 @@ public class BalanceRecord {
     public double getBalance() {
         return balance;
     }
-}
\ No newline at end of file
+}
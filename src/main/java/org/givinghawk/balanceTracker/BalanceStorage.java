@@ -0,0 +1,220 @@
+package org.givinghawk.balanceTracker;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Everything the plugin needs from its persistent store. The sweep, history
+ * command, purge and rollup code only talk to this interface, so the backend
+ * can be swapped through the {@code storage} setting.
+ */
+public interface BalanceStorage {
+    void initializeDatabase() throws SQLException;
+
+    /**
+     * Appends the changes to history and updates each player's last balance.
+     *
+     * @return the number of changes that were committed
+     */
+    int recordBalances(List<PlayerBalance> changes);
+
+    /**
+     * Adds exported rows back to history under their original {@code ids}
+     * in {@code writeBatchSize} transactions, without touching last
+     * balances. A row whose id already holds the same record is skipped, so
+     * importing the same rows twice adds nothing. An id that holds a
+     * different record fails the chunk. Chunks committed before a failure
+     * stay imported.
+     *
+     * @return the number of rows that were added
+     * @throws SQLException if the write failed or an id belongs to a different record
+     */
+    int importHistory(List<Long> ids, List<PlayerBalance> rows) throws SQLException;
+
+    /**
+     * Streams every last balance into the index, keeping entries that are
+     * already present since they are newer. A failed load leaves the index
+     * with whatever was read before the error.
+     *
+     * @return the number of balances loaded into the index
+     */
+    int loadLastBalances(LastBalanceIndex index) throws SQLException;
+
+    /**
+     * Streams every stored last balance to the consumer, the way
+     * {@link LastBalanceIndex#forEach} does for the cache.
+     *
+     * @return the number of balances read
+     */
+    int streamLastBalances(LastBalanceIndex.EntryConsumer consumer) throws SQLException;
+
+    /**
+     * @return the player's last recorded balance, or {@code NaN} if there is none
+     * @throws SQLException if the lookup failed, which is not the same as no row
+     */
+    double loadLastBalance(UUID playerUuid) throws SQLException;
+
+    /**
+     * Overwrites the cached balances of {@code players} with their stored
+     * ones, for players another server may have recorded since. Looks the
+     * players up by key in {@code writeBatchSize} chunks.
+     *
+     * @return the number of balances refreshed
+     */
+    int refreshLastBalances(LastBalanceIndex index, Collection<UUID> players) throws SQLException;
+
+    /**
+     * @return the number of names loaded into the index
+     */
+    int loadPlayerNames(PlayerNameIndex index);
+
+    void savePlayerNames(Map<UUID, String> names);
+
+    /**
+     * Streams the UUID of every player in the name table, which every server
+     * sharing the database adds its players to.
+     *
+     * @return the number of players read
+     */
+    int streamKnownPlayers(Consumer<UUID> consumer) throws SQLException;
+
+    /**
+     * @return the player's UUID, or {@code null} if the name is unknown
+     */
+    UUID findPlayerUuid(String name);
+
+    /**
+     * Reads one page of a player's history, newest first. Only records with
+     * {@code from <= timestamp < to} are returned.
+     */
+    HistoryPage getBalanceHistory(UUID playerUuid, HistoryCursor cursor, long from, long to, int limit);
+
+    /**
+     * @return the cursor {@code skip} records past {@code cursor}, or {@code null}
+     *         if the history is shorter than that
+     */
+    HistoryCursor seekHistoryCursor(UUID playerUuid, HistoryCursor cursor, long from, long to, int skip);
+
+    /**
+     * Streams raw history with {@code timestamp >= since} to the consumer,
+     * oldest first.
+     *
+     * @return the number of rows read
+     */
+    int streamHistorySince(long since, Consumer<PlayerBalance> consumer);
+
+    /**
+     * Upserts hourly money supply figures, keyed by hour.
+     *
+     * @return whether every point was saved
+     */
+    boolean saveSupplyPoints(List<SupplyPoint> points);
+
+    /**
+     * @return hourly money supply figures with {@code hourStart >= from}, oldest first
+     */
+    List<SupplyPoint> loadSupplyHistory(long from);
+
+    /**
+     * Reads up to {@code limit} raw history rows with ids above
+     * {@code afterId}, in id order.
+     *
+     * @return the number of rows read
+     */
+    int readHistoryChunk(long afterId, int limit, HistoryRowConsumer consumer) throws SQLException;
+
+    /**
+     * Deletes up to {@code limit} of the oldest raw history rows with
+     * timestamps before {@code cutoff}.
+     *
+     * @return the number of rows deleted
+     */
+    int purgeChunk(long cutoff, int limit) throws SQLException;
+
+    long getState(String key, long defaultValue);
+
+    void setState(String key, long value);
+
+    /**
+     * Moves up to {@code limit} rows from an older schema version into the
+     * current one.
+     *
+     * @return the number of rows moved, {@code 0} once nothing is left
+     */
+    int migrateLegacyChunk(int limit) throws SQLException;
+
+    boolean isMigrationPending();
+
+    long findOldestTimestamp(long resolution) throws SQLException;
+
+    int compactWindow(long windowStart, long resolution) throws SQLException;
+
+    /**
+     * Records that the node is alive and makes sure partition rows
+     * {@code 0..partitions-1} exist, along with the row of
+     * {@link ClusterCoordinator#MAINTENANCE_LEASE}.
+     */
+    void heartbeatNode(String nodeId, long now, int partitions) throws SQLException;
+
+    /**
+     * @return the ids of nodes whose last heartbeat is at or after {@code since}
+     */
+    List<String> findLiveNodes(long since) throws SQLException;
+
+    /**
+     * Takes or renews the lease on each partition that is free, expired or
+     * already held by the node, in one transaction.
+     *
+     * @return the partitions the node now holds until {@code leaseExpires}
+     */
+    Set<Integer> claimPartitions(String nodeId, Collection<Integer> partitions, long now, long leaseExpires)
+            throws SQLException;
+
+    /**
+     * Gives up the node's leases on the partitions so another node can take them right away.
+     */
+    void releasePartitions(String nodeId, Collection<Integer> partitions) throws SQLException;
+
+    /**
+     * Releases every lease the node holds and removes it from the node list.
+     */
+    void leaveCluster(String nodeId) throws SQLException;
+
+    /**
+     * Flags players whose balance may have changed for whichever node owns
+     * them, stamped with {@code now}. Flagging a player again moves the stamp.
+     */
+    void markPlayersDirty(Collection<UUID> players, long now) throws SQLException;
+
+    /**
+     * @return every flagged player with the stamp of its latest flag
+     */
+    Map<UUID, Long> loadDirtyPlayers() throws SQLException;
+
+    /**
+     * Removes the flags of {@code players} unless they were flagged again
+     * after the given stamp.
+     */
+    void clearDirtyPlayers(Map<UUID, Long> players) throws SQLException;
+
+    /**
+     * Periodic keepalive hook for backends that hold connections open.
+     */
+    void validateIdleConnections();
+
+    String describePools();
+
+    HistoryCache getHistoryCache();
+
+    void close();
+
+    @FunctionalInterface
+    interface HistoryRowConsumer {
+        void accept(long id, UUID uuid, long timestamp, double balance);
+    }
+}
@@ -0,0 +1,101 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+import org.bukkit.entity.Player;
+
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Answers from the in-memory ranking, so every page and rank lookup is
+ * O(log n) regardless of how many players the server has seen.
+ */
+public class BalanceTopCommand implements TabExecutor {
+    private static final int PAGE_SIZE = 10;
+    private static final int MAX_COMPLETIONS = 50;
+
+    private final EconomyAnalytics analytics;
+    private final PlayerNameIndex nameIndex;
+
+    public BalanceTopCommand(EconomyAnalytics analytics, PlayerNameIndex nameIndex) {
+        this.analytics = analytics;
+        this.nameIndex = nameIndex;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length > 1) {
+            sender.sendMessage("§cUsage: /balancetop [page|player]");
+            return true;
+        }
+
+        BalanceRanking ranking = analytics.getBalances();
+        if (args.length == 1 && !args[0].chars().allMatch(Character::isDigit)) {
+            UUID uuid = nameIndex.find(args[0]);
+            int rank = uuid == null ? 0 : ranking.rank(uuid);
+            if (rank == 0) {
+                sender.sendMessage("§cNo recorded balance for " + args[0]);
+                return true;
+            }
+            sender.sendMessage("§e" + nameIndex.getName(uuid) + "§6 is ranked §e#" + rank + "§6 of §e" +
+                    ranking.size() + "§6 with §b" + String.format("$%,.2f", ranking.get(uuid)));
+            return true;
+        }
+
+        final int page;
+        try {
+            page = args.length == 1 ? Integer.parseInt(args[0]) : 1;
+        } catch (NumberFormatException e) {
+            sender.sendMessage("§cPage must be a number");
+            return true;
+        }
+        int pages = Math.max(1, (ranking.size() + PAGE_SIZE - 1) / PAGE_SIZE);
+        if (page < 1 || page > pages) {
+            sender.sendMessage("§cPage must be between 1 and " + pages);
+            return true;
+        }
+
+        sender.sendMessage("§6Top balances (page " + page + "/" + pages + "):");
+        for (BalanceRanking.Entry entry : ranking.top((page - 1) * PAGE_SIZE + 1, PAGE_SIZE)) {
+            sender.sendMessage("§7#" + entry.rank + " §e" + nameOf(entry.uuid) + "§f: §b" +
+                    String.format("$%,.2f", entry.score));
+        }
+        if (sender instanceof Player player) {
+            int rank = ranking.rank(player.getUniqueId());
+            if (rank > 0) {
+                sender.sendMessage("§7Your rank: §e#" + rank + "§7 of §e" + ranking.size());
+            }
+        }
+        sendSyncNote(sender, analytics);
+        return true;
+    }
+
+    /**
+     * In a cluster, tells the sender how current the other servers' balances are.
+     */
+    static void sendSyncNote(CommandSender sender, EconomyAnalytics analytics) {
+        long syncedAt = analytics.getLastSyncedAt();
+        if (syncedAt > 0) {
+            sender.sendMessage("§8Other servers' balances as of " +
+                    new SimpleDateFormat("HH:mm:ss").format(new Date(syncedAt)));
+        }
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        if (args.length == 1 && !args[0].isEmpty() && !Character.isDigit(args[0].charAt(0))) {
+            return nameIndex.complete(args[0], MAX_COMPLETIONS);
+        }
+        return Collections.emptyList();
+    }
+
+    private String nameOf(UUID uuid) {
+        String name = nameIndex.getName(uuid);
+        return name != null ? name : uuid.toString().substring(0, 8);
+    }
+}
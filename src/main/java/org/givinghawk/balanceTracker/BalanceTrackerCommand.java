@@ -0,0 +1,114 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+public class BalanceTrackerCommand implements TabExecutor {
+    private static final String USAGE = "§cUsage: /balancetracker <stats|export [csv|binary]|import <file>>";
+
+    private final BalanceMetrics metrics;
+    private final HistoryTransfer transfer;
+    private final Executor async;
+
+    /**
+     * @param async runs exports and imports off the main thread
+     */
+    public BalanceTrackerCommand(BalanceMetrics metrics, HistoryTransfer transfer, Executor async) {
+        this.metrics = metrics;
+        this.transfer = transfer;
+        this.async = async;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length == 0) {
+            sender.sendMessage(USAGE);
+            return true;
+        }
+
+        switch (args[0].toLowerCase(Locale.ROOT)) {
+            case "stats" -> showStats(sender);
+            case "export" -> startExport(sender, args);
+            case "import" -> startImport(sender, args);
+            default -> sender.sendMessage(USAGE);
+        }
+        return true;
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        List<String> options = new ArrayList<>();
+        if (args.length == 1) {
+            options.add("stats");
+            options.add("export");
+            options.add("import");
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("export")) {
+            options.add("csv");
+            options.add("binary");
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("import")) {
+            options.addAll(transfer.listFiles());
+        } else {
+            return Collections.emptyList();
+        }
+
+        String prefix = args[args.length - 1].toLowerCase(Locale.ROOT);
+        options.removeIf(option -> !option.toLowerCase(Locale.ROOT).startsWith(prefix));
+        return options;
+    }
+
+    private void showStats(CommandSender sender) {
+        if (!sender.hasPermission("balancetracker.stats")) {
+            sender.sendMessage("§cYou do not have permission to view statistics");
+            return;
+        }
+
+        sender.sendMessage("§6BalanceTracker statistics:");
+        for (String line : metrics.describe()) {
+            sender.sendMessage(line);
+        }
+    }
+
+    private void startExport(CommandSender sender, String[] args) {
+        if (!checkTransfer(sender) || args.length > 2) {
+            if (args.length > 2) sender.sendMessage(USAGE);
+            return;
+        }
+
+        HistoryTransfer.Format format;
+        try {
+            format = args.length > 1 ? HistoryTransfer.Format.valueOf(args[1].toUpperCase(Locale.ROOT))
+                    : HistoryTransfer.Format.CSV;
+        } catch (IllegalArgumentException e) {
+            sender.sendMessage("§cFormat must be csv or binary");
+            return;
+        }
+        async.execute(() -> transfer.export(format, sender));
+    }
+
+    private void startImport(CommandSender sender, String[] args) {
+        if (!checkTransfer(sender) || args.length != 2) {
+            if (args.length != 2) sender.sendMessage(USAGE);
+            return;
+        }
+        async.execute(() -> transfer.importFile(args[1], sender));
+    }
+
+    private boolean checkTransfer(CommandSender sender) {
+        if (!sender.hasPermission("balancetracker.transfer")) {
+            sender.sendMessage("§cYou do not have permission to export or import history");
+            return false;
+        }
+        if (transfer.isRunning()) {
+            sender.sendMessage("§cAn export or import is already running");
+            return false;
+        }
+        return true;
+    }
+}
@@ -4,31 +4,56 @@ import net.milkbowl.vault.economy.Economy;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.OfflinePlayer;
+import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.PluginCommand;
+import org.bukkit.command.TabCompleter;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.plugin.RegisteredServiceProvider;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.scheduler.BukkitTask;
 
-import java.text.NumberFormat;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 
 public class BalanceTrackerPlugin extends JavaPlugin {
     private Economy economy;
-    private DatabaseManager databaseManager;
+    private BalanceStorage databaseManager;
     private BukkitTask balanceCheckTask;
+    private SweepScheduler sweepScheduler;
+    private BalanceChecker balanceChecker;
+    private ParallelBalanceFetcher balanceFetcher;
+    private final PlayerNameIndex nameIndex = new PlayerNameIndex();
     private int checkInterval;
-    private final Map<UUID, Double> lastBalanceCache = new ConcurrentHashMap<>();
-    private final int purgeIntervalDays = 60;
+    private static final double CHANGE_THRESHOLD = 0.001;
+    private static final long BALANCE_LOAD_MAX_RETRY_SECONDS = 300;
+    private final LastBalanceIndex lastBalanceCache = new LastBalanceIndex();
+    private final BalanceMetrics metrics = new BalanceMetrics();
+    private MetricsServer metricsServer;
+    private PurgeEngine purgeEngine;
+    private RollupEngine rollupEngine;
+    private SchemaMigration schemaMigration;
+    private EconomyAnalytics economyAnalytics;
+    private HistoryTransfer historyTransfer;
+    private WriteBehindQueue writeQueue;
+    private ClusterCoordinator cluster;
+    private boolean clustered;
+    private volatile boolean lastBalancesLoaded;
+    // Only touched by the capture task
+    private long dirtyPollMillis;
+    private long nextDirtyPoll;
     private final SimpleDateFormat timeFormat = new SimpleDateFormat("MMM dd, yyyy HH:mm:ss");
-    private final NumberFormat currencyFormat = NumberFormat.getCurrencyInstance(Locale.US);
     public boolean debugMode = false;
 
     @Override
     public void onEnable() {
+        long enableStart = System.currentTimeMillis();
         timeFormat.setTimeZone(TimeZone.getDefault());
         saveDefaultConfig();
         FileConfiguration config = getConfig();
@@ -47,10 +72,18 @@ public class BalanceTrackerPlugin extends JavaPlugin {
         }
 
         try {
-            databaseManager = new DatabaseManager(this, config);
+            databaseManager = new DatabaseManager(getLogger(), debugMode, metrics, config,
+                    SqlDialect.fromConfig(config, getDataFolder()));
             databaseManager.initializeDatabase();
-            loadLastBalances();
             logStyled("&a✔ Database connected successfully");
+
+            writeQueue = new WriteBehindQueue(getLogger(), debugMode, databaseManager,
+                    new File(getDataFolder(), "balance-journal.bin"),
+                    config.getInt("writeBehind.queueCapacity", 50000), config.getInt("writeBatchSize", 500));
+            long pending = writeQueue.start();
+            if (pending > 0) {
+                logStyled("&a✔ Found &e" + pending + "&a unflushed balance changes in the journal");
+            }
         } catch (Exception e) {
             logStyled("&c✘ Failed to connect to database: &e" + e.getMessage());
             if (debugMode) {
@@ -60,26 +93,167 @@ public class BalanceTrackerPlugin extends JavaPlugin {
             return;
         }
 
+        // Before the sweep starts so no change is missed
+        if (config.getBoolean("analytics.enabled", true)) {
+            startAnalytics();
+        }
+        balanceChecker = new BalanceChecker(economy::getBalance, lastBalanceCache, CHANGE_THRESHOLD, metrics,
+                getLogger(), debugMode);
+        clustered = config.getBoolean("cluster.enabled", false);
+        loadLastBalances();
+        if (clustered) {
+            startCluster(config);
+        }
         checkInterval = config.getInt("balanceCheckInterval", 300) * 20;
+        if (config.getBoolean("capture.enabled", false)) {
+            // Events catch changes as they happen, so the sweep only needs to reconcile
+            checkInterval = config.getInt("capture.reconcileInterval", 3600) * 20;
+            startCapture(config);
+        }
+        if (cluster != null) {
+            sweepScheduler = new SweepScheduler(
+                    config.getInt("sweep.shards", 12),
+                    config.getLong("sweep.tickBudgetMillis", 200),
+                    config.getInt("sweep.recentActivityDays", 7),
+                    this::collectClusterPlayers);
+            cluster.onPartitionsAcquired(sweepScheduler::requestRebuild);
+        } else {
+            sweepScheduler = new SweepScheduler(
+                    config.getInt("sweep.shards", 12),
+                    config.getLong("sweep.tickBudgetMillis", 200),
+                    config.getInt("sweep.recentActivityDays", 7));
+        }
+        if (config.getBoolean("parallelSweep.enabled", false)) {
+            createBalanceFetcher(config);
+        }
         startBalanceCheckTask();
+        purgeEngine = new PurgeEngine(this, databaseManager,
+                config.getInt("purge.retentionDays", 60),
+                config.getInt("purge.chunkSize", 5000),
+                config.getLong("purge.chunkDelayMillis", 250));
+        if (config.getBoolean("rollup.enabled", false)) {
+            rollupEngine = new RollupEngine(this, databaseManager,
+                    config.getInt("rollup.hourlyAfterDays", 60),
+                    config.getInt("rollup.dailyAfterDays", 180),
+                    config.getLong("rollup.windowDelayMillis", 250),
+                    this::holdsMaintenanceLease);
+        }
         startPurgeTask();
+        if (databaseManager.isMigrationPending()) {
+            schemaMigration = new SchemaMigration(this, databaseManager,
+                    config.getInt("migration.chunkSize", 5000),
+                    config.getLong("migration.chunkDelayMillis", 250),
+                    this::holdsMaintenanceLease);
+            getServer().getScheduler().runTaskAsynchronously(this, schemaMigration::run);
+        }
+        startKeepaliveTask(config.getLong("storage.pool.keepaliveInterval", 60) * 20);
 
-        registerCommand("balancehistory", new BalanceHistoryCommand(databaseManager));
+        getServer().getPluginManager().registerEvents(new PlayerNameListener(this, nameIndex, databaseManager), this);
+        loadPlayerNames();
 
-        logStyled("&a✔ Plugin enabled successfully");
+        registerCommand("balancehistory", new BalanceHistoryCommand(databaseManager, nameIndex));
+        historyTransfer = new HistoryTransfer(getLogger(), databaseManager, new File(getDataFolder(), "exports"),
+                config.getInt("transfer.chunkSize", 5000),
+                config.getLong("transfer.chunkDelayMillis", 250),
+                config.getDouble("transfer.maxRowsPerSecond", 10000));
+        registerCommand("balancetracker", new BalanceTrackerCommand(metrics, historyTransfer, this::runAsync));
+        if (economyAnalytics != null) {
+            registerCommand("balancetop", new BalanceTopCommand(economyAnalytics, nameIndex));
+            registerCommand("economystats", new EconomyStatsCommand(economyAnalytics, databaseManager, nameIndex,
+                    this::runAsync));
+        }
+        registerGauges();
+        if (config.getBoolean("metrics.enabled", false)) {
+            startMetricsServer(config);
+        }
+
+        logStyled("&a✔ Plugin enabled successfully in &e" + (System.currentTimeMillis() - enableStart) + "ms");
     }
 
+    /**
+     * Streams last balances into the cache in the background so a large
+     * table does not hold up server startup. Until it finishes, the checker
+     * fetches players the load has not reached yet on demand, and a failed
+     * load is retried with a growing delay. Analytics are seeded once the
+     * cache is complete.
+     * <p>
+     * In a cluster the on-demand lookups stay on after the load, since
+     * players recorded by other servers since then are not in the cache.
+     */
     private void loadLastBalances() {
-        int count = lastBalanceCache.size();
         lastBalanceCache.clear();
-        lastBalanceCache.putAll(databaseManager.getLastBalances());
-        logStyled("&a✔ Loaded &e" + lastBalanceCache.size() + "&a player balances from database");
+        balanceChecker.loadOnDemand(databaseManager::loadLastBalance);
+        logStyled("&a✔ Loading player balances in the background");
+
+        getServer().getScheduler().runTaskAsynchronously(this, () -> loadLastBalances(1));
+    }
+
+    private void loadLastBalances(int attempt) {
+        long startTime = System.currentTimeMillis();
+        int loaded;
+        try {
+            loaded = databaseManager.loadLastBalances(lastBalanceCache);
+        } catch (SQLException e) {
+            // The cache is incomplete, so the checker keeps looking players up on demand until a load succeeds
+            long delaySeconds = Math.min(BALANCE_LOAD_MAX_RETRY_SECONDS, 5L << Math.min(attempt - 1, 6));
+            logStyled("&c✘ Failed to load player balances (attempt &e" + attempt + "&c), retrying in &e" +
+                    delaySeconds + "s");
+            getLogger().log(Level.SEVERE, "Last balances query failed", e);
+            getServer().getScheduler().runTaskLaterAsynchronously(this, () -> loadLastBalances(attempt + 1),
+                    delaySeconds * 20);
+            return;
+        }
+
+        lastBalancesLoaded = true;
+        if (!clustered) {
+            balanceChecker.markWarm();
+        }
+        logStyled("&a✔ Loaded &e" + loaded + "&a player balances from database in &e" +
+                (System.currentTimeMillis() - startTime) + "ms &7(&e" + balanceChecker.getColdLookups() +
+                "&7 looked up on demand meanwhile)");
+
+        if (economyAnalytics != null) {
+            warmUpAnalytics();
+        }
+    }
+
+    /**
+     * Fills the name index in the background: persisted names first, then any
+     * names only Bukkit knows about, which are written back to the database.
+     */
+    private void loadPlayerNames() {
+        getServer().getScheduler().runTaskAsynchronously(this, () -> {
+            long startTime = System.currentTimeMillis();
+            int persisted = databaseManager.loadPlayerNames(nameIndex);
+
+            Map<UUID, String> discovered = new HashMap<>();
+            for (OfflinePlayer player : Bukkit.getOfflinePlayers()) {
+                if (nameIndex.update(player.getUniqueId(), player.getName())) {
+                    discovered.put(player.getUniqueId(), player.getName());
+                }
+            }
+            if (!discovered.isEmpty()) {
+                databaseManager.savePlayerNames(discovered);
+            }
+            nameIndex.markLoaded();
+
+            logStyled("&a✔ Indexed &e" + nameIndex.size() + "&a player names &7(&e" + persisted +
+                    "&7 from database, &e" + discovered.size() + "&7 new, &a" +
+                    (System.currentTimeMillis() - startTime) + "ms&7)");
+        });
+    }
+
+    private void runAsync(Runnable task) {
+        getServer().getScheduler().runTaskAsynchronously(this, task);
     }
 
-    private void registerCommand(String commandName, BalanceHistoryCommand executor) {
+    private void registerCommand(String commandName, CommandExecutor executor) {
         PluginCommand command = getCommand(commandName);
         if (command != null) {
             command.setExecutor(executor);
+            if (executor instanceof TabCompleter completer) {
+                command.setTabCompleter(completer);
+            }
             logStyled("&a✔ Registered command: &e/" + commandName);
         } else {
             logStyled("&c✘ Failed to register command: &e/" + commandName);
@@ -92,6 +266,36 @@ public class BalanceTrackerPlugin extends JavaPlugin {
             balanceCheckTask.cancel();
             logStyled("&6■ Balance check task stopped");
         }
+        if (balanceFetcher != null) {
+            balanceFetcher.close();
+        }
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        if (purgeEngine != null) {
+            purgeEngine.stop();
+        }
+        if (rollupEngine != null) {
+            rollupEngine.stop();
+        }
+        if (schemaMigration != null) {
+            schemaMigration.stop();
+        }
+        if (historyTransfer != null) {
+            historyTransfer.stop();
+        }
+        if (economyAnalytics != null) {
+            // Saves the supply of the hour in progress, before the cluster lease is given up
+            economyAnalytics.tick(holdsMaintenanceLease());
+        }
+        if (cluster != null) {
+            // Hands partitions over now instead of when the leases expire
+            cluster.stop();
+        }
+        if (writeQueue != null) {
+            // Give the writer a moment to flush; the rest is replayed from the journal on next start
+            writeQueue.stop(10_000);
+        }
         if (databaseManager != null) {
             databaseManager.close();
             logStyled("&6■ Database connection closed");
@@ -116,83 +320,312 @@ public class BalanceTrackerPlugin extends JavaPlugin {
 
     private void startBalanceCheckTask() {
         balanceCheckTask = getServer().getScheduler().runTaskTimerAsynchronously(this, () -> {
-            OfflinePlayer[] allPlayers = Bukkit.getOfflinePlayers();
-            List<UUID> changedPlayers = new ArrayList<>();
-            int totalPlayers = 0;
+            // Parallel fetches add to the list from several threads
+            List<PlayerBalance> changes = Collections.synchronizedList(new ArrayList<>());
+            long sweepStart = System.nanoTime();
 
+            Set<UUID> priorityPlayers = sweepScheduler.collectPriorityPlayers();
             if (debugMode) {
-                logStyled("&7◆ Starting balance check for &e" + allPlayers.length + "&7 players");
-            }
-
-            for (OfflinePlayer player : allPlayers) {
-                UUID uuid = player.getUniqueId();
-                if (uuid == null) continue;
-                totalPlayers++;
-
-                try {
-                    double currentBalance = economy.getBalance(player);
-                    Double lastBalance = lastBalanceCache.get(uuid);
-
-                    if (lastBalance == null) {
-                        // New player detected
-                        if (debugMode) {
-                            String name = player.getName() != null ? player.getName() : "Unknown";
-                            logStyled("&7◆ New player detected: &e" + name + " &7(&a" +
-                                    formatCurrency(currentBalance) + "&7)");
-                        }
-                        databaseManager.recordBalance(uuid, currentBalance);
-                        lastBalanceCache.put(uuid, currentBalance);
-                        changedPlayers.add(uuid);
-                    } else if (Math.abs(currentBalance - lastBalance) > 0.001) {
-                        // Balance changed
-                        if (debugMode) {
-                            String name = player.getName() != null ? player.getName() : "Unknown";
-                            logStyled("&7◆ Balance change: &e" + name +
-                                    " &7(&e" + formatCurrency(lastBalance) + " &6→ &a" +
-                                    formatCurrency(currentBalance) + "&7)");
-                        }
-                        databaseManager.recordBalance(uuid, currentBalance);
-                        lastBalanceCache.put(uuid, currentBalance);
-                        changedPlayers.add(uuid);
-                    }
-                } catch (Exception e) {
-                    String playerName = player.getName() != null ? player.getName() : uuid.toString();
-                    logStyled("&c⚠ Failed to check balance for player: &e" + playerName);
-                    if (debugMode) {
-                        getLogger().log(Level.WARNING, "Balance check error", e);
-                    }
+                logStyled("&7◆ Starting balance check for &e" + priorityPlayers.size() +
+                        "&7 active players");
+            }
+
+            AtomicInteger checkedPlayers = new AtomicInteger();
+            Consumer<OfflinePlayer> checker = player -> {
+                if (cluster != null && !cluster.owns(player.getUniqueId())) return;
+                if (balanceFetcher == null) {
+                    if (balanceChecker.check(player, changes)) checkedPlayers.incrementAndGet();
+                    return;
                 }
+                balanceFetcher.submit(() -> {
+                    if (balanceChecker.check(player, changes)) checkedPlayers.incrementAndGet();
+                });
+            };
+
+            for (UUID uuid : priorityPlayers) {
+                checker.accept(Bukkit.getOfflinePlayer(uuid));
+            }
+            SweepScheduler.ShardResult shard = sweepScheduler.sweepShard(checker);
+            if (balanceFetcher != null) {
+                balanceFetcher.awaitIdle();
             }
+            int totalPlayers = checkedPlayers.get();
+            metrics.recordSweep(System.nanoTime() - sweepStart, totalPlayers, changes.size());
 
-            if (!changedPlayers.isEmpty()) {
-                logStyled("&a✔ Recorded &e" + changedPlayers.size() + "&a balance changes " +
-                        "(&7" + totalPlayers + "&a players checked)");
+            if (shard != null) {
+                metrics.recordShard(shard);
+            }
+            if (shard != null && debugMode) {
+                logStyled("&7◆ Swept shard &e" + (shard.shard + 1) + "&7/&e" + shard.shardCount +
+                        "&7: &e" + shard.players + "&7 players in &a" + shard.getMillis() + "ms &7(&e" +
+                        shard.getPlayersPerSecond() + "&7 players/s)");
+            } else if (debugMode) {
+                logStyled("&7◆ Shard budget exhausted, resuming next interval");
+            }
+
+            if (!changes.isEmpty()) {
+                if (economyAnalytics != null) {
+                    economyAnalytics.record(changes);
+                }
+                writeQueue.enqueue(changes);
+                logStyled("&a✔ Queued &e" + changes.size() + "&a balance changes " +
+                        "(&7" + totalPlayers + "&a players checked, queue depth &7" + writeQueue.getDepth() +
+                        "&a, lag &7" + writeQueue.getLagMillis() + "ms&a)");
             } else if (debugMode) {
-                logStyled("&7◆ No balance changes detected (&e" + totalPlayers + "&7 players checked)");
+                logStyled("&7◆ No balance changes detected (&e" + totalPlayers + "&7 players checked in &a" +
+                        (System.nanoTime() - sweepStart) / 1_000_000 + "ms&7)");
+            }
+
+            if (debugMode) {
+                logStyled("&7◆ Connection pools: &e" + databaseManager.describePools());
+                logStyled("&7◆ " + databaseManager.getHistoryCache().describe());
             }
         }, 0, checkInterval);
 
-        logStyled("&a✔ Balance check task started &7(Interval: &e" + (checkInterval/20) + "s&7)");
+        logStyled("&a✔ Balance check task started &7(Interval: &e" + (checkInterval/20) + "s&7, &e" +
+                sweepScheduler.getShardCount() + "&7 offline shards)");
+    }
+
+    private void createBalanceFetcher(FileConfiguration config) {
+        // A provider-specific limit wins over the general one
+        double callsPerSecond = config.getDouble("parallelSweep.providerLimits." + economy.getName(),
+                config.getDouble("parallelSweep.maxCallsPerSecond", 0));
+        balanceFetcher = new ParallelBalanceFetcher(
+                config.getInt("parallelSweep.concurrency", 16),
+                callsPerSecond,
+                config.getBoolean("parallelSweep.virtualThreads", true));
+
+        logStyled("&a✔ Parallel balance fetching enabled &7(&e" + balanceFetcher.getConcurrency() +
+                "&7 concurrent, " + (callsPerSecond > 0 ? "&e" + callsPerSecond + "&7 calls/s" : "no rate limit") +
+                " for &e" + economy.getName() + "&7)");
+    }
+
+    private void startCapture(FileConfiguration config) {
+        DirtyPlayerQueue dirtyPlayers = new DirtyPlayerQueue(config.getLong("capture.debounceSeconds", 5) * 1000);
+        BalanceCaptureListener listener = new BalanceCaptureListener(this, dirtyPlayers);
+        getServer().getPluginManager().registerEvents(listener, this);
+        int economyEvents = listener.registerEconomyEvents(config.getStringList("capture.economyEvents"));
+        dirtyPollMillis = Math.max(1, config.getLong("cluster.heartbeatSeconds", 10)) * 1000;
+
+        getServer().getScheduler().runTaskTimerAsynchronously(this, () -> {
+            List<PlayerBalance> changes = new ArrayList<>();
+            List<UUID> forwarded = new ArrayList<>();
+            int drained = dirtyPlayers.drain(uuid -> {
+                if (cluster == null || cluster.owns(uuid)) {
+                    balanceChecker.check(Bukkit.getOfflinePlayer(uuid), changes);
+                } else {
+                    forwarded.add(uuid);
+                }
+            });
+            if (cluster != null) {
+                drained += exchangeDirtyPlayers(forwarded, changes);
+            }
+
+            if (!changes.isEmpty()) {
+                if (economyAnalytics != null) {
+                    economyAnalytics.record(changes);
+                }
+                writeQueue.enqueue(changes);
+                if (debugMode) {
+                    logStyled("&7◆ Captured &e" + changes.size() + "&7 balance changes from &e" + drained +
+                            "&7 dirty players");
+                }
+            }
+        }, 20, 20);
+
+        logStyled("&a✔ Event capture enabled &7(&e" + economyEvents + "&7 economy events hooked)");
+    }
+
+    /**
+     * Flags captured players owned by other nodes for them, and every
+     * heartbeat interval checks the players other nodes flagged for this one.
+     *
+     * @return the number of flagged players checked here
+     */
+    private int exchangeDirtyPlayers(List<UUID> forwarded, List<PlayerBalance> changes) {
+        try {
+            if (!forwarded.isEmpty()) {
+                cluster.forwardDirtyPlayers(forwarded);
+            }
+            long now = System.currentTimeMillis();
+            if (now < nextDirtyPoll) {
+                return 0;
+            }
+            nextDirtyPoll = now + dirtyPollMillis;
+
+            List<UUID> flagged = cluster.takeDirtyPlayers();
+            for (UUID uuid : flagged) {
+                balanceChecker.check(Bukkit.getOfflinePlayer(uuid), changes);
+            }
+            return flagged.size();
+        } catch (SQLException e) {
+            // The owner's sweep still reaches these players, just later
+            logStyled("&c⚠ Failed to exchange captured players with the cluster");
+            getLogger().log(Level.WARNING, "Cluster dirty player exchange failed", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Joins the cluster before the first sweep so this node only ever checks
+     * the partitions it holds.
+     */
+    private void startCluster(FileConfiguration config) {
+        String nodeId = config.getString("cluster.nodeId", "");
+        if (nodeId == null || nodeId.isEmpty()) {
+            nodeId = defaultNodeId();
+        }
+        long heartbeatTicks = Math.max(1, config.getLong("cluster.heartbeatSeconds", 10)) * 20;
+        cluster = new ClusterCoordinator(getLogger(), debugMode, databaseManager, lastBalanceCache, nodeId,
+                config.getInt("cluster.partitions", 64),
+                config.getLong("cluster.leaseSeconds", 30) * 1000,
+                heartbeatTicks * 50);
+        cluster.heartbeat();
+        getServer().getScheduler().runTaskTimerAsynchronously(this, cluster::heartbeat, heartbeatTicks, heartbeatTicks);
+
+        if (economyAnalytics != null) {
+            long syncTicks = Math.max(1, config.getLong("analytics.clusterSyncSeconds", 60)) * 20;
+            getServer().getScheduler().runTaskTimerAsynchronously(this, this::syncAnalytics, syncTicks, syncTicks);
+        }
+    }
+
+    /**
+     * Brings the balances other nodes recorded into the rankings and supply.
+     * Waits for the startup load, which seeds the same players.
+     */
+    private void syncAnalytics() {
+        if (!lastBalancesLoaded) return;
+
+        long startTime = System.currentTimeMillis();
+        try {
+            int updated = economyAnalytics.sync(cluster::owns);
+            if (debugMode) {
+                logStyled("&7◆ Synced &e" + updated + "&7 balances from other cluster nodes in &a" +
+                        (System.currentTimeMillis() - startTime) + "ms");
+            }
+        } catch (SQLException e) {
+            logStyled("&c⚠ Failed to sync economy analytics with the cluster");
+            getLogger().log(Level.WARNING, "Cluster analytics sync failed", e);
+        }
+    }
+
+    /**
+     * @return the players of this node's partitions from the shared name
+     *         table, or this server's own players if the table cannot be read
+     */
+    private List<OfflinePlayer> collectClusterPlayers() {
+        try {
+            List<OfflinePlayer> players = new ArrayList<>();
+            for (UUID uuid : cluster.collectOwnedPlayers()) {
+                players.add(Bukkit.getOfflinePlayer(uuid));
+            }
+            return players;
+        } catch (SQLException e) {
+            logStyled("&c⚠ Failed to read the cluster's players, sweeping this server's players until the next rotation");
+            getLogger().log(Level.WARNING, "Cluster player query failed", e);
+            return Arrays.asList(Bukkit.getOfflinePlayers());
+        }
+    }
+
+    private String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "localhost";
+        }
+        return host + ":" + getServer().getPort();
+    }
+
+    private void startAnalytics() {
+        economyAnalytics = new EconomyAnalytics(databaseManager);
+        // Closes finished hours and saves the money supply once a minute
+        getServer().getScheduler().runTaskTimerAsynchronously(this,
+                () -> economyAnalytics.tick(holdsMaintenanceLease()), 20 * 60, 20 * 60);
+    }
+
+    /**
+     * Ranks the cached balances and rebuilds the last 24 hours of gains and
+     * losses from history. Runs once the last-balance cache is complete.
+     */
+    private void warmUpAnalytics() {
+        long startTime = System.currentTimeMillis();
+        int ranked = economyAnalytics.seed(lastBalanceCache);
+        int rows = economyAnalytics.warmUp();
+        logStyled("&a✔ Economy analytics ready &7(&e" + ranked + "&7 players ranked, &e" + rows +
+                "&7 recent changes replayed in &a" + (System.currentTimeMillis() - startTime) + "ms&7)");
+    }
+
+    /**
+     * @return whether this server runs purge, rollup, migration and the
+     *         supply summary; in a cluster only the maintenance lease holder does
+     */
+    private boolean holdsMaintenanceLease() {
+        return cluster == null || cluster.holdsMaintenanceLease();
     }
 
     private void startPurgeTask() {
         long ticksPerDay = 20 * 60 * 60 * 24;
         long initialDelay = (long) (ticksPerDay * 0.16); // 4:00 AM
 
+        // With rollups enabled old history is compacted rather than deleted
+        Runnable maintenance = rollupEngine != null ? rollupEngine::run : purgeEngine::run;
         getServer().getScheduler().runTaskTimerAsynchronously(this, () -> {
-            logStyled("&6■ Starting purge of records older than &e" + purgeIntervalDays + "&6 days");
-            databaseManager.purgeOldRecords(purgeIntervalDays);
+            if (holdsMaintenanceLease()) {
+                maintenance.run();
+            } else {
+                logStyled("&6■ Another cluster node holds the maintenance lease, skipping " +
+                        (rollupEngine != null ? "rollup" : "purge"));
+            }
         }, initialDelay, ticksPerDay);
 
         String nextRun = timeFormat.format(new Date(System.currentTimeMillis() + initialDelay * 50));
-        logStyled("&a✔ Purge task scheduled &7(Next run: &e" + nextRun + "&7)");
+        logStyled("&a✔ " + (rollupEngine != null ? "Rollup" : "Purge") + " task scheduled &7(Next run: &e" +
+                nextRun + "&7)");
     }
 
-    private void logStyled(String message) {
-        getLogger().info(ChatColor.translateAlternateColorCodes('&', message));
+    private void registerGauges() {
+        metrics.gauge("last_balances", "Players in the last-balance cache", lastBalanceCache::size);
+        metrics.gauge("last_balances_warm", "Whether the last-balance cache has finished loading", () ->
+                lastBalancesLoaded ? 1 : 0);
+        metrics.gauge("last_balances_cold_lookups", "Players looked up on demand because they were not cached",
+                balanceChecker::getColdLookups);
+        if (economyAnalytics != null) {
+            metrics.gauge("money_supply", "Sum of all recorded balances", economyAnalytics::getSupply);
+        }
+        if (cluster != null) {
+            metrics.gauge("cluster_partitions_owned", "Sweep partitions leased to this node",
+                    cluster::getOwnedPartitions);
+            metrics.gauge("cluster_nodes", "Live nodes in the cluster", cluster::getLiveNodes);
+        }
+        metrics.gauge("player_names", "Players in the name index", nameIndex::size);
+        metrics.gauge("write_queue_depth", "Balance changes waiting to be written", writeQueue::getDepth);
+        metrics.gauge("write_queue_lag_ms", "Age of the oldest unwritten change in ms", writeQueue::getLagMillis);
+        metrics.gauge("write_journal_enabled", "1 while balance changes are journaled, 0 after a journal failure",
+                () -> writeQueue.isJournaling() ? 1 : 0);
+        metrics.gauge("purge_last_deleted", "Rows deleted by the last purge", purgeEngine::getLastRunDeleted);
+        metrics.gauge("purge_last_rows_per_second", "Throughput of the last purge in rows/s", () ->
+                purgeEngine.getLastRunDeleted() * 1000.0 / Math.max(1, purgeEngine.getLastRunMillis()));
+    }
+
+    private void startMetricsServer(FileConfiguration config) {
+        String host = config.getString("metrics.host", "127.0.0.1");
+        int port = config.getInt("metrics.port", 9464);
+        try {
+            metricsServer = new MetricsServer(metrics, host, port);
+            metricsServer.start();
+            logStyled("&a✔ Metrics endpoint listening on &ehttp://" + host + ":" + port + "/metrics");
+        } catch (IOException e) {
+            logStyled("&c✘ Failed to start metrics endpoint on &e" + host + ":" + port + "&c: " + e.getMessage());
+        }
     }
 
-    private String formatCurrency(double amount) {
-        return currencyFormat.format(amount).replace("$", "⛃ "); // Using gold ingot symbol
+    private void startKeepaliveTask(long intervalTicks) {
+        getServer().getScheduler().runTaskTimerAsynchronously(this,
+                databaseManager::validateIdleConnections, intervalTicks, intervalTicks);
+    }
+
+    private void logStyled(String message) {
+        getLogger().info(ChatColor.translateAlternateColorCodes('&', message));
     }
 }
\ No newline at end of file
@@ -0,0 +1,345 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.ChatColor;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Splits the sweep between servers that share one database. Players are
+ * hashed into a fixed number of partitions, and each partition is leased to
+ * one node at a time through the {@code cluster_partitions} table, so every
+ * balance is checked and recorded by exactly one server.
+ * <p>
+ * On each heartbeat a node refreshes its entry in {@code cluster_nodes},
+ * works out which partitions it should own among the live nodes by
+ * rendezvous hashing, gives up the ones it should no longer own and claims
+ * or renews the rest. Rendezvous hashing moves only the partitions of the
+ * node that joined or left. Another node's lease has to be released or
+ * expired before it can be taken, and a node stops treating a partition as
+ * its own once its lease could have run out, so two nodes never sweep the
+ * same partition. Node clocks are assumed to be roughly in sync.
+ * <p>
+ * The sweep covers every player in the shared name table whose partition
+ * the node owns, not only the players who joined this server. Cached last
+ * balances of partitions acquired after joining are reloaded from the
+ * database before they are swept, since another node recorded them until
+ * then. The reload looks up only the cached players of those partitions and
+ * runs outside the heartbeat lock; players this node has never cached are
+ * looked up one by one when first checked. Players whose balance changed
+ * on a server that does not own them are flagged in
+ * {@code cluster_dirty_players} for the owner to check.
+ * <p>
+ * One extra lease, {@link #MAINTENANCE_LEASE}, is not tied to any players.
+ * Whichever node holds it runs the cluster-wide jobs: purge or rollup,
+ * the legacy migration and the money supply summary. The holder keeps it
+ * until it leaves or stops renewing.
+ */
+public class ClusterCoordinator {
+    // Row of cluster_partitions that leases maintenance rather than players
+    public static final int MAINTENANCE_LEASE = -1;
+    // Salts the partition hash so it is independent of UUID.hashCode, which the sweep shards players by
+    private static final long PARTITION_SEED = 0x5DEECE66DL;
+
+    private final Logger logger;
+    private final boolean debugMode;
+    private final BalanceStorage databaseManager;
+    private final LastBalanceIndex lastBalances;
+    private final String nodeId;
+    private final int partitions;
+    private final long leaseMillis;
+    private final long heartbeatMillis;
+
+    // Replaced as a whole so the sweep can read it without locking
+    private volatile boolean[] owned;
+    private volatile long ownedUntil;
+    private volatile int liveNodes;
+    private volatile long maintenanceUntil;
+    private final Set<Integer> held = new HashSet<>();
+    // Held partitions whose cached balances still have to be reloaded; not swept until then
+    private final Set<Integer> stale = new HashSet<>();
+    private final Set<Integer> refreshing = new HashSet<>();
+    // The startup load reads the same table, so the first claim needs no refresh
+    private boolean joined;
+    private volatile Runnable acquiredListener = () -> { };
+
+    public ClusterCoordinator(Logger logger, boolean debugMode, BalanceStorage databaseManager,
+                              LastBalanceIndex lastBalances, String nodeId, int partitions, long leaseMillis,
+                              long heartbeatMillis) {
+        this.logger = logger;
+        this.debugMode = debugMode;
+        this.databaseManager = databaseManager;
+        this.lastBalances = lastBalances;
+        this.nodeId = nodeId;
+        this.partitions = Math.max(1, partitions);
+        // A lease must outlive at least two heartbeats, or it would lapse between renewals
+        this.heartbeatMillis = heartbeatMillis;
+        this.leaseMillis = Math.max(leaseMillis, 2 * heartbeatMillis);
+        this.owned = new boolean[this.partitions];
+    }
+
+    /**
+     * @return whether this node currently owns the player's partition
+     */
+    public boolean owns(UUID uuid) {
+        return owned[partitionOf(uuid)] && System.currentTimeMillis() < ownedUntil;
+    }
+
+    /**
+     * @return whether this node runs the cluster-wide maintenance jobs
+     */
+    public boolean holdsMaintenanceLease() {
+        return System.currentTimeMillis() < maintenanceUntil;
+    }
+
+    /**
+     * Runs periodically off the main thread. Partitions acquired from
+     * another node are swept once their cached balances are reloaded, which
+     * happens after the lease bookkeeping so renewals never wait on it.
+     */
+    public void heartbeat() {
+        Set<Integer> acquired = renewLeases();
+        if (acquired.isEmpty()) {
+            return;
+        }
+
+        try {
+            List<UUID> players = new ArrayList<>();
+            lastBalances.forEach((msb, lsb, balance) -> {
+                UUID uuid = new UUID(msb, lsb);
+                if (acquired.contains(partitionOf(uuid))) {
+                    players.add(uuid);
+                }
+            });
+            int refreshed = databaseManager.refreshLastBalances(lastBalances, players);
+            if (debugMode) {
+                logStyled("&7◆ Refreshed &e" + refreshed + "&7 cached balances for &e" + acquired.size() +
+                        "&7 acquired partitions");
+            }
+            synchronized (this) {
+                stale.removeAll(acquired);
+                publish(ownedUntil);
+            }
+            acquiredListener.run();
+        } catch (SQLException e) {
+            logStyled("&c⚠ Failed to refresh cached balances of &e" + acquired.size() +
+                    "&c acquired partitions, retrying on the next heartbeat");
+            logger.log(Level.WARNING, "Cluster balance refresh failed", e);
+        } finally {
+            synchronized (this) {
+                refreshing.removeAll(acquired);
+            }
+        }
+    }
+
+    /**
+     * Runs {@code listener} on the heartbeat thread whenever partitions
+     * acquired from another node become ready to sweep.
+     */
+    public void onPartitionsAcquired(Runnable listener) {
+        acquiredListener = listener;
+    }
+
+    /**
+     * Reads every known player from the shared name table and keeps those
+     * in partitions this node currently sweeps.
+     */
+    public List<UUID> collectOwnedPlayers() throws SQLException {
+        List<UUID> players = new ArrayList<>();
+        databaseManager.streamKnownPlayers(uuid -> {
+            if (owns(uuid)) {
+                players.add(uuid);
+            }
+        });
+        return players;
+    }
+
+    /**
+     * Hands players this node saw change but does not own to their owners.
+     */
+    public void forwardDirtyPlayers(Collection<UUID> players) throws SQLException {
+        databaseManager.markPlayersDirty(players, System.currentTimeMillis());
+    }
+
+    /**
+     * Takes the flagged players this node currently sweeps off the shared
+     * list. A player flagged again meanwhile stays on it.
+     *
+     * @return the players to check
+     */
+    public List<UUID> takeDirtyPlayers() throws SQLException {
+        Map<UUID, Long> flagged = databaseManager.loadDirtyPlayers();
+        flagged.keySet().removeIf(uuid -> !owns(uuid));
+        if (!flagged.isEmpty()) {
+            databaseManager.clearDirtyPlayers(flagged);
+        }
+        return new ArrayList<>(flagged.keySet());
+    }
+
+    /**
+     * Claims or renews this node's partitions and the maintenance lease.
+     *
+     * @return the stale partitions the caller should refresh now
+     */
+    private synchronized Set<Integer> renewLeases() {
+        long now = System.currentTimeMillis();
+        try {
+            databaseManager.heartbeatNode(nodeId, now, partitions);
+            List<String> nodes = databaseManager.findLiveNodes(now - leaseMillis);
+            if (!nodes.contains(nodeId)) {
+                nodes.add(nodeId);
+            }
+            liveNodes = nodes.size();
+
+            Set<Integer> target = new HashSet<>();
+            for (int partition = 0; partition < partitions; partition++) {
+                if (nodeId.equals(ownerOf(partition, nodes))) {
+                    target.add(partition);
+                }
+            }
+
+            Set<Integer> previous = new HashSet<>(held);
+            Set<Integer> surrendered = new HashSet<>(held);
+            surrendered.removeAll(target);
+            if (!surrendered.isEmpty()) {
+                // Stop sweeping before the release makes them available to others
+                held.removeAll(surrendered);
+                publish(ownedUntil);
+                databaseManager.releasePartitions(nodeId, surrendered);
+            }
+
+            Set<Integer> requested = new HashSet<>(target);
+            requested.add(MAINTENANCE_LEASE);
+            Set<Integer> claimed = databaseManager.claimPartitions(nodeId, requested, now, now + leaseMillis);
+            // Measured from before the claim, so the local view never outlasts the lease in the database
+            long until = now + leaseMillis - heartbeatMillis / 2;
+            boolean maintenance = claimed.remove(MAINTENANCE_LEASE);
+            if (maintenance != holdsMaintenanceLease()) {
+                logStyled(maintenance
+                        ? "&a✔ Cluster node &e" + nodeId + "&a runs purge, rollup and migration for the cluster"
+                        : "&6■ Cluster node &e" + nodeId + "&6 leaves maintenance to another node");
+            }
+            maintenanceUntil = maintenance ? until : 0;
+
+            Set<Integer> acquired = new HashSet<>(claimed);
+            acquired.removeAll(held);
+            if (joined) {
+                stale.addAll(acquired);
+            }
+
+            boolean changed = !joined || !claimed.equals(previous);
+            joined = true;
+            held.clear();
+            held.addAll(claimed);
+            stale.retainAll(held);
+            publish(until);
+
+            if (changed) {
+                logStyled("&a✔ Cluster node &e" + nodeId + "&a owns &e" + held.size() + "&a/&e" + partitions +
+                        "&a partitions &7(&e" + liveNodes + "&7 live nodes" +
+                        (held.size() < target.size() ? ", &e" + (target.size() - held.size()) +
+                                "&7 still leased elsewhere" : "") + ")");
+            }
+
+            Set<Integer> refresh = new HashSet<>(stale);
+            refresh.removeAll(refreshing);
+            refreshing.addAll(refresh);
+            return refresh;
+        } catch (SQLException e) {
+            // Leases lapse locally at ownedUntil, so an unreachable database cannot cause double sweeps
+            logStyled("&c⚠ Cluster heartbeat failed for node &e" + nodeId);
+            logger.log(Level.WARNING, "Cluster heartbeat failed", e);
+            return Collections.emptySet();
+        }
+    }
+
+    /**
+     * Releases every lease so other nodes can take over right away.
+     */
+    public synchronized void stop() {
+        held.clear();
+        stale.clear();
+        publish(0);
+        maintenanceUntil = 0;
+        try {
+            databaseManager.leaveCluster(nodeId);
+            logStyled("&6■ Cluster node &e" + nodeId + "&6 left the cluster");
+        } catch (SQLException e) {
+            logStyled("&c⚠ Failed to leave the cluster; leases expire in &e" + leaseMillis / 1000 + "s");
+            logger.log(Level.WARNING, "Cluster leave failed", e);
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public int getOwnedPartitions() {
+        if (System.currentTimeMillis() >= ownedUntil) {
+            return 0;
+        }
+        int count = 0;
+        for (boolean partition : owned) {
+            if (partition) count++;
+        }
+        return count;
+    }
+
+    public int getLiveNodes() {
+        return liveNodes;
+    }
+
+    public int partitionOf(UUID uuid) {
+        long hash = mix(uuid.getMostSignificantBits() ^ Long.rotateLeft(uuid.getLeastSignificantBits(), 32)
+                ^ PARTITION_SEED);
+        return (int) Long.remainderUnsigned(hash, partitions);
+    }
+
+    /**
+     * Lets the sweep see the held partitions that are not stale, until {@code until}.
+     */
+    private void publish(long until) {
+        boolean[] next = new boolean[partitions];
+        for (int partition : held) {
+            next[partition] = !stale.contains(partition);
+        }
+        ownedUntil = until;
+        owned = next;
+    }
+
+    /**
+     * Rendezvous hashing: the node with the highest score for a partition
+     * owns it. Every node computes the same answer from the same node list.
+     */
+    static String ownerOf(int partition, List<String> nodes) {
+        String owner = null;
+        long best = 0;
+        for (String node : nodes) {
+            long score = mix(node.hashCode() * 0x9E3779B97F4A7C15L + partition);
+            if (owner == null || score > best || (score == best && node.compareTo(owner) < 0)) {
+                owner = node;
+                best = score;
+            }
+        }
+        return owner;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private void logStyled(String message) {
+        logger.info(ChatColor.translateAlternateColorCodes('&', message));
+    }
+}
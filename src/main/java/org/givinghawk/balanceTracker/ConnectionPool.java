@@ -0,0 +1,196 @@
+package org.givinghawk.balanceTracker;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A small bounded JDBC connection pool. Connections are created lazily up to
+ * {@code maxSize}, validated when they have been idle longer than the
+ * keepalive interval, and each one keeps its own prepared statement cache.
+ */
+public class ConnectionPool {
+    private final String name;
+    private final SqlDialect dialect;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long keepaliveMillis;
+    private final int statementCacheSize;
+
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private volatile boolean closed;
+
+    public ConnectionPool(String name, SqlDialect dialect, int maxSize,
+                          long borrowTimeoutMillis, long keepaliveMillis, int statementCacheSize) {
+        this.name = name;
+        this.dialect = dialect;
+        this.maxSize = Math.max(1, maxSize);
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.keepaliveMillis = keepaliveMillis;
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    public PooledConnection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool '" + name + "' is closed");
+        }
+
+        long startTime = System.nanoTime();
+        try {
+            PooledConnection pooled = idle.pollFirst();
+            if (pooled == null) {
+                pooled = tryCreate();
+            }
+            if (pooled == null) {
+                pooled = idle.pollFirst(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            if (pooled == null) {
+                throw new SQLException("Timed out after " + borrowTimeoutMillis +
+                        "ms waiting for a connection from pool '" + name + "'");
+            }
+
+            if (System.currentTimeMillis() - pooled.lastUsed > keepaliveMillis && !pooled.isValid()) {
+                discard(pooled);
+                pooled = tryCreate();
+                if (pooled == null) {
+                    throw new SQLException("Failed to replace a stale connection in pool '" + name + "'");
+                }
+            }
+
+            activeConnections.incrementAndGet();
+            return pooled;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection from pool '" + name + "'", e);
+        } finally {
+            long waited = System.nanoTime() - startTime;
+            borrowCount.increment();
+            waitNanos.add(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+        }
+    }
+
+    void release(PooledConnection pooled) {
+        activeConnections.decrementAndGet();
+        if (closed || !pooled.reset()) {
+            discard(pooled);
+            return;
+        }
+        pooled.lastUsed = System.currentTimeMillis();
+        idle.offerFirst(pooled);
+    }
+
+    /**
+     * Validates connections that have sat idle longer than the keepalive
+     * interval so dead sockets are replaced before a caller trips over them.
+     * Only the connection being validated is taken out of the pool, so
+     * borrowers keep getting the others meanwhile.
+     */
+    public void validateIdle() {
+        long now = System.currentTimeMillis();
+
+        for (PooledConnection pooled : idle) {
+            // A borrower may have taken it since the iterator saw it
+            if (now - pooled.lastUsed <= keepaliveMillis || !idle.removeFirstOccurrence(pooled)) {
+                continue;
+            }
+            if (!pooled.isValid()) {
+                discard(pooled);
+                continue;
+            }
+            pooled.lastUsed = now;
+            idle.offerLast(pooled);
+        }
+    }
+
+    public void close() {
+        closed = true;
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.sum();
+    }
+
+    public double getAverageWaitMillis() {
+        long borrows = borrowCount.sum();
+        return borrows == 0 ? 0 : waitNanos.sum() / 1_000_000.0 / borrows;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    public double getUtilization() {
+        return (double) activeConnections.get() / maxSize;
+    }
+
+    public String describe() {
+        return String.format("%s: %d/%d active, %d open, avg wait %.2fms, max wait %.2fms",
+                name, getActiveConnections(), maxSize, getOpenConnections(),
+                getAverageWaitMillis(), getMaxWaitMillis());
+    }
+
+    private PooledConnection tryCreate() throws SQLException {
+        while (true) {
+            int open = openConnections.get();
+            if (open >= maxSize) {
+                return null;
+            }
+            if (openConnections.compareAndSet(open, open + 1)) {
+                break;
+            }
+        }
+
+        Connection connection = null;
+        try {
+            connection = DriverManager.getConnection(dialect.getJdbcUrl(), dialect.getUsername(), dialect.getPassword());
+            dialect.configureConnection(connection);
+            return new PooledConnection(this, connection, statementCacheSize);
+        } catch (SQLException e) {
+            openConnections.decrementAndGet();
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException closeError) {
+                    e.addSuppressed(closeError);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        openConnections.decrementAndGet();
+        pooled.closeQuietly();
+    }
+}
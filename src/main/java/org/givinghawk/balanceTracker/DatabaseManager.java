@@ -4,214 +4,1508 @@ import org.bukkit.ChatColor;
 import org.bukkit.configuration.file.FileConfiguration;
 
 import java.sql.*;
-import java.text.NumberFormat;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.logging.Level;
+import java.util.logging.Logger;
 
-public class DatabaseManager {
-    private static final String CREATE_BALANCE_TABLE = "CREATE TABLE IF NOT EXISTS player_balances (" +
-            "id INT AUTO_INCREMENT PRIMARY KEY," +
-            "player_uuid VARCHAR(36) NOT NULL," +
-            "timestamp BIGINT NOT NULL," +
-            "balance DOUBLE NOT NULL," +
-            "INDEX idx_player_uuid (player_uuid)," +
-            "INDEX idx_timestamp (timestamp))";
-
-    private static final String CREATE_LAST_BALANCE_TABLE = "CREATE TABLE IF NOT EXISTS last_balances (" +
-            "player_uuid VARCHAR(36) PRIMARY KEY," +
-            "balance DOUBLE NOT NULL)";
-
-    private final BalanceTrackerPlugin plugin;
-    private Connection connection;
-    private final String host;
-    private final int port;
-    private final String database;
-    private final String username;
-    private final String password;
-    private final NumberFormat currencyFormat = NumberFormat.getCurrencyInstance(Locale.US);
-
-    public DatabaseManager(BalanceTrackerPlugin plugin, FileConfiguration config) {
-        this.plugin = plugin;
-        this.host = config.getString("mysql.host", "localhost");
-        this.port = config.getInt("mysql.port", 3306);
-        this.database = config.getString("mysql.database", "minecraft");
-        this.username = config.getString("mysql.username", "user");
-        this.password = config.getString("mysql.password", "pass");
-        this.currencyFormat.setMaximumFractionDigits(2);
+/**
+ * JDBC implementation of {@link BalanceStorage}. Everything that differs
+ * between database engines comes from the {@link SqlDialect}.
+ */
+public class DatabaseManager implements BalanceStorage {
+    private static final String HISTORY_TABLE = "balance_history";
+    // Pre-v2 history with VARCHAR uuids, drained into HISTORY_TABLE by the schema migration
+    private static final String LEGACY_TABLE = "player_balances";
+    // Pre-v2 last_balances with VARCHAR uuids, copied into the binary table on start
+    private static final String LEGACY_LAST_BALANCES = "last_balances_v1";
+
+    // Rows per round trip when streaming last_balances at startup
+    private static final int LOAD_FETCH_SIZE = 10_000;
+    private static final int LOAD_PROGRESS_EVERY = 250_000;
+
+    // Keyset predicate shared by every raw history query; see bindHistoryRange
+    private static final String HISTORY_RANGE = "WHERE player_uuid = ? AND timestamp >= ? AND timestamp < ? " +
+            "AND (timestamp < ? OR (timestamp = ? AND id < ?)) ";
+
+    private final Logger logger;
+    private final boolean debugMode;
+    private final BalanceMetrics metrics;
+    private ConnectionPool readPool;
+    private ConnectionPool writePool;
+    private final SqlDialect dialect;
+    private final int batchSize;
+    private final int readConnections;
+    private final int writeConnections;
+    private final long connectionTimeoutMillis;
+    private final long keepaliveMillis;
+    private final int statementCacheSize;
+    private final HistoryCache historyCache;
+    // Held for a whole sweep batch and for each purge chunk so the two never overlap
+    private final ReentrantLock batchLock = new ReentrantLock();
+    // Write buffers reused by every chunk; only touched while batchLock is held
+    private final String[] historyInsertSql;
+    private final String[] lastBalanceUpsertSql;
+    private final byte[][] uuidBuffers;
+    private final long[] writeIds;
+    private volatile boolean legacyPending;
+    // Highest partition count whose rows are known to exist
+    private volatile int ensuredPartitions;
+
+    public DatabaseManager(Logger logger, boolean debugMode, BalanceMetrics metrics, FileConfiguration config,
+                           SqlDialect dialect) {
+        this.logger = logger;
+        this.debugMode = debugMode;
+        this.metrics = metrics;
+        this.dialect = dialect;
+        this.batchSize = Math.max(1, config.getInt("writeBatchSize", 500));
+        this.historyInsertSql = new String[batchSize + 1];
+        this.lastBalanceUpsertSql = new String[batchSize + 1];
+        this.uuidBuffers = new byte[batchSize][16];
+        this.writeIds = new long[batchSize];
+        this.readConnections = config.getInt("storage.pool.readConnections", 4);
+        this.writeConnections = Math.min(config.getInt("storage.pool.writeConnections", 2),
+                dialect.getMaxWriteConnections());
+        this.connectionTimeoutMillis = config.getLong("storage.pool.connectionTimeout", 5000);
+        this.keepaliveMillis = config.getLong("storage.pool.keepaliveInterval", 60) * 1000;
+        this.statementCacheSize = config.getInt("storage.pool.statementCacheSize", 32);
+        long expireSeconds = config.getLong("historyCache.expireSeconds", 600);
+        if (config.getBoolean("cluster.enabled", false)) {
+            // Other nodes write history this cache never sees, so entries may only be that old
+            expireSeconds = Math.min(expireSeconds, config.getLong("historyCache.clusterExpireSeconds", 15));
+        }
+        this.historyCache = new HistoryCache(
+                config.getInt("historyCache.maxPlayers", 500),
+                expireSeconds * 1000,
+                config.getInt("historyCache.rowsPerPlayer", 50));
     }
 
+    @Override
     public void initializeDatabase() throws SQLException {
-        String jdbcUrl = "jdbc:mysql://" + host + ":" + port + "/" + database +
-                "?useSSL=false&autoReconnect=true&failOverReadOnly=false";
-
-        try {
-            connection = DriverManager.getConnection(jdbcUrl, username, password);
+        // Reads and writes use separate pools so history lookups never queue behind a purge or sweep
+        readPool = new ConnectionPool("read", dialect, readConnections,
+                connectionTimeoutMillis, keepaliveMillis, statementCacheSize);
+        writePool = new ConnectionPool("write", dialect, writeConnections,
+                connectionTimeoutMillis, keepaliveMillis, statementCacheSize);
+        registerGauges();
 
-            try (Statement stmt = connection.createStatement()) {
-                stmt.executeUpdate(CREATE_BALANCE_TABLE);
-                stmt.executeUpdate(CREATE_LAST_BALANCE_TABLE);
-                logStyled("&a✔ Created database tables successfully");
+        try (PooledConnection conn = writePool.borrow()) {
+            try (Statement stmt = conn.connection().createStatement()) {
+                // Set the old table aside so the schema below creates the binary one in its place
+                if (hasTextColumn(conn.connection(), "last_balances", "player_uuid")) {
+                    stmt.executeUpdate("ALTER TABLE last_balances RENAME TO " + LEGACY_LAST_BALANCES);
+                }
+                for (String ddl : dialect.getSchema()) {
+                    stmt.executeUpdate(ddl);
+                }
+                // Rollup tables created before sample times were tracked
+                addMissingColumn(conn.connection(), "balance_rollups", "first_sample", "BIGINT NOT NULL DEFAULT 0");
+                addMissingColumn(conn.connection(), "balance_rollups", "last_sample", "BIGINT NOT NULL DEFAULT 0");
+                for (String upgrade : dialect.getSchemaUpgrades(conn.connection())) {
+                    logStyled("&6■ Upgrading schema: &e" + upgrade);
+                    stmt.executeUpdate(upgrade);
+                }
+                logStyled("&a✔ Created " + dialect.getName() + " database tables successfully");
             }
-
-            // Test connection stability
-            try (Statement testStmt = connection.createStatement()) {
-                testStmt.executeQuery("SELECT 1");
+            if (tableExists(conn.connection(), LEGACY_LAST_BALANCES)) {
+                migrateLegacyLastBalances(conn);
             }
-
+            legacyPending = hasLegacyRows(conn.connection());
         } catch (SQLException e) {
             logStyled("&c✘ Database initialization failed: &e" + e.getMessage());
             throw e;
         }
-    }
 
-    public void recordBalance(UUID playerUuid, double balance) {
-        long timestamp = System.currentTimeMillis();
+        if (legacyPending) {
+            // Moving the newest legacy row first pushes the new table's id counter past every legacy id
+            migrateLegacyChunk(1);
+            logStyled("&6■ Found history in the old &e" + LEGACY_TABLE + "&6 table, it will be migrated in the background");
+        }
 
-        String insertHistory = "INSERT INTO player_balances (player_uuid, timestamp, balance) VALUES (?, ?, ?)";
-        String updateLast = "INSERT INTO last_balances (player_uuid, balance) VALUES (?, ?) " +
-                "ON DUPLICATE KEY UPDATE balance = ?";
+        // Test connection stability on the read lane as well
+        try (PooledConnection conn = readPool.borrow();
+             Statement testStmt = conn.connection().createStatement()) {
+            testStmt.executeQuery("SELECT 1").close();
+        }
+    }
 
-        try {
-            connection.setAutoCommit(false);
+    private void registerGauges() {
+        for (ConnectionPool pool : Arrays.asList(readPool, writePool)) {
+            String name = "pool_" + pool.getName();
+            metrics.gauge(name + "_active", "Active " + pool.getName() + " connections", pool::getActiveConnections);
+            metrics.gauge(name + "_open", "Open " + pool.getName() + " connections", pool::getOpenConnections);
+            metrics.gauge(name + "_wait_avg_ms", "Average " + pool.getName() + " pool wait in ms",
+                    pool::getAverageWaitMillis);
+        }
+        metrics.gauge("history_cache_players", "Players in the history cache", historyCache::size);
+        metrics.gauge("history_cache_hits", "History cache hits", historyCache::getHits);
+        metrics.gauge("history_cache_misses", "History cache misses", historyCache::getMisses);
+    }
 
-            try (PreparedStatement historyStmt = connection.prepareStatement(insertHistory);
-                 PreparedStatement lastStmt = connection.prepareStatement(updateLast)) {
+    private void addMissingColumn(Connection connection, String table, String column, String definition)
+            throws SQLException {
+        try (ResultSet columns = connection.getMetaData().getColumns(connection.getCatalog(), null, table, column)) {
+            if (columns.next()) {
+                return;
+            }
+        }
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+        }
+        logStyled("&6■ Added column &e" + column + "&6 to &e" + table);
+    }
 
-                // Insert into history
-                historyStmt.setString(1, playerUuid.toString());
-                historyStmt.setLong(2, timestamp);
-                historyStmt.setDouble(3, balance);
-                historyStmt.executeUpdate();
+    private static boolean hasTextColumn(Connection connection, String table, String column) throws SQLException {
+        try (ResultSet columns = connection.getMetaData().getColumns(connection.getCatalog(), null, table, column)) {
+            if (!columns.next()) {
+                return false;
+            }
+            int type = columns.getInt("DATA_TYPE");
+            return type == Types.CHAR || type == Types.VARCHAR;
+        }
+    }
 
-                // Update last balance
-                lastStmt.setString(1, playerUuid.toString());
-                lastStmt.setDouble(2, balance);
-                lastStmt.setDouble(3, balance);
-                lastStmt.executeUpdate();
+    private static boolean tableExists(Connection connection, String table) throws SQLException {
+        try (ResultSet tables = connection.getMetaData().getTables(connection.getCatalog(), null, table, null)) {
+            return tables.next();
+        }
+    }
 
-                if (plugin.debugMode) {
-                    logStyled("&7◆ Recorded balance for &e" + playerUuid +
-                            " &7(&a" + formatCurrency(balance) + "&7)");
+    /**
+     * Copies last balances keyed by the string form of the UUID into the
+     * binary table, then drops the old table. Runs before the sweep starts;
+     * rows the new table already has are kept, so an interrupted copy simply
+     * starts over on the next start.
+     */
+    private void migrateLegacyLastBalances(PooledConnection conn) throws SQLException {
+        logStyled("&6■ Converting &elast_balances&6 to binary player keys");
+        PreparedStatement select = conn.prepare("SELECT player_uuid, balance FROM " + LEGACY_LAST_BALANCES +
+                " WHERE player_uuid > ? ORDER BY player_uuid LIMIT ?");
+        String after = "";
+        int copied = 0;
+        while (true) {
+            List<String> uuids = new ArrayList<>();
+            List<Double> balances = new ArrayList<>();
+            select.setString(1, after);
+            select.setInt(2, batchSize);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    uuids.add(rs.getString(1));
+                    balances.add(rs.getDouble(2));
                 }
             }
+            if (uuids.isEmpty()) break;
 
-            connection.commit();
-        } catch (SQLException e) {
-            try {
-                connection.rollback();
-                logStyled("&c⚠ Transaction rolled back for player: &e" + playerUuid);
-            } catch (SQLException ex) {
-                logStyled("&c✘ Failed to rollback transaction!");
-                plugin.getLogger().log(Level.SEVERE, "Transaction rollback failed", ex);
+            StringBuilder sql = new StringBuilder(dialect.insertIgnore() + "last_balances (player_uuid, balance) VALUES ");
+            for (int i = 0; i < uuids.size(); i++) {
+                sql.append(i == 0 ? "(?, ?)" : ", (?, ?)");
+            }
+            PreparedStatement insert = conn.prepare(sql.toString());
+            int index = 1;
+            for (int i = 0; i < uuids.size(); i++) {
+                insert.setBytes(index++, UuidBytes.toBytes(UUID.fromString(uuids.get(i))));
+                insert.setDouble(index++, balances.get(i));
+            }
+            insert.executeUpdate();
+            copied += uuids.size();
+            after = uuids.get(uuids.size() - 1);
+        }
+
+        try (Statement stmt = conn.connection().createStatement()) {
+            stmt.executeUpdate("DROP TABLE " + LEGACY_LAST_BALANCES);
+        }
+        logStyled("&a✔ Converted &e" + copied + "&a last balances");
+    }
+
+    private boolean hasLegacyRows(Connection connection) throws SQLException {
+        if (!tableExists(connection, LEGACY_TABLE)) {
+            return false;
+        }
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1 FROM " + LEGACY_TABLE + " LIMIT 1")) {
+            return rs.next();
+        }
+    }
+
+    /**
+     * Writes a batch of balance changes using multi-row inserts, split into
+     * transactions of {@code writeBatchSize} rows. A failing chunk is rolled
+     * back on its own and does not affect the other chunks.
+     *
+     * @return the number of changes that were committed
+     */
+    @Override
+    public int recordBalances(List<PlayerBalance> changes) {
+        int written = 0;
+        batchLock.lock();
+        try {
+            for (int from = 0; from < changes.size(); from += batchSize) {
+                List<PlayerBalance> chunk = changes.subList(from, Math.min(from + batchSize, changes.size()));
+                if (writeChunk(chunk)) {
+                    written += chunk.size();
+                }
             }
-            logStyled("&c✘ Failed to record balance for player: &e" + playerUuid);
-            plugin.getLogger().log(Level.SEVERE, "Balance recording error", e);
         } finally {
+            batchLock.unlock();
+        }
+        return written;
+    }
+
+    /**
+     * Writes imported rows in the same batch sizes as the sweep, but takes
+     * the batch lock per chunk so sweep writes can slip in between. Stops at
+     * the first failed chunk.
+     */
+    @Override
+    public int importHistory(List<Long> ids, List<PlayerBalance> rows) throws SQLException {
+        int added = 0;
+        for (int from = 0; from < rows.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, rows.size());
+            batchLock.lock();
+            try (PooledConnection conn = writePool.borrow()) {
+                Connection connection = conn.connection();
+                connection.setAutoCommit(false);
+                try {
+                    int inserted = insertWithIds(conn, dialect.insertIgnore(), ids.subList(from, to),
+                            rows.subList(from, to));
+                    if (inserted < to - from) {
+                        checkSkippedRows(conn, ids.subList(from, to), rows.subList(from, to));
+                    }
+                    added += inserted;
+                    connection.commit();
+                } catch (SQLException e) {
+                    rollback(connection, to - from);
+                    throw e;
+                }
+            } finally {
+                batchLock.unlock();
+            }
+            // Imported rows are out of order, so drop the cached entries instead of appending
+            for (PlayerBalance row : rows.subList(from, to)) {
+                historyCache.invalidate(row.uuid);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Writes one chunk in a single transaction.
+     */
+    private boolean writeChunk(List<PlayerBalance> chunk) {
+        long startTime = System.nanoTime();
+
+        try (PooledConnection conn = writePool.borrow()) {
+            Connection connection = conn.connection();
+            connection.setAutoCommit(false);
+
+            int rows = chunk.size();
+            long[] ids = writeIds;
+            Arrays.fill(ids, 0, rows, 0);
             try {
-                connection.setAutoCommit(true);
+                PreparedStatement historyStmt = conn.prepareReturningKeys(historyInsertSql(rows));
+                PreparedStatement lastStmt = conn.prepare(lastBalanceUpsertSql(rows));
+
+                int historyIndex = 1;
+                int lastIndex = 1;
+                for (int i = 0; i < rows; i++) {
+                    PlayerBalance change = chunk.get(i);
+                    // Drivers may hold on to bound arrays until execution, so each row gets its own buffer
+                    byte[] uuid = UuidBytes.write(change.uuid, uuidBuffers[i]);
+                    historyStmt.setBytes(historyIndex++, uuid);
+                    historyStmt.setLong(historyIndex++, change.timestamp);
+                    historyStmt.setDouble(historyIndex++, change.balance);
+                    lastStmt.setBytes(lastIndex++, uuid);
+                    lastStmt.setDouble(lastIndex++, change.balance);
+                }
+
+                historyStmt.executeUpdate();
+                try (ResultSet keys = historyStmt.getGeneratedKeys()) {
+                    if (dialect.returnsAllGeneratedKeys()) {
+                        for (int i = 0; i < rows && keys.next(); i++) {
+                            ids[i] = keys.getLong(1);
+                        }
+                    } else if (keys.next()) {
+                        // Only the last key is reported; a single writer makes the ids of one insert consecutive
+                        long last = keys.getLong(1);
+                        for (int i = 0; i < rows; i++) {
+                            ids[i] = last - (rows - 1 - i);
+                        }
+                    }
+                }
+                lastStmt.executeUpdate();
+                connection.commit();
             } catch (SQLException e) {
-                logStyled("&c⚠ Failed to reset auto-commit mode");
+                rollback(connection, chunk.size());
+                throw e;
+            }
+
+            for (int i = 0; i < rows; i++) {
+                PlayerBalance change = chunk.get(i);
+                if (ids[i] > 0) {
+                    historyCache.append(change.uuid, ids[i], change.timestamp, change.balance);
+                } else {
+                    // Without the row id we cannot build cursors for it, so drop the entry instead
+                    historyCache.invalidate(change.uuid);
+                }
+            }
+
+            metrics.recordWrite(System.nanoTime() - startTime, chunk.size());
+            if (debugMode) {
+                long micros = (System.nanoTime() - startTime) / 1000;
+                long rowsPerSecond = micros > 0 ? chunk.size() * 1_000_000L / micros : chunk.size();
+                logStyled("&7◆ Wrote batch of &e" + chunk.size() + "&7 balances in &a" + (micros / 1000) +
+                        "ms &7(&e" + rowsPerSecond + "&7 rows/s)");
             }
+            return true;
+        } catch (SQLException e) {
+            metrics.recordWriteFailure();
+            logStyled("&c✘ Failed to record balance batch of &e" + chunk.size() + "&c players");
+            logger.log(Level.SEVERE, "Balance recording error", e);
+            return false;
+        }
+    }
+
+    private void rollback(Connection connection, int rows) {
+        try {
+            connection.rollback();
+            logStyled("&c⚠ Batch of &e" + rows + "&c balances rolled back");
+        } catch (SQLException ex) {
+            logStyled("&c✘ Failed to rollback transaction!");
+            logger.log(Level.SEVERE, "Transaction rollback failed", ex);
+        }
+    }
+
+    private String historyInsertSql(int rows) {
+        String sql = historyInsertSql[rows];
+        if (sql == null) {
+            sql = historyInsertSql[rows] = buildHistoryInsert(rows);
+        }
+        return sql;
+    }
+
+    private String lastBalanceUpsertSql(int rows) {
+        String sql = lastBalanceUpsertSql[rows];
+        if (sql == null) {
+            sql = lastBalanceUpsertSql[rows] = buildLastBalanceUpsert(rows);
+        }
+        return sql;
+    }
+
+    private static String buildHistoryInsert(int rows) {
+        StringBuilder sql = new StringBuilder("INSERT INTO " + HISTORY_TABLE + " (player_uuid, timestamp, balance) VALUES ");
+        for (int i = 0; i < rows; i++) {
+            sql.append(i == 0 ? "(?, ?, ?)" : ", (?, ?, ?)");
+        }
+        return sql.toString();
+    }
+
+    private String buildLastBalanceUpsert(int rows) {
+        StringBuilder sql = new StringBuilder("INSERT INTO last_balances (player_uuid, balance) VALUES ");
+        for (int i = 0; i < rows; i++) {
+            sql.append(i == 0 ? "(?, ?)" : ", (?, ?)");
         }
+        return sql.append(dialect.upsert("player_uuid", "balance = " + dialect.excluded("balance"))).toString();
     }
 
-    public Map<UUID, Double> getLastBalances() {
-        Map<UUID, Double> balances = new HashMap<>();
+    /**
+     * Streams every row of {@code last_balances} straight into the given
+     * index through a cursor, so memory does not grow with the table.
+     * Players the sweep has already cached keep their newer balance.
+     *
+     * @return the number of balances loaded
+     */
+    @Override
+    public int loadLastBalances(LastBalanceIndex index) throws SQLException {
         String sql = "SELECT player_uuid, balance FROM last_balances";
 
         long startTime = System.currentTimeMillis();
         int recordCount = 0;
 
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+        try (PooledConnection conn = readPool.borrow()) {
+            PreparedStatement stmt = conn.prepare(sql);
+            stmt.setFetchSize(LOAD_FETCH_SIZE);
 
-            while (rs.next()) {
-                UUID uuid = UUID.fromString(rs.getString("player_uuid"));
-                double balance = rs.getDouble("balance");
-                balances.put(uuid, balance);
-                recordCount++;
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    index.putIfAbsent(UuidBytes.fromBytes(rs.getBytes(1)), rs.getDouble(2));
+                    recordCount++;
+
+                    if (recordCount % LOAD_PROGRESS_EVERY == 0) {
+                        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+                        logStyled("&7◆ Loading last balances: &e" + recordCount + "&7 so far (&e" +
+                                recordCount * 1000L / elapsed + "&7 rows/s)");
+                    }
+                }
             }
 
-            if (plugin.debugMode) {
+            if (debugMode) {
                 long duration = System.currentTimeMillis() - startTime;
                 logStyled("&7◆ Loaded &e" + recordCount + "&7 last balances in &a" + duration + "ms");
             }
+        }
+        return recordCount;
+    }
+
+    @Override
+    public int streamLastBalances(LastBalanceIndex.EntryConsumer consumer) throws SQLException {
+        int count = 0;
+        try (PooledConnection conn = readPool.borrow()) {
+            PreparedStatement stmt = conn.prepare("SELECT player_uuid, balance FROM last_balances");
+            stmt.setFetchSize(LOAD_FETCH_SIZE);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    UUID uuid = UuidBytes.fromBytes(rs.getBytes(1));
+                    consumer.accept(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), rs.getDouble(2));
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public double loadLastBalance(UUID playerUuid) throws SQLException {
+        try (PooledConnection conn = readPool.borrow()) {
+            PreparedStatement stmt = conn.prepare("SELECT balance FROM last_balances WHERE player_uuid = ?");
+            stmt.setBytes(1, UuidBytes.toBytes(playerUuid));
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getDouble(1) : Double.NaN;
+            }
+        }
+    }
+
+    @Override
+    public int refreshLastBalances(LastBalanceIndex index, Collection<UUID> players) throws SQLException {
+        List<UUID> uuids = new ArrayList<>(players);
+        int refreshed = 0;
+
+        try (PooledConnection conn = readPool.borrow()) {
+            for (int from = 0; from < uuids.size(); from += batchSize) {
+                List<UUID> chunk = uuids.subList(from, Math.min(from + batchSize, uuids.size()));
+                StringBuilder sql = new StringBuilder("SELECT player_uuid, balance FROM last_balances " +
+                        "WHERE player_uuid IN (");
+                for (int i = 0; i < chunk.size(); i++) {
+                    sql.append(i == 0 ? "?" : ", ?");
+                }
+                sql.append(')');
+
+                PreparedStatement stmt = conn.prepare(sql.toString());
+                for (int i = 0; i < chunk.size(); i++) {
+                    stmt.setBytes(i + 1, UuidBytes.toBytes(chunk.get(i)));
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        index.put(UuidBytes.fromBytes(rs.getBytes(1)), rs.getDouble(2));
+                        refreshed++;
+                    }
+                }
+            }
+        }
+        return refreshed;
+    }
 
+    /**
+     * Loads every persisted player name into the index.
+     *
+     * @return the number of names loaded
+     */
+    @Override
+    public int loadPlayerNames(PlayerNameIndex index) {
+        String sql = "SELECT player_uuid, name FROM player_names";
+        int count = 0;
+
+        try (PooledConnection conn = readPool.borrow()) {
+            PreparedStatement stmt = conn.prepare(sql);
+            stmt.setFetchSize(batchSize);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    index.update(UuidBytes.fromBytes(rs.getBytes("player_uuid")), rs.getString("name"));
+                    count++;
+                }
+            }
         } catch (SQLException e) {
-            logStyled("&c✘ Failed to load last balances");
-            plugin.getLogger().log(Level.SEVERE, "Last balances query failed", e);
+            logStyled("&c✘ Failed to load player names");
+            logger.log(Level.SEVERE, "Player name query failed", e);
         }
-        return balances;
+        return count;
     }
 
-    public void purgeOldRecords(int days) {
-        long cutoff = System.currentTimeMillis() - (days * 24L * 60 * 60 * 1000);
-        String sql = "DELETE FROM player_balances WHERE timestamp < ?";
+    /**
+     * Upserts player names in chunks of {@code writeBatchSize}.
+     */
+    @Override
+    public void savePlayerNames(Map<UUID, String> names) {
+        List<Map.Entry<UUID, String>> entries = new ArrayList<>(names.entrySet());
 
-        long startTime = System.currentTimeMillis();
+        try (PooledConnection conn = writePool.borrow()) {
+            for (int from = 0; from < entries.size(); from += batchSize) {
+                List<Map.Entry<UUID, String>> chunk = entries.subList(from, Math.min(from + batchSize, entries.size()));
+
+                StringBuilder sql = new StringBuilder("INSERT INTO player_names (player_uuid, name, name_lower) VALUES ");
+                for (int i = 0; i < chunk.size(); i++) {
+                    sql.append(i == 0 ? "(?, ?, ?)" : ", (?, ?, ?)");
+                }
+                sql.append(dialect.upsert("player_uuid", "name = " + dialect.excluded("name"),
+                        "name_lower = " + dialect.excluded("name_lower")));
+
+                PreparedStatement stmt = conn.prepare(sql.toString());
+                int index = 1;
+                for (Map.Entry<UUID, String> entry : chunk) {
+                    stmt.setBytes(index++, UuidBytes.toBytes(entry.getKey()));
+                    stmt.setString(index++, entry.getValue());
+                    stmt.setString(index++, entry.getValue().toLowerCase(Locale.ROOT));
+                }
+                stmt.executeUpdate();
+            }
+        } catch (SQLException e) {
+            logStyled("&c✘ Failed to save &e" + names.size() + "&c player names");
+            logger.log(Level.SEVERE, "Player name update failed", e);
+        }
+    }
+
+    @Override
+    public int streamKnownPlayers(Consumer<UUID> consumer) throws SQLException {
+        int count = 0;
+        try (PooledConnection conn = readPool.borrow()) {
+            PreparedStatement stmt = conn.prepare("SELECT player_uuid FROM player_names");
+            stmt.setFetchSize(LOAD_FETCH_SIZE);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(UuidBytes.fromBytes(rs.getBytes(1)));
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
 
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setLong(1, cutoff);
-            int deleted = stmt.executeUpdate();
+    /**
+     * Looks up a player by name in the persisted name table.
+     *
+     * @return the player's UUID, or {@code null} if the name is unknown
+     */
+    @Override
+    public UUID findPlayerUuid(String name) {
+        String sql = "SELECT player_uuid FROM player_names WHERE name_lower = ? LIMIT 1";
 
-            long duration = System.currentTimeMillis() - startTime;
-            logStyled("&6■ Purged &e" + deleted + "&6 old records in &a" + duration + "ms");
+        try (PooledConnection conn = readPool.borrow()) {
+            PreparedStatement stmt = conn.prepare(sql);
+            stmt.setString(1, name.toLowerCase(Locale.ROOT));
 
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return UuidBytes.fromBytes(rs.getBytes("player_uuid"));
+                }
+            }
         } catch (SQLException e) {
-            logStyled("&c✘ Failed to purge old records");
-            plugin.getLogger().log(Level.SEVERE, "Purge operation failed", e);
+            logStyled("&c✘ Failed to look up player name: &e" + name);
+            logger.log(Level.SEVERE, "Player name lookup failed", e);
         }
+        return null;
     }
 
-    public List<BalanceRecord> getBalanceHistory(UUID playerUuid) {
-        List<BalanceRecord> records = new ArrayList<>();
-        String sql = "SELECT timestamp, balance FROM player_balances " +
-                "WHERE player_uuid = ? ORDER BY timestamp DESC LIMIT 100";
+    /**
+     * Streams raw history since {@code since}, the legacy tier first since
+     * all of its rows are older.
+     *
+     * @return the number of rows read
+     */
+    @Override
+    public int streamHistorySince(long since, Consumer<PlayerBalance> consumer) {
+        List<String> tables = new ArrayList<>(historyTables());
+        Collections.reverse(tables);
+        int count = 0;
 
-        long startTime = System.currentTimeMillis();
+        try (PooledConnection conn = readPool.borrow()) {
+            for (String table : tables) {
+                PreparedStatement stmt = conn.prepare(
+                        "SELECT player_uuid, timestamp, balance FROM " + table + " WHERE timestamp >= ? ORDER BY timestamp");
+                stmt.setLong(1, since);
+                stmt.setFetchSize(batchSize);
 
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, playerUuid.toString());
+                try (ResultSet rs = stmt.executeQuery()) {
+                    boolean legacy = table.equals(LEGACY_TABLE);
+                    while (rs.next()) {
+                        UUID uuid = legacy
+                                ? UUID.fromString(rs.getString("player_uuid"))
+                                : UuidBytes.fromBytes(rs.getBytes("player_uuid"));
+                        consumer.accept(new PlayerBalance(uuid, rs.getDouble("balance"), null, rs.getLong("timestamp")));
+                        count++;
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            logStyled("&c✘ Failed to read recent history");
+            logger.log(Level.SEVERE, "Recent history query failed", e);
+        }
+        return count;
+    }
+
+    @Override
+    public boolean saveSupplyPoints(List<SupplyPoint> points) {
+        if (points.isEmpty()) return true;
+
+        StringBuilder sql = new StringBuilder("INSERT INTO economy_supply (hour_start, supply, players, gained, lost) VALUES ");
+        for (int i = 0; i < points.size(); i++) {
+            sql.append(i == 0 ? "(?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?)");
+        }
+        sql.append(dialect.upsert("hour_start", "supply = " + dialect.excluded("supply"),
+                "players = " + dialect.excluded("players"), "gained = " + dialect.excluded("gained"),
+                "lost = " + dialect.excluded("lost")));
+
+        try (PooledConnection conn = writePool.borrow()) {
+            PreparedStatement stmt = conn.prepare(sql.toString());
+            int index = 1;
+            for (SupplyPoint point : points) {
+                stmt.setLong(index++, point.getHourStart());
+                stmt.setDouble(index++, point.getSupply());
+                stmt.setInt(index++, point.getPlayers());
+                stmt.setDouble(index++, point.getGained());
+                stmt.setDouble(index++, point.getLost());
+            }
+            stmt.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            logStyled("&c✘ Failed to save &e" + points.size() + "&c money supply points");
+            logger.log(Level.SEVERE, "Money supply update failed", e);
+            return false;
+        }
+    }
+
+    @Override
+    public List<SupplyPoint> loadSupplyHistory(long from) {
+        List<SupplyPoint> points = new ArrayList<>();
+
+        try (PooledConnection conn = readPool.borrow()) {
+            PreparedStatement stmt = conn.prepare("SELECT hour_start, supply, players, gained, lost " +
+                    "FROM economy_supply WHERE hour_start >= ? ORDER BY hour_start");
+            stmt.setLong(1, from);
 
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    records.add(new BalanceRecord(
-                            rs.getLong("timestamp"),
-                            rs.getDouble("balance")
+                    points.add(new SupplyPoint(
+                            rs.getLong("hour_start"),
+                            rs.getDouble("supply"),
+                            rs.getInt("players"),
+                            rs.getDouble("gained"),
+                            rs.getDouble("lost")
                     ));
                 }
             }
+        } catch (SQLException e) {
+            logStyled("&c✘ Failed to load money supply history");
+            logger.log(Level.SEVERE, "Money supply query failed", e);
+        }
+        return points;
+    }
 
-            if (plugin.debugMode) {
-                long duration = System.currentTimeMillis() - startTime;
+    /**
+     * Reads the legacy tier before the current one. Every legacy row has a
+     * lower id than the current table, so a chunk that exhausts the legacy
+     * tier simply continues in the current one.
+     */
+    @Override
+    public int readHistoryChunk(long afterId, int limit, HistoryRowConsumer consumer) throws SQLException {
+        List<String> tables = new ArrayList<>(historyTables());
+        Collections.reverse(tables);
+        long lastId = afterId;
+        int count = 0;
+
+        try (PooledConnection conn = readPool.borrow()) {
+            for (String table : tables) {
+                if (count >= limit) break;
+                PreparedStatement stmt = conn.prepare(
+                        "SELECT id, player_uuid, timestamp, balance FROM " + table + " WHERE id > ? ORDER BY id LIMIT ?");
+                stmt.setLong(1, lastId);
+                stmt.setInt(2, limit - count);
+                stmt.setFetchSize(Math.min(limit - count, batchSize));
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    boolean legacy = table.equals(LEGACY_TABLE);
+                    while (rs.next()) {
+                        lastId = rs.getLong("id");
+                        UUID uuid = legacy
+                                ? UUID.fromString(rs.getString("player_uuid"))
+                                : UuidBytes.fromBytes(rs.getBytes("player_uuid"));
+                        consumer.accept(lastId, uuid, rs.getLong("timestamp"), rs.getDouble("balance"));
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Deletes up to {@code limit} of the oldest rows older than {@code cutoff}
+     * in one short transaction, walking the timestamp index rather than ids:
+     * replayed, imported and cluster-written rows do not arrive in id order.
+     * Waits for any sweep batch in progress before it starts.
+     *
+     * @return the number of rows deleted; fewer than {@code limit} once nothing older is left
+     */
+    @Override
+    public int purgeChunk(long cutoff, int limit) throws SQLException {
+        batchLock.lock();
+        try (PooledConnection conn = writePool.borrow()) {
+            Connection connection = conn.connection();
+            connection.setAutoCommit(false);
+
+            try {
+                int deleted = 0;
+                for (String table : historyTables()) {
+                    if (deleted >= limit) {
+                        break;
+                    }
+                    PreparedStatement stmt = conn.prepare(dialect.deleteOldest(table));
+                    stmt.setLong(1, cutoff);
+                    stmt.setInt(2, limit - deleted);
+                    deleted += stmt.executeUpdate();
+                }
+
+                connection.commit();
+                return deleted;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } finally {
+            batchLock.unlock();
+        }
+    }
+
+    /**
+     * Moves the newest {@code limit} rows of the legacy table into the
+     * compact table in one transaction, keeping their ids. Draining
+     * newest-first keeps every remaining legacy row older than the compact
+     * table, so history reads can treat the legacy table as an older tier.
+     *
+     * @return the number of rows moved, {@code 0} once the legacy table is empty
+     */
+    @Override
+    public int migrateLegacyChunk(int limit) throws SQLException {
+        if (!legacyPending) {
+            return 0;
+        }
+
+        batchLock.lock();
+        try (PooledConnection conn = writePool.borrow()) {
+            Connection connection = conn.connection();
+            connection.setAutoCommit(false);
+
+            try {
+                List<PlayerBalance> rows = new ArrayList<>(limit);
+                List<Long> ids = new ArrayList<>(limit);
+                PreparedStatement select = conn.prepare("SELECT id, player_uuid, timestamp, balance FROM " +
+                        LEGACY_TABLE + " ORDER BY id DESC LIMIT ?");
+                select.setInt(1, limit);
+                select.setFetchSize(Math.min(limit, batchSize));
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getLong("id"));
+                        rows.add(new PlayerBalance(UUID.fromString(rs.getString("player_uuid")),
+                                rs.getDouble("balance"), null, rs.getLong("timestamp")));
+                    }
+                }
+
+                for (int from = 0; from < rows.size(); from += batchSize) {
+                    int to = Math.min(from + batchSize, rows.size());
+                    insertWithIds(conn, "INSERT INTO ", ids.subList(from, to), rows.subList(from, to));
+                }
+                if (!rows.isEmpty()) {
+                    PreparedStatement delete = conn.prepare("DELETE FROM " + LEGACY_TABLE + " WHERE id >= ?");
+                    delete.setLong(1, ids.get(ids.size() - 1));
+                    delete.executeUpdate();
+                }
+
+                connection.commit();
+                if (rows.size() < limit) {
+                    legacyPending = false;
+                }
+                return rows.size();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } finally {
+            batchLock.unlock();
+        }
+    }
+
+    /**
+     * Inserts rows under the given ids with one multi-row statement that
+     * starts with {@code insert}.
+     *
+     * @return the number of rows inserted
+     */
+    /**
+     * Compares the rows an import skipped with the rows holding their ids.
+     *
+     * @throws SQLException if an id belongs to a different record
+     */
+    private void checkSkippedRows(PooledConnection conn, List<Long> ids, List<PlayerBalance> rows)
+            throws SQLException {
+        Map<Long, PlayerBalance> byId = new HashMap<>();
+        StringBuilder sql = new StringBuilder("SELECT id, player_uuid, timestamp, balance FROM " + HISTORY_TABLE +
+                " WHERE id IN (");
+        for (int i = 0; i < ids.size(); i++) {
+            byId.put(ids.get(i), rows.get(i));
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(')');
+
+        PreparedStatement stmt = conn.prepare(sql.toString());
+        for (int i = 0; i < ids.size(); i++) {
+            stmt.setLong(i + 1, ids.get(i));
+        }
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                long id = rs.getLong("id");
+                PlayerBalance row = byId.get(id);
+                UUID uuid = UuidBytes.fromBytes(rs.getBytes("player_uuid"));
+                long timestamp = rs.getLong("timestamp");
+                double balance = rs.getDouble("balance");
+                if (!uuid.equals(row.uuid) || timestamp != row.timestamp
+                        || Double.doubleToLongBits(balance) != Double.doubleToLongBits(row.balance)) {
+                    throw new SQLException("Row id " + id + " already holds a different record (" + uuid + " at " +
+                            timestamp + "); the file was exported from a different database");
+                }
+            }
+        }
+    }
+
+    private int insertWithIds(PooledConnection conn, String insert, List<Long> ids, List<PlayerBalance> rows)
+            throws SQLException {
+        StringBuilder sql = new StringBuilder(insert + HISTORY_TABLE + " (id, player_uuid, timestamp, balance) VALUES ");
+        for (int i = 0; i < rows.size(); i++) {
+            sql.append(i == 0 ? "(?, ?, ?, ?)" : ", (?, ?, ?, ?)");
+        }
+
+        PreparedStatement stmt = conn.prepare(sql.toString());
+        int index = 1;
+        for (int i = 0; i < rows.size(); i++) {
+            PlayerBalance row = rows.get(i);
+            stmt.setLong(index++, ids.get(i));
+            stmt.setBytes(index++, UuidBytes.toBytes(row.uuid));
+            stmt.setLong(index++, row.timestamp);
+            stmt.setDouble(index++, row.balance);
+        }
+        return stmt.executeUpdate();
+    }
+
+    @Override
+    public boolean isMigrationPending() {
+        return legacyPending;
+    }
+
+    /**
+     * @return the raw history tables, newest tier first
+     */
+    private List<String> historyTables() {
+        return legacyPending ? Arrays.asList(HISTORY_TABLE, LEGACY_TABLE) : Collections.singletonList(HISTORY_TABLE);
+    }
+
+    @Override
+    public long getState(String key, long defaultValue) {
+        try (PooledConnection conn = readPool.borrow()) {
+            PreparedStatement stmt = conn.prepare("SELECT state_value FROM balancetracker_state WHERE state_key = ?");
+            stmt.setString(1, key);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : defaultValue;
+            }
+        } catch (SQLException e) {
+            logStyled("&c✘ Failed to read state: &e" + key);
+            logger.log(Level.SEVERE, "State query failed", e);
+            return defaultValue;
+        }
+    }
+
+    @Override
+    public void setState(String key, long value) {
+        try (PooledConnection conn = writePool.borrow()) {
+            writeState(conn, key, value);
+        } catch (SQLException e) {
+            logStyled("&c✘ Failed to save state: &e" + key);
+            logger.log(Level.SEVERE, "State update failed", e);
+        }
+    }
+
+    private void writeState(PooledConnection conn, String key, long value) throws SQLException {
+        PreparedStatement stmt = conn.prepare("INSERT INTO balancetracker_state (state_key, state_value) VALUES (?, ?)" +
+                dialect.upsert("state_key", "state_value = " + dialect.excluded("state_value")));
+        stmt.setString(1, key);
+        stmt.setLong(2, value);
+        stmt.executeUpdate();
+    }
+
+    /**
+     * Reads one page of a player's history, newest first, using keyset
+     * pagination on {@code (timestamp, id)}. Only rows with
+     * {@code from <= timestamp < to} are returned.
+     */
+    @Override
+    public HistoryPage getBalanceHistory(UUID playerUuid, HistoryCursor cursor, long from, long to, int limit) {
+        boolean firstPage = cursor == HistoryCursor.START && from == 0 && to == Long.MAX_VALUE;
+        if (!firstPage || limit >= historyCache.getRowsPerPlayer()) {
+            return queryBalanceHistory(playerUuid, cursor, from, to, limit);
+        }
+
+        HistoryPage cached = historyCache.get(playerUuid, limit);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Read through: load a full cache entry, then serve the page from it
+        long stamp = historyCache.stamp();
+        HistoryPage loaded = queryBalanceHistory(playerUuid, cursor, from, to, historyCache.getRowsPerPlayer());
+        historyCache.put(playerUuid, loaded.getRecords(), !loaded.hasMore(), stamp);
+
+        List<BalanceRecord> records = loaded.getRecords();
+        if (records.size() <= limit) {
+            return loaded;
+        }
+        BalanceRecord last = records.get(limit - 1);
+        return new HistoryPage(new ArrayList<>(records.subList(0, limit)),
+                new HistoryCursor(last.getTimestamp(), last.getId()));
+    }
+
+    /**
+     * Reads raw rows first and, once those run out, continues into the older
+     * tiers: legacy rows that are still being migrated, then rollups. Each
+     * tier predates the ones before it, so the combined result stays in
+     * timestamp order.
+     */
+    private HistoryPage queryBalanceHistory(UUID playerUuid, HistoryCursor cursor, long from, long to, int limit) {
+        List<BalanceRecord> records = new ArrayList<>(limit + 1);
+        HistoryCursor nextCursor = null;
+
+        long startTime = System.nanoTime();
+
+        try (PooledConnection conn = readPool.borrow()) {
+            HistoryCursor tierCursor = cursor;
+            for (String table : historyTables()) {
+                // One extra row tells us whether another page follows
+                readHistoryRows(conn, table, playerUuid, tierCursor, from, to, limit + 1 - records.size(), records);
+                if (records.size() > limit) {
+                    break;
+                }
+                if (!records.isEmpty()) {
+                    BalanceRecord last = records.get(records.size() - 1);
+                    tierCursor = new HistoryCursor(last.getTimestamp(), last.getId());
+                }
+            }
+
+            if (records.size() <= limit) {
+                readRollups(conn, playerUuid, tierCursor.getTimestamp(), from, to, limit + 1 - records.size(), records);
+            }
+
+            if (records.size() > limit) {
+                records.remove(limit);
+                BalanceRecord last = records.get(limit - 1);
+                nextCursor = new HistoryCursor(last.getTimestamp(), last.getId());
+            }
+
+            long duration = System.nanoTime() - startTime;
+            metrics.recordQuery(duration);
+            if (debugMode) {
                 logStyled("&7◆ Retrieved &e" + records.size() +
-                        "&7 records for &e" + playerUuid + "&7 in &a" + duration + "ms");
+                        "&7 records for &e" + playerUuid + "&7 in &a" + duration / 1_000_000 + "ms");
             }
 
         } catch (SQLException e) {
             logStyled("&c✘ Failed to get history for player: &e" + playerUuid);
-            plugin.getLogger().log(Level.SEVERE, "History query failed", e);
+            logger.log(Level.SEVERE, "History query failed", e);
         }
-        return records;
+        return new HistoryPage(records, nextCursor);
     }
 
-    public void close() {
-        try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-                logStyled("&6■ Database connection closed gracefully");
+    private void readHistoryRows(PooledConnection conn, String table, UUID playerUuid, HistoryCursor cursor,
+                                 long from, long to, int limit, List<BalanceRecord> records) throws SQLException {
+        PreparedStatement stmt = conn.prepare("SELECT id, timestamp, balance FROM " + table + " " +
+                HISTORY_RANGE + "ORDER BY timestamp DESC, id DESC LIMIT ?");
+        bindHistoryRange(stmt, table, playerUuid, cursor, from, to);
+        stmt.setInt(7, limit);
+        stmt.setFetchSize(limit);
+
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                records.add(new BalanceRecord(
+                        rs.getLong("id"),
+                        rs.getLong("timestamp"),
+                        rs.getDouble("balance")
+                ));
+            }
+        }
+    }
+
+    private void readRollups(PooledConnection conn, UUID playerUuid, long before, long from, long to, int limit,
+                             List<BalanceRecord> records) throws SQLException {
+        PreparedStatement stmt = conn.prepare("SELECT bucket_start, resolution, open_balance, close_balance, " +
+                "min_balance, max_balance, samples FROM balance_rollups " +
+                "WHERE player_uuid = ? AND bucket_start >= ? AND bucket_start < ? AND bucket_start < ? " +
+                "ORDER BY bucket_start DESC LIMIT ?");
+        stmt.setBytes(1, UuidBytes.toBytes(playerUuid));
+        stmt.setLong(2, from);
+        stmt.setLong(3, to);
+        stmt.setLong(4, before);
+        stmt.setInt(5, limit);
+        stmt.setFetchSize(limit);
+
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                records.add(new RollupRecord(
+                        rs.getLong("bucket_start"),
+                        rs.getLong("resolution"),
+                        rs.getDouble("open_balance"),
+                        rs.getDouble("close_balance"),
+                        rs.getDouble("min_balance"),
+                        rs.getDouble("max_balance"),
+                        rs.getInt("samples")
+                ));
+            }
+        }
+    }
+
+    /**
+     * Finds the cursor that sits {@code skip} rows past {@code cursor}, reading
+     * only key columns. Used to jump to a page whose cursor is not known yet.
+     *
+     * @return the cursor, or {@code null} if the history is shorter than that
+     */
+    @Override
+    public HistoryCursor seekHistoryCursor(UUID playerUuid, HistoryCursor cursor, long from, long to, int skip) {
+        try (PooledConnection conn = readPool.borrow()) {
+            // Rows passed over in newer tiers count towards the skip
+            int skipped = 0;
+            for (String table : historyTables()) {
+                PreparedStatement stmt = conn.prepare("SELECT id, timestamp FROM " + table + " " + HISTORY_RANGE +
+                        "ORDER BY timestamp DESC, id DESC LIMIT 1 OFFSET ?");
+                bindHistoryRange(stmt, table, playerUuid, cursor, from, to);
+                stmt.setInt(7, skip - skipped - 1);
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        return new HistoryCursor(rs.getLong("timestamp"), rs.getLong("id"));
+                    }
+                }
+
+                // The target lies beyond this tier, so skip whatever rows remain in it
+                stmt = conn.prepare("SELECT COUNT(*) FROM " + table + " " + HISTORY_RANGE);
+                bindHistoryRange(stmt, table, playerUuid, cursor, from, to);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    skipped += rs.next() ? rs.getInt(1) : 0;
+                }
+            }
+
+            PreparedStatement stmt = conn.prepare("SELECT bucket_start FROM balance_rollups " +
+                    "WHERE player_uuid = ? AND bucket_start >= ? AND bucket_start < ? AND bucket_start < ? " +
+                    "ORDER BY bucket_start DESC LIMIT 1 OFFSET ?");
+            stmt.setBytes(1, UuidBytes.toBytes(playerUuid));
+            stmt.setLong(2, from);
+            stmt.setLong(3, to);
+            stmt.setLong(4, cursor.getTimestamp());
+            stmt.setInt(5, skip - skipped - 1);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return new HistoryCursor(rs.getLong("bucket_start"), 0);
+                }
             }
         } catch (SQLException e) {
-            logStyled("&c⚠ Failed to close database connection");
-            plugin.getLogger().log(Level.SEVERE, "Connection close failed", e);
+            logStyled("&c✘ Failed to seek history for player: &e" + playerUuid);
+            logger.log(Level.SEVERE, "History seek failed", e);
         }
+        return null;
     }
 
-    private void logStyled(String message) {
-        plugin.getLogger().info(ChatColor.translateAlternateColorCodes('&', message));
+    private static void bindHistoryRange(PreparedStatement stmt, String table, UUID playerUuid, HistoryCursor cursor,
+                                         long from, long to) throws SQLException {
+        if (table.equals(LEGACY_TABLE)) {
+            stmt.setString(1, playerUuid.toString());
+        } else {
+            stmt.setBytes(1, UuidBytes.toBytes(playerUuid));
+        }
+        stmt.setLong(2, from);
+        stmt.setLong(3, to);
+        stmt.setLong(4, cursor.getTimestamp());
+        stmt.setLong(5, cursor.getTimestamp());
+        stmt.setLong(6, cursor.getId());
+    }
+
+    /**
+     * Returns the oldest timestamp stored at the given tier: raw history for
+     * {@link RollupRecord#HOURLY}, hourly rollups for {@link RollupRecord#DAILY}.
+     *
+     * @return the oldest timestamp, or {@code -1} if the tier is empty
+     */
+    @Override
+    public long findOldestTimestamp(long resolution) throws SQLException {
+        String sql = resolution == RollupRecord.HOURLY
+                ? "SELECT MIN(timestamp) FROM " + HISTORY_TABLE
+                : "SELECT MIN(bucket_start) FROM balance_rollups WHERE resolution = " + RollupRecord.HOURLY;
+
+        try (PooledConnection conn = writePool.borrow();
+             ResultSet rs = conn.prepare(sql).executeQuery()) {
+            if (rs.next()) {
+                long oldest = rs.getLong(1);
+                return rs.wasNull() ? -1 : oldest;
+            }
+            return -1;
+        }
     }
 
-    private String formatCurrency(double amount) {
-        return currencyFormat.format(amount).replace("$", "⛃ ");
+    /**
+     * Compacts one bucket-sized window into per-player rollup rows and
+     * removes the source rows in one transaction. Hourly buckets are built
+     * from raw history and daily buckets from hourly rollups.
+     *
+     * @return the number of rollup rows written
+     */
+    @Override
+    public int compactWindow(long windowStart, long resolution) throws SQLException {
+        long windowEnd = windowStart + resolution;
+        String selectSql;
+        String deleteSql;
+        if (resolution == RollupRecord.HOURLY) {
+            selectSql = "SELECT player_uuid, timestamp, balance AS open_balance, balance AS close_balance, " +
+                    "balance AS min_balance, balance AS max_balance, 1 AS samples, timestamp AS first_sample, " +
+                    "timestamp AS last_sample FROM " + HISTORY_TABLE + " " +
+                    "WHERE timestamp >= ? AND timestamp < ? ORDER BY player_uuid, timestamp, id";
+            deleteSql = "DELETE FROM " + HISTORY_TABLE + " WHERE timestamp >= ? AND timestamp < ?";
+        } else {
+            selectSql = "SELECT player_uuid, bucket_start AS timestamp, open_balance, close_balance, " +
+                    "min_balance, max_balance, samples, first_sample, last_sample FROM balance_rollups " +
+                    "WHERE resolution = " + RollupRecord.HOURLY + " AND bucket_start >= ? AND bucket_start < ? " +
+                    "ORDER BY player_uuid, bucket_start";
+            deleteSql = "DELETE FROM balance_rollups WHERE resolution = " + RollupRecord.HOURLY +
+                    " AND bucket_start >= ? AND bucket_start < ?";
+        }
+
+        batchLock.lock();
+        try (PooledConnection conn = writePool.borrow()) {
+            Connection connection = conn.connection();
+            connection.setAutoCommit(false);
+
+            try {
+                List<UUID> uuids = new ArrayList<>();
+                List<RollupRecord> buckets = new ArrayList<>();
+
+                PreparedStatement select = conn.prepare(selectSql);
+                select.setLong(1, windowStart);
+                select.setLong(2, windowEnd);
+                select.setFetchSize(batchSize);
+                try (ResultSet rs = select.executeQuery()) {
+                    UUID currentUuid = null;
+                    double open = 0, close = 0, min = 0, max = 0;
+                    int samples = 0;
+                    long firstSample = 0, lastSample = 0;
+
+                    while (rs.next()) {
+                        UUID uuid = UuidBytes.fromBytes(rs.getBytes("player_uuid"));
+                        if (!uuid.equals(currentUuid)) {
+                            if (currentUuid != null) {
+                                uuids.add(currentUuid);
+                                buckets.add(new RollupRecord(windowStart, resolution, open, close, min, max, samples,
+                                        firstSample, lastSample));
+                            }
+                            currentUuid = uuid;
+                            open = rs.getDouble("open_balance");
+                            firstSample = rs.getLong("first_sample");
+                            min = Double.MAX_VALUE;
+                            max = -Double.MAX_VALUE;
+                            samples = 0;
+                        }
+                        close = rs.getDouble("close_balance");
+                        min = Math.min(min, rs.getDouble("min_balance"));
+                        max = Math.max(max, rs.getDouble("max_balance"));
+                        samples += rs.getInt("samples");
+                        lastSample = rs.getLong("last_sample");
+                    }
+                    if (currentUuid != null) {
+                        uuids.add(currentUuid);
+                        buckets.add(new RollupRecord(windowStart, resolution, open, close, min, max, samples,
+                                firstSample, lastSample));
+                    }
+                }
+
+                PreparedStatement delete = conn.prepare(deleteSql);
+                delete.setLong(1, windowStart);
+                delete.setLong(2, windowEnd);
+                delete.executeUpdate();
+
+                for (int from = 0; from < buckets.size(); from += batchSize) {
+                    int to = Math.min(from + batchSize, buckets.size());
+                    insertRollups(conn, uuids.subList(from, to), buckets.subList(from, to));
+                }
+
+                connection.commit();
+                return buckets.size();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } finally {
+            batchLock.unlock();
+        }
+    }
+
+    /**
+     * Writes rollup rows, merging into any bucket that already exists. Rows
+     * can reach a bucket out of time order (a late replay compacted after the
+     * bucket was built), so the open is taken from whichever side sampled
+     * first and the close from whichever sampled last.
+     */
+    private void insertRollups(PooledConnection conn, List<UUID> uuids, List<RollupRecord> buckets)
+            throws SQLException {
+        StringBuilder sql = new StringBuilder("INSERT INTO balance_rollups (player_uuid, bucket_start, resolution, " +
+                "open_balance, close_balance, min_balance, max_balance, samples, first_sample, last_sample) VALUES ");
+        for (int i = 0; i < buckets.size(); i++) {
+            sql.append(i == 0 ? "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        }
+        // MySQL applies the assignments left to right, so the sample times must be updated last
+        sql.append(dialect.upsert("player_uuid, bucket_start, resolution",
+                "open_balance = CASE WHEN " + dialect.excluded("first_sample") + " < first_sample THEN " +
+                        dialect.excluded("open_balance") + " ELSE open_balance END",
+                "close_balance = CASE WHEN " + dialect.excluded("last_sample") + " >= last_sample THEN " +
+                        dialect.excluded("close_balance") + " ELSE close_balance END",
+                "min_balance = " + dialect.least("min_balance", dialect.excluded("min_balance")),
+                "max_balance = " + dialect.greatest("max_balance", dialect.excluded("max_balance")),
+                "samples = samples + " + dialect.excluded("samples"),
+                "first_sample = " + dialect.least("first_sample", dialect.excluded("first_sample")),
+                "last_sample = " + dialect.greatest("last_sample", dialect.excluded("last_sample"))));
+
+        PreparedStatement stmt = conn.prepare(sql.toString());
+        int index = 1;
+        for (int i = 0; i < buckets.size(); i++) {
+            RollupRecord bucket = buckets.get(i);
+            stmt.setBytes(index++, UuidBytes.toBytes(uuids.get(i)));
+            stmt.setLong(index++, bucket.getTimestamp());
+            stmt.setLong(index++, bucket.getResolution());
+            stmt.setDouble(index++, bucket.getOpen());
+            stmt.setDouble(index++, bucket.getBalance());
+            stmt.setDouble(index++, bucket.getMin());
+            stmt.setDouble(index++, bucket.getMax());
+            stmt.setInt(index++, bucket.getSamples());
+            stmt.setLong(index++, bucket.getFirstSample());
+            stmt.setLong(index++, bucket.getLastSample());
+        }
+        stmt.executeUpdate();
+    }
+
+    @Override
+    public void heartbeatNode(String nodeId, long now, int partitions) throws SQLException {
+        try (PooledConnection conn = writePool.borrow()) {
+            PreparedStatement stmt = conn.prepare("INSERT INTO cluster_nodes (node_id, heartbeat) VALUES (?, ?)" +
+                    dialect.upsert("node_id", "heartbeat = " + dialect.excluded("heartbeat")));
+            stmt.setString(1, nodeId);
+            stmt.setLong(2, now);
+            stmt.executeUpdate();
+
+            if (partitions > ensuredPartitions) {
+                StringBuilder sql = new StringBuilder("INSERT INTO cluster_partitions (partition_id) VALUES (?)");
+                for (int i = 0; i < partitions; i++) {
+                    sql.append(", (?)");
+                }
+                // Existing rows keep their lease
+                sql.append(dialect.upsert("partition_id", "partition_id = partition_id"));
+
+                PreparedStatement insert = conn.prepare(sql.toString());
+                insert.setInt(1, ClusterCoordinator.MAINTENANCE_LEASE);
+                for (int i = 0; i < partitions; i++) {
+                    insert.setInt(i + 2, i);
+                }
+                insert.executeUpdate();
+                ensuredPartitions = partitions;
+            }
+        }
+    }
+
+    @Override
+    public List<String> findLiveNodes(long since) throws SQLException {
+        List<String> nodes = new ArrayList<>();
+        try (PooledConnection conn = readPool.borrow()) {
+            PreparedStatement stmt = conn.prepare("SELECT node_id FROM cluster_nodes WHERE heartbeat >= ?");
+            stmt.setLong(1, since);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    nodes.add(rs.getString(1));
+                }
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Each lease is a conditional update, so of two nodes racing for a
+     * partition exactly one sees its row change.
+     */
+    @Override
+    public Set<Integer> claimPartitions(String nodeId, Collection<Integer> partitions, long now, long leaseExpires)
+            throws SQLException {
+        Set<Integer> claimed = new HashSet<>();
+        if (partitions.isEmpty()) return claimed;
+
+        try (PooledConnection conn = writePool.borrow()) {
+            Connection connection = conn.connection();
+            connection.setAutoCommit(false);
+
+            try {
+                PreparedStatement stmt = conn.prepare("UPDATE cluster_partitions SET node_id = ?, lease_expires = ? " +
+                        "WHERE partition_id = ? AND (node_id = ? OR node_id IS NULL OR lease_expires < ?)");
+                for (int partition : partitions) {
+                    stmt.setString(1, nodeId);
+                    stmt.setLong(2, leaseExpires);
+                    stmt.setInt(3, partition);
+                    stmt.setString(4, nodeId);
+                    stmt.setLong(5, now);
+                    if (stmt.executeUpdate() == 1) {
+                        claimed.add(partition);
+                    }
+                }
+                connection.commit();
+                return claimed;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void releasePartitions(String nodeId, Collection<Integer> partitions) throws SQLException {
+        if (partitions.isEmpty()) return;
+
+        StringBuilder sql = new StringBuilder("UPDATE cluster_partitions SET node_id = NULL, lease_expires = 0 " +
+                "WHERE node_id = ? AND partition_id IN (");
+        for (int i = 0; i < partitions.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(')');
+
+        try (PooledConnection conn = writePool.borrow()) {
+            PreparedStatement stmt = conn.prepare(sql.toString());
+            int index = 1;
+            stmt.setString(index++, nodeId);
+            for (int partition : partitions) {
+                stmt.setInt(index++, partition);
+            }
+            stmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public void leaveCluster(String nodeId) throws SQLException {
+        try (PooledConnection conn = writePool.borrow()) {
+            Connection connection = conn.connection();
+            connection.setAutoCommit(false);
+
+            try {
+                PreparedStatement release = conn.prepare(
+                        "UPDATE cluster_partitions SET node_id = NULL, lease_expires = 0 WHERE node_id = ?");
+                release.setString(1, nodeId);
+                release.executeUpdate();
+
+                PreparedStatement delete = conn.prepare("DELETE FROM cluster_nodes WHERE node_id = ?");
+                delete.setString(1, nodeId);
+                delete.executeUpdate();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void markPlayersDirty(Collection<UUID> players, long now) throws SQLException {
+        List<UUID> uuids = new ArrayList<>(players);
+        try (PooledConnection conn = writePool.borrow()) {
+            for (int from = 0; from < uuids.size(); from += batchSize) {
+                List<UUID> chunk = uuids.subList(from, Math.min(from + batchSize, uuids.size()));
+                StringBuilder sql = new StringBuilder("INSERT INTO cluster_dirty_players (player_uuid, marked_at) VALUES ");
+                for (int i = 0; i < chunk.size(); i++) {
+                    sql.append(i == 0 ? "(?, ?)" : ", (?, ?)");
+                }
+                sql.append(dialect.upsert("player_uuid", "marked_at = " + dialect.excluded("marked_at")));
+
+                PreparedStatement stmt = conn.prepare(sql.toString());
+                int index = 1;
+                for (UUID uuid : chunk) {
+                    stmt.setBytes(index++, UuidBytes.toBytes(uuid));
+                    stmt.setLong(index++, now);
+                }
+                stmt.executeUpdate();
+            }
+        }
+    }
+
+    @Override
+    public Map<UUID, Long> loadDirtyPlayers() throws SQLException {
+        Map<UUID, Long> players = new HashMap<>();
+        try (PooledConnection conn = readPool.borrow()) {
+            PreparedStatement stmt = conn.prepare("SELECT player_uuid, marked_at FROM cluster_dirty_players");
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    players.put(UuidBytes.fromBytes(rs.getBytes(1)), rs.getLong(2));
+                }
+            }
+        }
+        return players;
+    }
+
+    @Override
+    public void clearDirtyPlayers(Map<UUID, Long> players) throws SQLException {
+        List<Map.Entry<UUID, Long>> entries = new ArrayList<>(players.entrySet());
+        try (PooledConnection conn = writePool.borrow()) {
+            for (int from = 0; from < entries.size(); from += batchSize) {
+                List<Map.Entry<UUID, Long>> chunk = entries.subList(from, Math.min(from + batchSize, entries.size()));
+                StringBuilder sql = new StringBuilder("DELETE FROM cluster_dirty_players WHERE ");
+                for (int i = 0; i < chunk.size(); i++) {
+                    sql.append(i == 0 ? "" : " OR ").append("(player_uuid = ? AND marked_at <= ?)");
+                }
+
+                PreparedStatement stmt = conn.prepare(sql.toString());
+                int index = 1;
+                for (Map.Entry<UUID, Long> entry : chunk) {
+                    stmt.setBytes(index++, UuidBytes.toBytes(entry.getKey()));
+                    stmt.setLong(index++, entry.getValue());
+                }
+                stmt.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Validates idle pooled connections; called periodically as a keepalive.
+     */
+    @Override
+    public void validateIdleConnections() {
+        if (readPool != null) readPool.validateIdle();
+        if (writePool != null) writePool.validateIdle();
+    }
+
+    @Override
+    public String describePools() {
+        return readPool.describe() + "; " + writePool.describe();
+    }
+
+    @Override
+    public HistoryCache getHistoryCache() {
+        return historyCache;
+    }
+
+    @Override
+    public void close() {
+        if (readPool != null) readPool.close();
+        if (writePool != null) writePool.close();
+        logStyled("&6■ Database connection pools closed gracefully");
+    }
+
+    private void logStyled(String message) {
+        logger.info(ChatColor.translateAlternateColorCodes('&', message));
     }
 }
\ No newline at end of file
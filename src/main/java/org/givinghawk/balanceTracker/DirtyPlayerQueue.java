@@ -0,0 +1,53 @@
+package org.givinghawk.balanceTracker;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Collects players whose balance may have changed. Repeated marks for the
+ * same player are coalesced, and a player is only handed out once the
+ * debounce window since the first mark has passed.
+ */
+public class DirtyPlayerQueue {
+    private final Map<UUID, Long> dirtySince = new ConcurrentHashMap<>();
+    private final long debounceMillis;
+
+    public DirtyPlayerQueue(long debounceMillis) {
+        this.debounceMillis = debounceMillis;
+    }
+
+    public void markDirty(UUID uuid) {
+        if (uuid != null) {
+            dirtySince.putIfAbsent(uuid, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Removes every player whose debounce window has elapsed and passes it to
+     * the consumer.
+     *
+     * @return the number of players drained
+     */
+    public int drain(Consumer<UUID> consumer) {
+        long now = System.currentTimeMillis();
+        int drained = 0;
+
+        Iterator<Map.Entry<UUID, Long>> it = dirtySince.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<UUID, Long> entry = it.next();
+            if (now - entry.getValue() >= debounceMillis) {
+                it.remove();
+                consumer.accept(entry.getKey());
+                drained++;
+            }
+        }
+        return drained;
+    }
+
+    public int size() {
+        return dirtySince.size();
+    }
+}
@@ -0,0 +1,257 @@
+package org.givinghawk.balanceTracker;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Server-wide economy figures kept up to date as changes are recorded, so
+ * that {@code /balancetop} and {@code /economystats} never scan history.
+ * <p>
+ * Every known player is ranked by balance, which also gives the money
+ * supply and the median. Changes are summed per player into hourly buckets
+ * covering the last 24 hours, and a second ranking holds each player's net
+ * change over that window; when a bucket falls out of the window its
+ * changes are subtracted again. The supply at the end of each hour is
+ * saved to a summary table for longer-range charts.
+ * <p>
+ * In a cluster each server only detects the changes of its own partitions,
+ * so the rest is brought in by {@link #sync} from the shared last balances.
+ */
+public class EconomyAnalytics {
+    public static final int WINDOW_HOURS = 24;
+    // Net changes smaller than this drop out of the gainers and losers ranking
+    private static final double MIN_CHANGE = 0.001;
+
+    private final BalanceStorage storage;
+    private final long startedAt = System.currentTimeMillis();
+    private final BalanceRanking balances = new BalanceRanking();
+    private final BalanceRanking dailyChanges = new BalanceRanking();
+    private final TreeMap<Long, HourBucket> window = new TreeMap<>();
+    // Closed hours that have not been saved yet
+    private final List<SupplyPoint> unsaved = new ArrayList<>();
+    private long currentHour = hourOf(startedAt);
+    private volatile long lastSyncedAt;
+
+    public EconomyAnalytics(BalanceStorage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Ranks every player in the last-balance cache.
+     *
+     * @return the number of ranked players
+     */
+    public synchronized int seed(LastBalanceIndex lastBalances) {
+        balances.clear();
+        lastBalances.forEach((msb, lsb, balance) -> balances.put(new UUID(msb, lsb), balance));
+        return balances.size();
+    }
+
+    /**
+     * Rebuilds the gains and losses of the current window from history
+     * written before this instance was created. Each player's first row in
+     * the window only serves as a baseline, since the balance before it is
+     * not read.
+     *
+     * @return the number of history rows read
+     */
+    public int warmUp() {
+        Map<UUID, Double> lastSeen = new HashMap<>();
+        return storage.streamHistorySince(windowStart(currentHour), row -> {
+            if (row.timestamp >= startedAt) return;
+
+            Double previous = lastSeen.put(row.uuid, row.balance);
+            if (previous != null) {
+                synchronized (this) {
+                    addChange(row.uuid, row.balance - previous, row.timestamp);
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies newly detected changes. Players seen for the first time add to
+     * the supply but not to the gains.
+     */
+    public synchronized void record(List<PlayerBalance> changes) {
+        advance(System.currentTimeMillis());
+        for (PlayerBalance change : changes) {
+            double previous = balances.put(change.uuid, change.balance);
+            if (!Double.isNaN(previous)) {
+                addChange(change.uuid, change.balance - previous, change.timestamp);
+            }
+        }
+    }
+
+    /**
+     * Applies the stored last balance of every player {@code local} rejects,
+     * for players whose changes another server detects. A stored balance
+     * that differs from the ranked one counts as a change at the time of the
+     * sync. Players {@code local} accepts are left to {@link #record}, since
+     * their stored balance may still be behind the write queue.
+     *
+     * @return the number of players whose balance was updated
+     */
+    public int sync(Predicate<UUID> local) throws SQLException {
+        long now = System.currentTimeMillis();
+        int[] updated = new int[1];
+        storage.streamLastBalances((msb, lsb, balance) -> {
+            UUID uuid = new UUID(msb, lsb);
+            if (local.test(uuid)) return;
+
+            synchronized (this) {
+                double previous = balances.get(uuid);
+                if (previous == balance) return;
+                advance(now);
+                balances.put(uuid, balance);
+                if (!Double.isNaN(previous)) {
+                    addChange(uuid, balance - previous, now);
+                }
+                updated[0]++;
+            }
+        });
+        lastSyncedAt = now;
+        return updated[0];
+    }
+
+    /**
+     * @return when {@link #sync} last finished, or {@code 0} if it never ran
+     */
+    public long getLastSyncedAt() {
+        return lastSyncedAt;
+    }
+
+    /**
+     * Closes the current hour once it has ended and, if {@code save} is set,
+     * saves the supply figures. In a cluster only one server saves them.
+     * Runs periodically off the main thread.
+     */
+    public void tick(boolean save) {
+        List<SupplyPoint> closed;
+        SupplyPoint current;
+        synchronized (this) {
+            advance(System.currentTimeMillis());
+            closed = new ArrayList<>(unsaved);
+            unsaved.clear();
+            current = point(currentHour);
+        }
+        if (!save) {
+            return;
+        }
+
+        List<SupplyPoint> points = new ArrayList<>(closed);
+        points.add(current);
+        if (!storage.saveSupplyPoints(points)) {
+            synchronized (this) {
+                // The open hour is saved again on the next tick anyway
+                unsaved.addAll(0, closed);
+            }
+        }
+    }
+
+    public BalanceRanking getBalances() {
+        return balances;
+    }
+
+    /**
+     * @return each player's net change over the last 24 hours
+     */
+    public BalanceRanking getDailyChanges() {
+        return dailyChanges;
+    }
+
+    public double getSupply() {
+        return balances.getTotal();
+    }
+
+    public double getMedian() {
+        int size = balances.size();
+        if (size == 0) {
+            return 0;
+        }
+        if (size % 2 == 1) {
+            return balances.scoreAt(size / 2 + 1);
+        }
+        return (balances.scoreAt(size / 2) + balances.scoreAt(size / 2 + 1)) / 2;
+    }
+
+    /**
+     * @return the current supply with the gains and losses of the last 24 hours
+     */
+    public synchronized SupplyPoint getLastDay() {
+        double gained = 0;
+        double lost = 0;
+        for (HourBucket bucket : window.values()) {
+            gained += bucket.gained;
+            lost += bucket.lost;
+        }
+        return new SupplyPoint(windowStart(currentHour), balances.getTotal(), balances.size(), gained, lost);
+    }
+
+    private void addChange(UUID uuid, double change, long timestamp) {
+        long hour = hourOf(timestamp);
+        if (hour < windowStart(currentHour)) return;
+
+        window.computeIfAbsent(hour, start -> new HourBucket()).add(uuid, change);
+        setDailyChange(uuid, netChange(uuid) + change);
+    }
+
+    private void advance(long now) {
+        long hour = hourOf(now);
+        if (hour <= currentHour) return;
+
+        // The first check past the hour sees the supply the hour closed with
+        unsaved.add(point(currentHour));
+        currentHour = hour;
+
+        long start = windowStart(hour);
+        while (!window.isEmpty() && window.firstKey() < start) {
+            for (Map.Entry<UUID, double[]> expired : window.pollFirstEntry().getValue().changes.entrySet()) {
+                setDailyChange(expired.getKey(), netChange(expired.getKey()) - expired.getValue()[0]);
+            }
+        }
+    }
+
+    private SupplyPoint point(long hour) {
+        HourBucket bucket = window.get(hour);
+        return new SupplyPoint(hour, balances.getTotal(), balances.size(),
+                bucket == null ? 0 : bucket.gained, bucket == null ? 0 : bucket.lost);
+    }
+
+    private double netChange(UUID uuid) {
+        double net = dailyChanges.get(uuid);
+        return Double.isNaN(net) ? 0 : net;
+    }
+
+    private void setDailyChange(UUID uuid, double net) {
+        if (Math.abs(net) < MIN_CHANGE) {
+            dailyChanges.remove(uuid);
+        } else {
+            dailyChanges.put(uuid, net);
+        }
+    }
+
+    private static long windowStart(long hour) {
+        return hour - (WINDOW_HOURS - 1) * RollupRecord.HOURLY;
+    }
+
+    private static long hourOf(long timestamp) {
+        return timestamp - Math.floorMod(timestamp, RollupRecord.HOURLY);
+    }
+
+    private static final class HourBucket {
+        final Map<UUID, double[]> changes = new HashMap<>();
+        double gained;
+        double lost;
+
+        void add(UUID uuid, double change) {
+            changes.computeIfAbsent(uuid, key -> new double[1])[0] += change;
+            if (change > 0) {
+                gained += change;
+            } else {
+                lost -= change;
+            }
+        }
+    }
+}
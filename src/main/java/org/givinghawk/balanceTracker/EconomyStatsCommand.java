@@ -0,0 +1,144 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.Executor;
+
+/**
+ * Server-wide economy figures. The summary is answered from memory; the
+ * supply chart reads the hourly summary table, never raw history.
+ */
+public class EconomyStatsCommand implements TabExecutor {
+    private static final int TOP_MOVERS = 5;
+    private static final int MAX_HOURS = 30 * 24;
+    // Longer ranges are sampled down to this many lines
+    private static final int MAX_CHART_LINES = 24;
+
+    private final EconomyAnalytics analytics;
+    private final BalanceStorage databaseManager;
+    private final PlayerNameIndex nameIndex;
+    private final Executor async;
+
+    /**
+     * @param async runs supply history queries off the main thread
+     */
+    public EconomyStatsCommand(EconomyAnalytics analytics, BalanceStorage databaseManager, PlayerNameIndex nameIndex,
+                               Executor async) {
+        this.analytics = analytics;
+        this.databaseManager = databaseManager;
+        this.nameIndex = nameIndex;
+        this.async = async;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length == 0) {
+            showSummary(sender);
+            return true;
+        }
+        if (!args[0].equalsIgnoreCase("supply") || args.length > 2) {
+            sender.sendMessage("§cUsage: /economystats [supply [hours]]");
+            return true;
+        }
+
+        final int hours;
+        try {
+            hours = args.length > 1 ? Integer.parseInt(args[1]) : EconomyAnalytics.WINDOW_HOURS;
+        } catch (NumberFormatException e) {
+            sender.sendMessage("§cHours must be a number");
+            return true;
+        }
+        if (hours < 1 || hours > MAX_HOURS) {
+            sender.sendMessage("§cHours must be between 1 and " + MAX_HOURS);
+            return true;
+        }
+
+        async.execute(() -> {
+            long from = System.currentTimeMillis() - (long) hours * RollupRecord.HOURLY;
+            showSupply(sender, hours, databaseManager.loadSupplyHistory(from - from % RollupRecord.HOURLY));
+        });
+        return true;
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        if (args.length == 1 && "supply".startsWith(args[0].toLowerCase(Locale.ROOT))) {
+            return Collections.singletonList("supply");
+        }
+        return Collections.emptyList();
+    }
+
+    private void showSummary(CommandSender sender) {
+        SupplyPoint day = analytics.getLastDay();
+        int players = day.getPlayers();
+
+        sender.sendMessage("§6Economy statistics:");
+        sender.sendMessage("§7Money supply: §b" + formatMoney(day.getSupply()) + "§7 across §e" + players + "§7 players");
+        sender.sendMessage("§7Average: §b" + formatMoney(players == 0 ? 0 : day.getSupply() / players) +
+                "§7, median: §b" + formatMoney(analytics.getMedian()));
+        sender.sendMessage("§7Last 24h: §a+" + formatMoney(day.getGained()) + " §c-" + formatMoney(day.getLost()) +
+                " §7(net §e" + formatChange(day.getGained() - day.getLost()) + "§7)");
+        BalanceTopCommand.sendSyncNote(sender, analytics);
+
+        BalanceRanking changes = analytics.getDailyChanges();
+        List<BalanceRanking.Entry> gainers = changes.top(1, TOP_MOVERS);
+        gainers.removeIf(entry -> entry.score <= 0);
+        List<BalanceRanking.Entry> losers = changes.bottom(TOP_MOVERS);
+        losers.removeIf(entry -> entry.score >= 0);
+
+        if (!gainers.isEmpty()) {
+            sender.sendMessage("§6Top gainers (24h):");
+            for (BalanceRanking.Entry entry : gainers) {
+                sender.sendMessage("§7- §e" + nameOf(entry.uuid) + "§f: §a" + formatChange(entry.score));
+            }
+        }
+        if (!losers.isEmpty()) {
+            sender.sendMessage("§6Top losers (24h):");
+            for (BalanceRanking.Entry entry : losers) {
+                sender.sendMessage("§7- §e" + nameOf(entry.uuid) + "§f: §c" + formatChange(entry.score));
+            }
+        }
+    }
+
+    private void showSupply(CommandSender sender, int hours, List<SupplyPoint> points) {
+        if (points.isEmpty()) {
+            sender.sendMessage("§eNo money supply recorded in the last " + hours + " hours");
+            return;
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat("MMM dd HH:mm");
+        int step = (points.size() + MAX_CHART_LINES - 1) / MAX_CHART_LINES;
+        SupplyPoint first = points.get(0);
+        SupplyPoint last = points.get(points.size() - 1);
+
+        sender.sendMessage("§6Money supply over the last §e" + hours + "§6 hours:");
+        // Walk back from the newest point so it is always shown
+        List<SupplyPoint> shown = new ArrayList<>();
+        for (int i = points.size() - 1; i >= 0; i -= step) {
+            shown.add(points.get(i));
+        }
+        Collections.reverse(shown);
+        for (SupplyPoint point : shown) {
+            sender.sendMessage("§7- §a" + format.format(new Date(point.getHourStart())) + "§f: §b" +
+                    formatMoney(point.getSupply()) + " §7(§e" + point.getPlayers() + "§7 players)");
+        }
+        sender.sendMessage("§7Change: §e" + formatChange(last.getSupply() - first.getSupply()));
+    }
+
+    private String nameOf(UUID uuid) {
+        String name = nameIndex.getName(uuid);
+        return name != null ? name : uuid.toString().substring(0, 8);
+    }
+
+    private static String formatMoney(double amount) {
+        return String.format("$%,.2f", amount);
+    }
+
+    private static String formatChange(double amount) {
+        return (amount < 0 ? "-" : "+") + formatMoney(Math.abs(amount));
+    }
+}
@@ -0,0 +1,152 @@
+package org.givinghawk.balanceTracker;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of each player's most recent history rows, newest first.
+ * Entries expire after a fixed time and the least recently used player is
+ * evicted once the cache is full. New rows written by the sweep are added
+ * to the front of a cached entry, so reads stay correct without a re-query.
+ */
+public class HistoryCache {
+    private final int maxPlayers;
+    private final long expireMillis;
+    private final int rowsPerPlayer;
+    private final Map<UUID, Entry> entries;
+    private final AtomicLong writeStamp = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public HistoryCache(int maxPlayers, long expireMillis, int rowsPerPlayer) {
+        this.maxPlayers = maxPlayers;
+        this.expireMillis = expireMillis;
+        this.rowsPerPlayer = rowsPerPlayer;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Entry> eldest) {
+                if (size() > HistoryCache.this.maxPlayers) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return how many rows a load should fetch to fill an entry
+     */
+    public int getRowsPerPlayer() {
+        return rowsPerPlayer;
+    }
+
+    /**
+     * Returns the newest {@code limit} rows for a player, or {@code null} on a miss.
+     */
+    public synchronized HistoryPage get(UUID uuid, int limit) {
+        Entry entry = entries.get(uuid);
+        if (entry != null && System.currentTimeMillis() - entry.loadedAt > expireMillis) {
+            entries.remove(uuid);
+            evictions.increment();
+            entry = null;
+        }
+        // Without a spare row we can only answer when the whole history is cached
+        if (entry == null || (entry.records.size() <= limit && !entry.complete)) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        if (entry.records.size() <= limit) {
+            return new HistoryPage(new ArrayList<>(entry.records), null);
+        }
+        List<BalanceRecord> page = new ArrayList<>(entry.records.subList(0, limit));
+        BalanceRecord last = page.get(limit - 1);
+        return new HistoryPage(page, new HistoryCursor(last.getTimestamp(), last.getId()));
+    }
+
+    /**
+     * Returns a stamp to pass to {@link #put} so a load that raced with a
+     * write does not cache rows that are already stale.
+     */
+    public long stamp() {
+        return writeStamp.get();
+    }
+
+    public synchronized void put(UUID uuid, List<BalanceRecord> newestFirst, boolean complete, long stamp) {
+        if (stamp != writeStamp.get()) {
+            return;
+        }
+        entries.put(uuid, new Entry(new ArrayList<>(newestFirst), complete));
+    }
+
+    /**
+     * Adds a freshly written row to the front of a cached entry, if any. A
+     * load that ran after the row was committed but before this call has
+     * already cached it, so a row whose id is present is not added again.
+     * The record is only created for a player that is cached.
+     */
+    public synchronized void append(UUID uuid, long id, long timestamp, double balance) {
+        writeStamp.incrementAndGet();
+        Entry entry = entries.get(uuid);
+        if (entry == null) {
+            return;
+        }
+        for (BalanceRecord cached : entry.records) {
+            if (cached.getId() == id) {
+                return;
+            }
+        }
+        entry.records.add(0, new BalanceRecord(id, timestamp, balance));
+        if (entry.records.size() > rowsPerPlayer) {
+            entry.records.remove(entry.records.size() - 1);
+            entry.complete = false;
+        }
+    }
+
+    public synchronized void invalidate(UUID uuid) {
+        writeStamp.incrementAndGet();
+        entries.remove(uuid);
+    }
+
+    public synchronized void clear() {
+        writeStamp.incrementAndGet();
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public String describe() {
+        return "history cache: " + size() + "/" + maxPlayers + " players, " + getHits() + " hits, " +
+                getMisses() + " misses, " + getEvictions() + " evictions";
+    }
+
+    private static final class Entry {
+        private final List<BalanceRecord> records;
+        private final long loadedAt = System.currentTimeMillis();
+        private boolean complete;
+
+        Entry(List<BalanceRecord> records, boolean complete) {
+            this.records = records;
+            this.complete = complete;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.givinghawk.balanceTracker;
+
+/**
+ * Keyset position inside a player's history. Rows are ordered by
+ * {@code (timestamp DESC, id DESC)}, so a page continues strictly after the
+ * last row of the previous one.
+ */
+public class HistoryCursor {
+    public static final HistoryCursor START = new HistoryCursor(Long.MAX_VALUE, Long.MAX_VALUE);
+
+    private final long timestamp;
+    private final long id;
+
+    public HistoryCursor(long timestamp, long id) {
+        this.timestamp = timestamp;
+        this.id = id;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getId() {
+        return id;
+    }
+}
@@ -0,0 +1,28 @@
+package org.givinghawk.balanceTracker;
+
+import java.util.List;
+
+public class HistoryPage {
+    private final List<BalanceRecord> records;
+    private final HistoryCursor nextCursor;
+
+    public HistoryPage(List<BalanceRecord> records, HistoryCursor nextCursor) {
+        this.records = records;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<BalanceRecord> getRecords() {
+        return records;
+    }
+
+    /**
+     * @return the cursor for the following page, or {@code null} if this is the last page
+     */
+    public HistoryCursor getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+}
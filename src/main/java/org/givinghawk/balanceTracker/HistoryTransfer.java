@@ -0,0 +1,426 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams raw history to and from gzip-compressed files in the plugin's
+ * {@code exports} folder. Exports read id-ordered chunks through a
+ * streaming cursor and imports write chunks through the normal batched
+ * write path, so memory is bounded by the chunk size however large the
+ * table is. Chunks are rate limited and separated by a pause so sweeps and
+ * history lookups keep running on a live server.
+ * <p>
+ * CSV files hold {@code id,player_uuid,timestamp,balance} under a header
+ * row. Binary files start with a magic number and a version, followed by
+ * fixed 40-byte big-endian records with the same columns. Imported rows
+ * keep their exported ids and leave last balances alone. A row whose id
+ * already holds the same record is skipped, so re-importing a file adds
+ * nothing. An id held by a different record stops the import, since the
+ * file then comes from a different database; import such a file into an
+ * empty one.
+ */
+public class HistoryTransfer {
+    private static final int MAGIC = 0x42544858; // "BTHX"
+    private static final int VERSION = 1;
+    private static final int RECORD_BYTES = 5 * Long.BYTES;
+    // Upper bound for one CSV line: two longs, a uuid, a double and separators
+    private static final int MAX_CSV_LINE_BYTES = 128;
+    private static final String CSV_HEADER = "id,player_uuid,timestamp,balance";
+    private static final int PROGRESS_EVERY_CHUNKS = 20;
+
+    public enum Format {
+        CSV(".csv.gz"),
+        BINARY(".bin.gz");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    private final Logger logger;
+    private final BalanceStorage databaseManager;
+    private final File directory;
+    private final int chunkSize;
+    private final long chunkDelayMillis;
+    private final double maxRowsPerSecond;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean stopped;
+
+    public HistoryTransfer(Logger logger, BalanceStorage databaseManager, File directory,
+                           int chunkSize, long chunkDelayMillis, double maxRowsPerSecond) {
+        this.logger = logger;
+        this.databaseManager = databaseManager;
+        this.directory = directory;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.chunkDelayMillis = chunkDelayMillis;
+        this.maxRowsPerSecond = maxRowsPerSecond;
+    }
+
+    /**
+     * Writes all raw history to a new timestamped file. A file left
+     * incomplete by an error or shutdown is deleted.
+     */
+    public void export(Format format, CommandSender sender) {
+        if (!running.compareAndSet(false, true)) {
+            sender.sendMessage("§cAn export or import is already running");
+            return;
+        }
+
+        directory.mkdirs();
+        File file = new File(directory, "history-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) +
+                format.extension);
+        long startTime = System.currentTimeMillis();
+        long rows = 0;
+        int chunks = 0;
+        boolean complete = false;
+
+        sender.sendMessage("§6Exporting balance history to §e" + file.getName());
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE);
+             WritableByteChannel out = Channels.newChannel(
+                     new GZIPOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+
+            RateLimiter limiter = maxRowsPerSecond > 0 ? new RateLimiter(maxRowsPerSecond) : null;
+            ChunkEncoder encoder = new ChunkEncoder(format, chunkSize);
+            if (format == Format.BINARY) {
+                encoder.buffer.putInt(MAGIC).putInt(VERSION);
+            } else {
+                encoder.putLine(CSV_HEADER);
+            }
+
+            while (!stopped) {
+                if (limiter != null) {
+                    limiter.acquire(chunkSize);
+                }
+                int read = databaseManager.readHistoryChunk(encoder.lastId, chunkSize, encoder);
+                encoder.writeTo(out);
+                if (read == 0) break;
+                rows += read;
+                chunks++;
+
+                if (chunks % PROGRESS_EVERY_CHUNKS == 0) {
+                    logStyled("&6■ Export progress: &e" + rows + "&6 records written " +
+                            "(&e" + rowsPerSecond(rows, startTime) + "&6 rows/s)");
+                }
+                if (chunkDelayMillis > 0) {
+                    Thread.sleep(chunkDelayMillis);
+                }
+            }
+            complete = !stopped;
+        } catch (SQLException | IOException e) {
+            logger.log(Level.SEVERE, "History export failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running.set(false);
+        }
+
+        if (!complete) {
+            file.delete();
+            logStyled("&c✘ History export failed after &e" + rows + "&c records");
+            sender.sendMessage("§cExport failed after " + rows + " records; see the server log");
+            return;
+        }
+        long seconds = (System.currentTimeMillis() - startTime) / 1000;
+        logStyled("&6■ Exported &e" + rows + "&6 records to &e" + file.getName() + "&6 in &e" + chunks +
+                "&6 chunks, &a" + seconds + "s &7(&e" + rowsPerSecond(rows, startTime) + "&7 rows/s, &e" +
+                file.length() / 1024 + "&7 KiB)");
+        sender.sendMessage("§aExported " + rows + " records to " + file.getName() + " in " + seconds + "s");
+    }
+
+    /**
+     * Adds the rows of an export file to history. The format is detected
+     * from the file contents. Rows committed before a failure stay imported.
+     */
+    public void importFile(String name, CommandSender sender) {
+        File file = resolve(name);
+        if (file == null) {
+            sender.sendMessage("§cNo export named " + name + " in " + directory.getName() + "/");
+            return;
+        }
+        if (databaseManager.isMigrationPending()) {
+            // Legacy rows keep their ids when they move, so an import must not take those ids first
+            sender.sendMessage("§cHistory is still being migrated; import once the migration has finished");
+            return;
+        }
+        if (!running.compareAndSet(false, true)) {
+            sender.sendMessage("§cAn export or import is already running");
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        long rows = 0;
+        long added = 0;
+        int chunks = 0;
+        String failure = null;
+
+        sender.sendMessage("§6Importing balance history from §e" + file.getName());
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             BufferedInputStream in = new BufferedInputStream(
+                     new GZIPInputStream(Channels.newInputStream(channel), 1 << 16), 1 << 16)) {
+
+            RowReader reader = openReader(in);
+            RateLimiter limiter = maxRowsPerSecond > 0 ? new RateLimiter(maxRowsPerSecond) : null;
+            List<Long> ids = new ArrayList<>(chunkSize);
+            List<PlayerBalance> chunk = new ArrayList<>(chunkSize);
+
+            while (!stopped) {
+                ids.clear();
+                chunk.clear();
+                reader.read(ids, chunk, chunkSize);
+                if (chunk.isEmpty()) break;
+                if (limiter != null) {
+                    limiter.acquire(chunk.size());
+                }
+
+                added += databaseManager.importHistory(ids, chunk);
+                rows += chunk.size();
+                chunks++;
+
+                if (chunks % PROGRESS_EVERY_CHUNKS == 0) {
+                    logStyled("&6■ Import progress: &e" + rows + "&6 records written " +
+                            "(&e" + rowsPerSecond(rows, startTime) + "&6 rows/s)");
+                }
+                if (chunkDelayMillis > 0) {
+                    Thread.sleep(chunkDelayMillis);
+                }
+            }
+            if (stopped && failure == null) {
+                failure = "the plugin was stopped";
+            }
+        } catch (SQLException | IOException e) {
+            failure = e.getMessage();
+            logger.log(Level.WARNING, "History import failed", e);
+        } catch (InterruptedException e) {
+            failure = "interrupted";
+            Thread.currentThread().interrupt();
+        } finally {
+            running.set(false);
+        }
+
+        if (failure != null) {
+            logStyled("&c✘ History import from &e" + file.getName() + "&c stopped after &e" + rows +
+                    "&c records (&e" + added + "&c added): " + failure);
+            sender.sendMessage("§cImport stopped after " + rows + " records (" + added + " added): " + failure);
+            return;
+        }
+        long seconds = (System.currentTimeMillis() - startTime) / 1000;
+        logStyled("&6■ Imported &e" + rows + "&6 records from &e" + file.getName() + "&6 in &e" + chunks +
+                "&6 chunks, &a" + seconds + "s &7(&e" + rowsPerSecond(rows, startTime) + "&7 rows/s, &e" +
+                (rows - added) + "&7 already present)");
+        sender.sendMessage("§aImported " + rows + " records from " + file.getName() + " in " + seconds + "s (" +
+                added + " added, " + (rows - added) + " already present)");
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * @return the names of the files in the exports folder
+     */
+    public List<String> listFiles() {
+        String[] names = directory.list((dir, name) -> name.endsWith(".gz"));
+        if (names == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+    /**
+     * @return the file, or {@code null} unless it exists directly inside the exports folder
+     */
+    private File resolve(String name) {
+        try {
+            File file = new File(directory, name).getCanonicalFile();
+            return file.isFile() && directory.getCanonicalFile().equals(file.getParentFile()) ? file : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private RowReader openReader(BufferedInputStream in) throws IOException {
+        in.mark(Integer.BYTES);
+        DataInputStream data = new DataInputStream(in);
+        int magic;
+        try {
+            magic = data.readInt();
+        } catch (EOFException e) {
+            magic = 0;
+        }
+
+        if (magic == MAGIC) {
+            int version = data.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary export version " + version);
+            }
+            return new BinaryReader(Channels.newChannel(in), chunkSize);
+        }
+        in.reset();
+        return new CsvReader(new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII)));
+    }
+
+    private static long rowsPerSecond(long rows, long startTime) {
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        return rows * 1000 / elapsed;
+    }
+
+    private void logStyled(String message) {
+        logger.info(ChatColor.translateAlternateColorCodes('&', message));
+    }
+
+    /**
+     * Encodes one chunk of rows into a reused buffer sized for a full chunk.
+     */
+    private static final class ChunkEncoder implements BalanceStorage.HistoryRowConsumer {
+        final Format format;
+        final ByteBuffer buffer;
+        final StringBuilder line = new StringBuilder(MAX_CSV_LINE_BYTES);
+        long lastId;
+
+        ChunkEncoder(Format format, int chunkSize) {
+            this.format = format;
+            // One extra line of room for the file header
+            this.buffer = ByteBuffer.allocate(MAX_CSV_LINE_BYTES +
+                    chunkSize * (format == Format.BINARY ? RECORD_BYTES : MAX_CSV_LINE_BYTES));
+        }
+
+        @Override
+        public void accept(long id, UUID uuid, long timestamp, double balance) {
+            lastId = id;
+            if (format == Format.BINARY) {
+                buffer.putLong(id)
+                        .putLong(uuid.getMostSignificantBits())
+                        .putLong(uuid.getLeastSignificantBits())
+                        .putLong(timestamp)
+                        .putDouble(balance);
+                return;
+            }
+            line.setLength(0);
+            line.append(id).append(',').append(uuid).append(',').append(timestamp).append(',').append(balance);
+            putLine(line);
+        }
+
+        void putLine(CharSequence text) {
+            for (int i = 0; i < text.length(); i++) {
+                buffer.put((byte) text.charAt(i));
+            }
+            buffer.put((byte) '\n');
+        }
+
+        void writeTo(WritableByteChannel out) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    private interface RowReader {
+        /**
+         * Adds up to {@code limit} rows to {@code chunk} and their exported ids
+         * to {@code ids}; adds none at the end of the file.
+         */
+        void read(List<Long> ids, List<PlayerBalance> chunk, int limit) throws IOException;
+    }
+
+    private static final class CsvReader implements RowReader {
+        private final BufferedReader reader;
+        private long lineNumber;
+
+        CsvReader(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public void read(List<Long> ids, List<PlayerBalance> chunk, int limit) throws IOException {
+            String line;
+            while (chunk.size() < limit && (line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty() || (lineNumber == 1 && line.equals(CSV_HEADER))) continue;
+
+                String[] fields = line.split(",", -1);
+                try {
+                    if (fields.length != 4) {
+                        throw new IllegalArgumentException("expected 4 columns");
+                    }
+                    PlayerBalance row = new PlayerBalance(UUID.fromString(fields[1]), Double.parseDouble(fields[3]),
+                            null, Long.parseLong(fields[2]));
+                    ids.add(Long.parseLong(fields[0]));
+                    chunk.add(row);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Malformed row at line " + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private static final class BinaryReader implements RowReader {
+        private final ReadableByteChannel in;
+        private final ByteBuffer buffer;
+        private boolean eof;
+
+        BinaryReader(ReadableByteChannel in, int chunkSize) {
+            this.in = in;
+            this.buffer = ByteBuffer.allocate(chunkSize * RECORD_BYTES);
+            this.buffer.flip();
+        }
+
+        @Override
+        public void read(List<Long> ids, List<PlayerBalance> chunk, int limit) throws IOException {
+            while (chunk.size() < limit) {
+                if (buffer.remaining() < RECORD_BYTES) {
+                    if (eof) {
+                        if (buffer.hasRemaining()) {
+                            throw new IOException("Truncated record at the end of the file");
+                        }
+                        return;
+                    }
+                    fill();
+                    continue;
+                }
+                ids.add(buffer.getLong());
+                UUID uuid = new UUID(buffer.getLong(), buffer.getLong());
+                long timestamp = buffer.getLong();
+                chunk.add(new PlayerBalance(uuid, buffer.getDouble(), null, timestamp));
+            }
+        }
+
+        private void fill() throws IOException {
+            buffer.compact();
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer) < 0) {
+                    eof = true;
+                    break;
+                }
+            }
+            buffer.flip();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package org.givinghawk.balanceTracker;
+
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Concurrent map from player UUID to last recorded balance, stored in
+ * primitive open-addressing arrays. Each UUID is kept as its two longs and
+ * each balance as a plain double, so a slot costs 25 bytes of array space
+ * instead of a map node, a UUID object and a boxed Double. Tables are kept
+ * between 35% and 70% full, which puts an entry at 36 to 71 bytes;
+ * {@code LastBalanceIndexFootprintBenchmark} measures the real figure.
+ * <p>
+ * The table is split into lock stripes. Writers take the stripe's write
+ * lock, and readers use an optimistic read that falls back to a read lock
+ * when it races with a writer. Missing entries are reported as {@code NaN}.
+ */
+public class LastBalanceIndex {
+    private static final int STRIPES = 64;
+    private static final float LOAD_FACTOR = 0.7f;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public LastBalanceIndex() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(16);
+        }
+    }
+
+    public double get(UUID uuid) {
+        return get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    public double get(long msb, long lsb) {
+        long hash = mix(msb, lsb);
+        return stripes[stripeOf(hash)].get(msb, lsb, hash);
+    }
+
+    public boolean contains(UUID uuid) {
+        return !Double.isNaN(get(uuid));
+    }
+
+    public void put(UUID uuid, double balance) {
+        put(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), balance);
+    }
+
+    public void put(long msb, long lsb, double balance) {
+        long hash = mix(msb, lsb);
+        stripes[stripeOf(hash)].put(msb, lsb, hash, balance, -1);
+    }
+
+    /**
+     * Stores {@code balance} unless the player is already cached, so a
+     * background load never overwrites a balance recorded since.
+     *
+     * @return whether the balance was stored
+     */
+    public boolean putIfAbsent(UUID uuid, double balance) {
+        return putIfAbsent(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), balance);
+    }
+
+    public boolean putIfAbsent(long msb, long lsb, double balance) {
+        long hash = mix(msb, lsb);
+        return Double.isNaN(stripes[stripeOf(hash)].put(msb, lsb, hash, balance, Double.NaN));
+    }
+
+    /**
+     * Stores {@code balance} only if the player is unknown or the balance moved
+     * by more than {@code threshold}, as one atomic step.
+     *
+     * @return the previous balance, or {@code NaN} if the player was not cached
+     */
+    public double putIfChanged(UUID uuid, double balance, double threshold) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        long hash = mix(msb, lsb);
+        return stripes[stripeOf(hash)].put(msb, lsb, hash, balance, threshold);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    /**
+     * Visits every entry. Each stripe is read under its read lock, so writers
+     * to that stripe wait until it has been visited.
+     */
+    public void forEach(EntryConsumer consumer) {
+        for (Stripe stripe : stripes) {
+            stripe.forEach(consumer);
+        }
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long msb, long lsb, double balance);
+    }
+
+    private static long mix(long msb, long lsb) {
+        long h = msb ^ Long.rotateLeft(lsb, 32);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static int stripeOf(long hash) {
+        return (int) (hash >>> 58) & (STRIPES - 1);
+    }
+
+    private static final class Stripe {
+        private final StampedLock lock = new StampedLock();
+        private long[] msbs;
+        private long[] lsbs;
+        private double[] values;
+        private boolean[] used;
+        private int size;
+
+        Stripe(int capacity) {
+            allocate(capacity);
+        }
+
+        double get(long msb, long lsb, long hash) {
+            long stamp = lock.tryOptimisticRead();
+            double value = find(msb, lsb, hash);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    value = find(msb, lsb, hash);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return value;
+        }
+
+        /**
+         * Inserts or updates an entry. A negative threshold always overwrites
+         * and a NaN threshold never does; otherwise an existing value is only
+         * replaced when it differs by more than the threshold.
+         */
+        double put(long msb, long lsb, long hash, double balance, double threshold) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = slotOf(msbs, lsbs, used, msb, lsb, hash);
+                if (used[slot]) {
+                    double previous = values[slot];
+                    if (threshold < 0 || Math.abs(balance - previous) > threshold) {
+                        values[slot] = balance;
+                    }
+                    return previous;
+                }
+
+                msbs[slot] = msb;
+                lsbs[slot] = lsb;
+                values[slot] = balance;
+                used[slot] = true;
+                if (++size > used.length * LOAD_FACTOR) {
+                    resize();
+                }
+                return Double.NaN;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        int size() {
+            long stamp = lock.readLock();
+            try {
+                return size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        void forEach(EntryConsumer consumer) {
+            long stamp = lock.readLock();
+            try {
+                for (int i = 0; i < used.length; i++) {
+                    if (used[i]) {
+                        consumer.accept(msbs[i], lsbs[i], values[i]);
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        void clear() {
+            long stamp = lock.writeLock();
+            try {
+                allocate(16);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private double find(long msb, long lsb, long hash) {
+            // Read the fields once so a concurrent resize cannot mix old and new arrays
+            long[] msbs = this.msbs;
+            long[] lsbs = this.lsbs;
+            double[] values = this.values;
+            boolean[] used = this.used;
+            if (msbs.length != used.length || lsbs.length != used.length || values.length != used.length) {
+                return Double.NaN;
+            }
+
+            int mask = used.length - 1;
+            int slot = (int) hash & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                if (!used[slot]) {
+                    return Double.NaN;
+                }
+                if (msbs[slot] == msb && lsbs[slot] == lsb) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return Double.NaN;
+        }
+
+        private void resize() {
+            long[] oldMsbs = msbs;
+            long[] oldLsbs = lsbs;
+            double[] oldValues = values;
+            boolean[] oldUsed = used;
+            allocate(oldUsed.length * 2);
+
+            for (int i = 0; i < oldUsed.length; i++) {
+                if (!oldUsed[i]) continue;
+                long hash = mix(oldMsbs[i], oldLsbs[i]);
+                int slot = slotOf(msbs, lsbs, used, oldMsbs[i], oldLsbs[i], hash);
+                msbs[slot] = oldMsbs[i];
+                lsbs[slot] = oldLsbs[i];
+                values[slot] = oldValues[i];
+                used[slot] = true;
+                size++;
+            }
+        }
+
+        private void allocate(int capacity) {
+            msbs = new long[capacity];
+            lsbs = new long[capacity];
+            values = new double[capacity];
+            used = new boolean[capacity];
+            size = 0;
+        }
+
+        private static int slotOf(long[] msbs, long[] lsbs, boolean[] used, long msb, long lsb, long hash) {
+            int mask = used.length - 1;
+            int slot = (int) hash & mask;
+            while (used[slot] && (msbs[slot] != msb || lsbs[slot] != lsb)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+}
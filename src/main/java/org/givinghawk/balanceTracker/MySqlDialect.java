@@ -0,0 +1,173 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class MySqlDialect implements SqlDialect {
+    // Clustered on (player_uuid, timestamp) so a player's history is stored in the order it is read.
+    // idx_history_id: InnoDB needs the auto-increment id to lead an index, export pages through it and
+    // import skips rows whose id is already present, so it is unique.
+    // idx_history_time: purge deletes oldest-first, compaction scans one window and MIN(timestamp) finds
+    // the oldest row through it; without it each of those walks the whole clustered index.
+    private static final String CREATE_HISTORY_TABLE = "CREATE TABLE IF NOT EXISTS balance_history (" +
+            "id BIGINT NOT NULL AUTO_INCREMENT," +
+            "player_uuid BINARY(16) NOT NULL," +
+            "timestamp BIGINT NOT NULL," +
+            "balance DOUBLE NOT NULL," +
+            "PRIMARY KEY (player_uuid, timestamp, id)," +
+            "UNIQUE INDEX idx_history_id (id)," +
+            "INDEX idx_history_time (timestamp))";
+
+    private static final String CREATE_LAST_BALANCE_TABLE = "CREATE TABLE IF NOT EXISTS last_balances (" +
+            "player_uuid BINARY(16) PRIMARY KEY," +
+            "balance DOUBLE NOT NULL)";
+
+    private static final String CREATE_PLAYER_NAME_TABLE = "CREATE TABLE IF NOT EXISTS player_names (" +
+            "player_uuid BINARY(16) PRIMARY KEY," +
+            "name VARCHAR(16) NOT NULL," +
+            "name_lower VARCHAR(16) NOT NULL," +
+            "INDEX idx_name_lower (name_lower))";
+
+    private static final String CREATE_ROLLUP_TABLE = "CREATE TABLE IF NOT EXISTS balance_rollups (" +
+            "player_uuid BINARY(16) NOT NULL," +
+            "bucket_start BIGINT NOT NULL," +
+            "resolution BIGINT NOT NULL," +
+            "open_balance DOUBLE NOT NULL," +
+            "close_balance DOUBLE NOT NULL," +
+            "min_balance DOUBLE NOT NULL," +
+            "max_balance DOUBLE NOT NULL," +
+            "samples INT NOT NULL," +
+            "first_sample BIGINT NOT NULL DEFAULT 0," +
+            "last_sample BIGINT NOT NULL DEFAULT 0," +
+            "PRIMARY KEY (player_uuid, bucket_start, resolution)," +
+            "INDEX idx_rollup_bucket (resolution, bucket_start))";
+
+    private static final String CREATE_STATE_TABLE = "CREATE TABLE IF NOT EXISTS balancetracker_state (" +
+            "state_key VARCHAR(64) PRIMARY KEY," +
+            "state_value BIGINT NOT NULL)";
+
+    private static final String CREATE_SUPPLY_TABLE = "CREATE TABLE IF NOT EXISTS economy_supply (" +
+            "hour_start BIGINT PRIMARY KEY," +
+            "supply DOUBLE NOT NULL," +
+            "players INT NOT NULL," +
+            "gained DOUBLE NOT NULL," +
+            "lost DOUBLE NOT NULL)";
+
+    private static final String CREATE_CLUSTER_NODE_TABLE = "CREATE TABLE IF NOT EXISTS cluster_nodes (" +
+            "node_id VARCHAR(64) PRIMARY KEY," +
+            "heartbeat BIGINT NOT NULL)";
+
+    private static final String CREATE_CLUSTER_PARTITION_TABLE = "CREATE TABLE IF NOT EXISTS cluster_partitions (" +
+            "partition_id INT PRIMARY KEY," +
+            "node_id VARCHAR(64) NULL," +
+            "lease_expires BIGINT NOT NULL DEFAULT 0)";
+
+    // Players whose balance changed on a server that does not own them, waiting for the owner to check them
+    private static final String CREATE_CLUSTER_DIRTY_TABLE = "CREATE TABLE IF NOT EXISTS cluster_dirty_players (" +
+            "player_uuid BINARY(16) PRIMARY KEY," +
+            "marked_at BIGINT NOT NULL)";
+
+    private final String jdbcUrl;
+    private final String username;
+    private final String password;
+
+    public MySqlDialect(FileConfiguration config) {
+        String host = config.getString("mysql.host", "localhost");
+        int port = config.getInt("mysql.port", 3306);
+        String database = config.getString("mysql.database", "minecraft");
+        // useCursorFetch makes setFetchSize stream large result sets instead of buffering them
+        this.jdbcUrl = "jdbc:mysql://" + host + ":" + port + "/" + database +
+                "?useSSL=false&autoReconnect=true&failOverReadOnly=false&useServerPrepStmts=true&useCursorFetch=true";
+        this.username = config.getString("mysql.username", "user");
+        this.password = config.getString("mysql.password", "pass");
+    }
+
+    @Override
+    public String getName() {
+        return "MySQL";
+    }
+
+    @Override
+    public String getJdbcUrl() {
+        return jdbcUrl;
+    }
+
+    @Override
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public String getPassword() {
+        return password;
+    }
+
+    @Override
+    public List<String> getSchema() {
+        return Arrays.asList(CREATE_HISTORY_TABLE, CREATE_LAST_BALANCE_TABLE, CREATE_PLAYER_NAME_TABLE,
+                CREATE_STATE_TABLE, CREATE_ROLLUP_TABLE, CREATE_SUPPLY_TABLE, CREATE_CLUSTER_NODE_TABLE,
+                CREATE_CLUSTER_PARTITION_TABLE, CREATE_CLUSTER_DIRTY_TABLE);
+    }
+
+    @Override
+    public List<String> getSchemaUpgrades(Connection connection) throws SQLException {
+        // Tables created before imports kept their ids carry a plain index on id
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT non_unique FROM information_schema.statistics " +
+                     "WHERE table_schema = DATABASE() AND table_name = 'balance_history' " +
+                     "AND index_name = 'idx_history_id'")) {
+            if (rs.next() && rs.getInt(1) != 0) {
+                return Collections.singletonList("ALTER TABLE balance_history DROP INDEX idx_history_id, " +
+                        "ADD UNIQUE INDEX idx_history_id (id)");
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public String upsert(String keyColumns, String... assignments) {
+        return " ON DUPLICATE KEY UPDATE " + String.join(", ", assignments);
+    }
+
+    @Override
+    public String excluded(String column) {
+        return "VALUES(" + column + ")";
+    }
+
+    @Override
+    public String least(String a, String b) {
+        return "LEAST(" + a + ", " + b + ")";
+    }
+
+    @Override
+    public String greatest(String a, String b) {
+        return "GREATEST(" + a + ", " + b + ")";
+    }
+
+    @Override
+    public String deleteOldest(String table) {
+        return "DELETE FROM " + table + " WHERE timestamp < ? ORDER BY timestamp LIMIT ?";
+    }
+
+    @Override
+    public String insertIgnore() {
+        return "INSERT IGNORE INTO ";
+    }
+
+    @Override
+    public boolean returnsAllGeneratedKeys() {
+        return true;
+    }
+
+    @Override
+    public int getMaxWriteConnections() {
+        return Integer.MAX_VALUE;
+    }
+}
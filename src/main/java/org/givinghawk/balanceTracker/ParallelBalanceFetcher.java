@@ -0,0 +1,85 @@
+package org.givinghawk.balanceTracker;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs balance checks concurrently for economy providers whose
+ * {@code getBalance} waits on I/O. At most {@code concurrency} checks are in
+ * flight at once and, if a rate is set, they start no faster than that.
+ * {@link #submit} blocks while either limit is reached, so a sweep's time
+ * budget still bounds how much work it starts.
+ */
+public class ParallelBalanceFetcher {
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final int concurrency;
+    private final RateLimiter rateLimiter;
+
+    /**
+     * @param callsPerSecond the maximum call rate, or {@code 0} for no limit
+     * @param virtualThreads whether to run checks on virtual threads instead
+     *                       of a fixed pool of {@code concurrency} threads
+     */
+    public ParallelBalanceFetcher(int concurrency, double callsPerSecond, boolean virtualThreads) {
+        this.concurrency = Math.max(1, concurrency);
+        this.inFlight = new Semaphore(this.concurrency);
+        this.rateLimiter = callsPerSecond > 0 ? new RateLimiter(callsPerSecond) : null;
+        this.executor = virtualThreads
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("BalanceTracker-Fetch-", 0).factory())
+                : Executors.newFixedThreadPool(this.concurrency,
+                Thread.ofPlatform().name("BalanceTracker-Fetch-", 0).daemon().factory());
+    }
+
+    /**
+     * Starts a check once a slot and a rate permit are free.
+     *
+     * @return false if the caller was interrupted before the check started
+     */
+    public boolean submit(Runnable check) {
+        try {
+            if (rateLimiter != null) {
+                rateLimiter.acquire();
+            }
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    check.run();
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Waits until every submitted check has finished.
+     */
+    public void awaitIdle() {
+        try {
+            inFlight.acquire(concurrency);
+            inFlight.release(concurrency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+}
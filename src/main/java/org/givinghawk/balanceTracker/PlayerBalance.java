@@ -6,10 +6,16 @@ public class PlayerBalance {
     public final UUID uuid;
     public final double balance;
     public final String name;
+    public final long timestamp;
 
     public PlayerBalance(UUID uuid, double balance, String name) {
+        this(uuid, balance, name, System.currentTimeMillis());
+    }
+
+    public PlayerBalance(UUID uuid, double balance, String name, long timestamp) {
         this.uuid = uuid;
         this.balance = balance;
         this.name = name;
+        this.timestamp = timestamp;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,72 @@
+package org.givinghawk.balanceTracker;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Case-insensitive name to UUID lookup. Names are kept lower-cased in a
+ * sorted map, so both exact lookups and prefix completion are logarithmic
+ * instead of a scan over every offline player.
+ */
+public class PlayerNameIndex {
+    private final ConcurrentSkipListMap<String, UUID> uuidsByName = new ConcurrentSkipListMap<>();
+    private final Map<UUID, String> namesByUuid = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+
+    public UUID find(String name) {
+        return uuidsByName.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    public String getName(UUID uuid) {
+        return namesByUuid.get(uuid);
+    }
+
+    /**
+     * Records a player's current name.
+     *
+     * @return whether the name was new or changed
+     */
+    public boolean update(UUID uuid, String name) {
+        if (uuid == null || name == null) {
+            return false;
+        }
+        String previous = namesByUuid.put(uuid, name);
+        if (name.equals(previous)) {
+            return false;
+        }
+        if (previous != null) {
+            uuidsByName.remove(previous.toLowerCase(Locale.ROOT), uuid);
+        }
+        uuidsByName.put(name.toLowerCase(Locale.ROOT), uuid);
+        return true;
+    }
+
+    public List<String> complete(String prefix, int limit) {
+        String lower = prefix.toLowerCase(Locale.ROOT);
+        ConcurrentNavigableMap<String, UUID> matches = uuidsByName.subMap(lower, true, lower + Character.MAX_VALUE, false);
+
+        List<String> names = new ArrayList<>(Math.min(limit, 16));
+        for (UUID uuid : matches.values()) {
+            String name = namesByUuid.get(uuid);
+            if (name != null) {
+                names.add(name);
+                if (names.size() >= limit) break;
+            }
+        }
+        return names;
+    }
+
+    public int size() {
+        return namesByUuid.size();
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public void markLoaded() {
+        loaded = true;
+    }
+}
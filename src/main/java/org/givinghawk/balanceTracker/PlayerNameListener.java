@@ -0,0 +1,34 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+
+import java.util.Collections;
+
+/**
+ * Keeps the {@link PlayerNameIndex} and the persisted name table current
+ * as players join, including after a name change.
+ */
+public class PlayerNameListener implements Listener {
+    private final BalanceTrackerPlugin plugin;
+    private final PlayerNameIndex nameIndex;
+    private final BalanceStorage databaseManager;
+
+    public PlayerNameListener(BalanceTrackerPlugin plugin, PlayerNameIndex nameIndex, BalanceStorage databaseManager) {
+        this.plugin = plugin;
+        this.nameIndex = nameIndex;
+        this.databaseManager = databaseManager;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        Player player = event.getPlayer();
+        if (nameIndex.update(player.getUniqueId(), player.getName())) {
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () ->
+                    databaseManager.savePlayerNames(Collections.singletonMap(player.getUniqueId(), player.getName())));
+        }
+    }
+}
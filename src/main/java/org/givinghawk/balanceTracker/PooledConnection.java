@@ -0,0 +1,114 @@
+package org.givinghawk.balanceTracker;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A connection borrowed from a {@link ConnectionPool}. Closing it hands it
+ * back to the pool. Statements returned by {@link #prepare(String)} are
+ * cached on the connection and must not be closed by the caller.
+ */
+public class PooledConnection implements AutoCloseable {
+    private final ConnectionPool pool;
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statementCache;
+    volatile long lastUsed = System.currentTimeMillis();
+
+    PooledConnection(ConnectionPool pool, Connection connection, int statementCacheSize) {
+        this.pool = pool;
+        this.connection = connection;
+        this.statementCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= statementCacheSize) {
+                    return false;
+                }
+                try {
+                    eldest.getValue().close();
+                } catch (SQLException ignored) {
+                    // The statement is being dropped from the cache either way
+                }
+                return true;
+            }
+        };
+    }
+
+    public Connection connection() {
+        return connection;
+    }
+
+    public PreparedStatement prepare(String sql) throws SQLException {
+        return prepare(sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    /**
+     * Like {@link #prepare(String)}, but the statement reports the keys it generates.
+     */
+    public PreparedStatement prepareReturningKeys(String sql) throws SQLException {
+        return prepare(sql, Statement.RETURN_GENERATED_KEYS);
+    }
+
+    private PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "keys:" + sql : sql;
+        PreparedStatement stmt = statementCache.get(key);
+        if (stmt == null || stmt.isClosed()) {
+            stmt = connection.prepareStatement(sql, autoGeneratedKeys);
+            statementCache.put(key, stmt);
+        } else {
+            stmt.clearParameters();
+        }
+        return stmt;
+    }
+
+    @Override
+    public void close() {
+        pool.release(this);
+    }
+
+    boolean isValid() {
+        try {
+            return connection.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the connection to its default state before it goes back to the
+     * pool: any open transaction is rolled back and autocommit is restored.
+     */
+    boolean reset() {
+        try {
+            if (connection.isClosed()) {
+                return false;
+            }
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    void closeQuietly() {
+        for (PreparedStatement stmt : statementCache.values()) {
+            try {
+                stmt.close();
+            } catch (SQLException ignored) {
+                // Closing the connection releases it anyway
+            }
+        }
+        statementCache.clear();
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+            // Nothing left to clean up
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.ChatColor;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Deletes expired history in chunks of the oldest rows by timestamp. Each
+ * chunk is a short transaction and only ever removes rows past the cutoff,
+ * so a purge cut short by a restart simply carries on with whatever is left.
+ * Chunks are separated by a pause and never overlap a sweep's write batch.
+ */
+public class PurgeEngine {
+    private static final int PROGRESS_EVERY_CHUNKS = 20;
+
+    private final BalanceTrackerPlugin plugin;
+    private final BalanceStorage databaseManager;
+    private final int retentionDays;
+    private final int chunkSize;
+    private final long chunkDelayMillis;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean stopped;
+
+    private volatile long lastRunDeleted;
+    private volatile long lastRunMillis;
+
+    public PurgeEngine(BalanceTrackerPlugin plugin, BalanceStorage databaseManager, int retentionDays,
+                       int chunkSize, long chunkDelayMillis) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+        this.retentionDays = retentionDays;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.chunkDelayMillis = chunkDelayMillis;
+    }
+
+    public void run() {
+        if (!running.compareAndSet(false, true)) {
+            logStyled("&6■ Purge already running, skipping");
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        long cutoff = startTime - retentionDays * 24L * 60 * 60 * 1000;
+        long deleted = 0;
+        int chunks = 0;
+
+        try {
+            logStyled("&6■ Starting purge of records older than &e" + retentionDays + "&6 days");
+
+            while (!stopped) {
+                int chunkDeleted = databaseManager.purgeChunk(cutoff, chunkSize);
+                deleted += chunkDeleted;
+                chunks++;
+                if (chunkDeleted < chunkSize) {
+                    break;
+                }
+
+                if (chunks % PROGRESS_EVERY_CHUNKS == 0) {
+                    logStyled("&6■ Purge progress: &e" + deleted + "&6 records deleted " +
+                            "(&e" + rowsPerSecond(deleted, startTime) + "&6 rows/s)");
+                }
+                if (chunkDelayMillis > 0) {
+                    Thread.sleep(chunkDelayMillis);
+                }
+            }
+
+            lastRunDeleted = deleted;
+            lastRunMillis = System.currentTimeMillis() - startTime;
+            logStyled("&6■ Purged &e" + deleted + "&6 old records in &e" + chunks + "&6 chunks, &a" +
+                    lastRunMillis + "ms &7(&e" + rowsPerSecond(deleted, startTime) + "&7 rows/s)" +
+                    (stopped ? " &c- stopped early, will resume" : ""));
+        } catch (SQLException e) {
+            logStyled("&c✘ Failed to purge old records after &e" + deleted + "&c deletions");
+            plugin.getLogger().log(Level.SEVERE, "Purge operation failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running.set(false);
+        }
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    public int getRetentionDays() {
+        return retentionDays;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public long getLastRunDeleted() {
+        return lastRunDeleted;
+    }
+
+    public long getLastRunMillis() {
+        return lastRunMillis;
+    }
+
+    private static long rowsPerSecond(long rows, long startTime) {
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        return rows * 1000 / elapsed;
+    }
+
+    private void logStyled(String message) {
+        plugin.getLogger().info(ChatColor.translateAlternateColorCodes('&', message));
+    }
+}
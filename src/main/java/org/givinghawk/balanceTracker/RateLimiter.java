@@ -0,0 +1,52 @@
+package org.givinghawk.balanceTracker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket that allows {@code permitsPerSecond} calls per second on
+ * average, with bursts of up to one second's worth of permits.
+ */
+public class RateLimiter {
+    private final double permitsPerNano;
+    private final double maxPermits;
+    private double permits;
+    private long lastRefill = System.nanoTime();
+
+    public RateLimiter(double permitsPerSecond) {
+        this.permitsPerNano = permitsPerSecond / 1_000_000_000.0;
+        this.maxPermits = Math.max(1, permitsPerSecond);
+        this.permits = maxPermits;
+    }
+
+    /**
+     * Takes one permit, sleeping until one is available.
+     */
+    public synchronized void acquire() throws InterruptedException {
+        refill();
+        while (permits < 1) {
+            TimeUnit.NANOSECONDS.sleep((long) Math.ceil((1 - permits) / permitsPerNano));
+            refill();
+        }
+        permits--;
+    }
+
+    /**
+     * Takes {@code count} permits at once, which may exceed the burst size.
+     * The bucket goes into debt and the caller sleeps until it is paid off,
+     * so large batches are spaced out at the same average rate.
+     */
+    public synchronized void acquire(int count) throws InterruptedException {
+        refill();
+        permits -= count;
+        while (permits < 0) {
+            TimeUnit.NANOSECONDS.sleep((long) Math.ceil(-permits / permitsPerNano));
+            refill();
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        permits = Math.min(maxPermits, permits + (now - lastRefill) * permitsPerNano);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,112 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.ChatColor;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+
+/**
+ * Downsamples old history instead of deleting it. Raw rows past the hourly
+ * age are compacted into hourly open/close/min/max buckets, and hourly
+ * buckets past the daily age into daily ones. Work proceeds one bucket
+ * window at a time from the oldest data, so an interrupted run simply
+ * continues from whatever is still uncompacted.
+ */
+public class RollupEngine {
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private final BalanceTrackerPlugin plugin;
+    private final BalanceStorage databaseManager;
+    private final int hourlyAfterDays;
+    private final int dailyAfterDays;
+    private final long windowDelayMillis;
+    private final BooleanSupplier leaseHeld;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean stopped;
+
+    public RollupEngine(BalanceTrackerPlugin plugin, BalanceStorage databaseManager, int hourlyAfterDays,
+                        int dailyAfterDays, long windowDelayMillis, BooleanSupplier leaseHeld) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+        this.hourlyAfterDays = hourlyAfterDays;
+        this.dailyAfterDays = Math.max(dailyAfterDays, hourlyAfterDays);
+        this.windowDelayMillis = windowDelayMillis;
+        this.leaseHeld = leaseHeld;
+    }
+
+    public void run() {
+        if (!running.compareAndSet(false, true)) {
+            logStyled("&6■ Rollup already running, skipping");
+            return;
+        }
+
+        try {
+            if (databaseManager.isMigrationPending()) {
+                // Legacy rows still arriving in old windows would be compacted twice
+                logStyled("&6■ Schema migration still running, skipping rollup");
+                return;
+            }
+            compact(RollupRecord.HOURLY, hourlyAfterDays, "hourly");
+            compact(RollupRecord.DAILY, dailyAfterDays, "daily");
+        } catch (SQLException e) {
+            logStyled("&c✘ Failed to roll up old records");
+            plugin.getLogger().log(Level.SEVERE, "Rollup operation failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Cached pages may still hold rows that were just compacted
+            databaseManager.getHistoryCache().clear();
+            running.set(false);
+        }
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    private void compact(long resolution, int afterDays, String label) throws SQLException, InterruptedException {
+        long startTime = System.currentTimeMillis();
+        long target = floor(startTime - afterDays * DAY_MILLIS, resolution);
+        long previous = Long.MIN_VALUE;
+        int windows = 0;
+        long buckets = 0;
+
+        // Two nodes compacting the same window would count its rows twice
+        while (!stopped && leaseHeld.getAsBoolean()) {
+            long oldest = databaseManager.findOldestTimestamp(resolution);
+            if (oldest < 0 || oldest >= target) {
+                break;
+            }
+
+            long windowStart = floor(oldest, resolution);
+            if (windowStart <= previous) {
+                // Nothing was removed last time; stop rather than spin
+                logStyled("&c⚠ " + label + " rollup made no progress at &e" + windowStart + "&c, stopping");
+                break;
+            }
+            previous = windowStart;
+
+            buckets += databaseManager.compactWindow(windowStart, resolution);
+            windows++;
+            if (windowDelayMillis > 0) {
+                Thread.sleep(windowDelayMillis);
+            }
+        }
+
+        if (windows > 0 || plugin.debugMode) {
+            logStyled("&6■ Rolled up &e" + windows + "&6 " + label + " windows into &e" + buckets +
+                    "&6 buckets in &a" + (System.currentTimeMillis() - startTime) + "ms" +
+                    (stopped ? " &c- stopped early, will resume" : ""));
+        }
+    }
+
+    private static long floor(long timestamp, long resolution) {
+        return Math.floorDiv(timestamp, resolution) * resolution;
+    }
+
+    private void logStyled(String message) {
+        plugin.getLogger().info(ChatColor.translateAlternateColorCodes('&', message));
+    }
+}
@@ -0,0 +1,66 @@
+package org.givinghawk.balanceTracker;
+
+/**
+ * A compacted stretch of history: the open, close, minimum and maximum
+ * balance a player had during one hourly or daily bucket. The inherited
+ * timestamp is the bucket start and the inherited balance is the close.
+ * The first and last sample times say which rows the open and close came
+ * from, so a bucket compacted twice can be merged in time order.
+ */
+public class RollupRecord extends BalanceRecord {
+    public static final long HOURLY = 60L * 60 * 1000;
+    public static final long DAILY = 24 * HOURLY;
+
+    private final long resolution;
+    private final double open;
+    private final double min;
+    private final double max;
+    private final int samples;
+    private final long firstSample;
+    private final long lastSample;
+
+    public RollupRecord(long bucketStart, long resolution, double open, double close, double min, double max,
+                        int samples) {
+        this(bucketStart, resolution, open, close, min, max, samples, bucketStart, bucketStart);
+    }
+
+    public RollupRecord(long bucketStart, long resolution, double open, double close, double min, double max,
+                        int samples, long firstSample, long lastSample) {
+        super(0, bucketStart, close);
+        this.resolution = resolution;
+        this.open = open;
+        this.min = min;
+        this.max = max;
+        this.samples = samples;
+        this.firstSample = firstSample;
+        this.lastSample = lastSample;
+    }
+
+    public long getResolution() {
+        return resolution;
+    }
+
+    public double getOpen() {
+        return open;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    public long getFirstSample() {
+        return firstSample;
+    }
+
+    public long getLastSample() {
+        return lastSample;
+    }
+}
@@ -0,0 +1,146 @@
+package org.givinghawk.balanceTracker;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Embedded single-file backend for servers that do not need a shared MySQL
+ * server. SQLite allows one writer at a time, so the write pool is capped at
+ * a single connection, and WAL mode lets history reads run beside it.
+ */
+public class SQLiteDialect implements SqlDialect {
+    private final String jdbcUrl;
+
+    public SQLiteDialect(File file) {
+        file.getParentFile().mkdirs();
+        this.jdbcUrl = "jdbc:sqlite:" + file.getAbsolutePath();
+    }
+
+    @Override
+    public String getName() {
+        return "SQLite";
+    }
+
+    @Override
+    public String getJdbcUrl() {
+        return jdbcUrl;
+    }
+
+    @Override
+    public String getUsername() {
+        return null;
+    }
+
+    @Override
+    public String getPassword() {
+        return null;
+    }
+
+    @Override
+    public List<String> getSchema() {
+        return Arrays.asList(
+                "CREATE TABLE IF NOT EXISTS balance_history (" +
+                        "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                        "player_uuid BLOB NOT NULL," +
+                        "timestamp BIGINT NOT NULL," +
+                        "balance DOUBLE NOT NULL)",
+                // The rowid is implicitly the last column, so this covers the (timestamp, id) keyset order
+                "CREATE INDEX IF NOT EXISTS idx_history_player_time ON balance_history (player_uuid, timestamp)",
+                "CREATE INDEX IF NOT EXISTS idx_history_time ON balance_history (timestamp)",
+                "CREATE TABLE IF NOT EXISTS last_balances (" +
+                        "player_uuid BLOB PRIMARY KEY," +
+                        "balance DOUBLE NOT NULL)",
+                "CREATE TABLE IF NOT EXISTS player_names (" +
+                        "player_uuid BLOB PRIMARY KEY," +
+                        "name VARCHAR(16) NOT NULL," +
+                        "name_lower VARCHAR(16) NOT NULL)",
+                "CREATE INDEX IF NOT EXISTS idx_name_lower ON player_names (name_lower)",
+                "CREATE TABLE IF NOT EXISTS balancetracker_state (" +
+                        "state_key VARCHAR(64) PRIMARY KEY," +
+                        "state_value BIGINT NOT NULL)",
+                "CREATE TABLE IF NOT EXISTS balance_rollups (" +
+                        "player_uuid BLOB NOT NULL," +
+                        "bucket_start BIGINT NOT NULL," +
+                        "resolution BIGINT NOT NULL," +
+                        "open_balance DOUBLE NOT NULL," +
+                        "close_balance DOUBLE NOT NULL," +
+                        "min_balance DOUBLE NOT NULL," +
+                        "max_balance DOUBLE NOT NULL," +
+                        "samples INT NOT NULL," +
+                        "first_sample BIGINT NOT NULL DEFAULT 0," +
+                        "last_sample BIGINT NOT NULL DEFAULT 0," +
+                        "PRIMARY KEY (player_uuid, bucket_start, resolution))",
+                "CREATE INDEX IF NOT EXISTS idx_rollup_bucket ON balance_rollups (resolution, bucket_start)",
+                "CREATE TABLE IF NOT EXISTS economy_supply (" +
+                        "hour_start BIGINT PRIMARY KEY," +
+                        "supply DOUBLE NOT NULL," +
+                        "players INT NOT NULL," +
+                        "gained DOUBLE NOT NULL," +
+                        "lost DOUBLE NOT NULL)",
+                "CREATE TABLE IF NOT EXISTS cluster_nodes (" +
+                        "node_id VARCHAR(64) PRIMARY KEY," +
+                        "heartbeat BIGINT NOT NULL)",
+                "CREATE TABLE IF NOT EXISTS cluster_partitions (" +
+                        "partition_id INT PRIMARY KEY," +
+                        "node_id VARCHAR(64) NULL," +
+                        "lease_expires BIGINT NOT NULL DEFAULT 0)",
+                "CREATE TABLE IF NOT EXISTS cluster_dirty_players (" +
+                        "player_uuid BLOB PRIMARY KEY," +
+                        "marked_at BIGINT NOT NULL)");
+    }
+
+    @Override
+    public String upsert(String keyColumns, String... assignments) {
+        return " ON CONFLICT(" + keyColumns + ") DO UPDATE SET " + String.join(", ", assignments);
+    }
+
+    @Override
+    public String excluded(String column) {
+        return "excluded." + column;
+    }
+
+    @Override
+    public String least(String a, String b) {
+        return "MIN(" + a + ", " + b + ")";
+    }
+
+    @Override
+    public String greatest(String a, String b) {
+        return "MAX(" + a + ", " + b + ")";
+    }
+
+    @Override
+    public String deleteOldest(String table) {
+        // DELETE ... LIMIT is a compile-time option the bundled SQLite leaves out
+        return "DELETE FROM " + table + " WHERE id IN (SELECT id FROM " + table +
+                " WHERE timestamp < ? ORDER BY timestamp LIMIT ?)";
+    }
+
+    @Override
+    public String insertIgnore() {
+        return "INSERT OR IGNORE INTO ";
+    }
+
+    @Override
+    public boolean returnsAllGeneratedKeys() {
+        return false;
+    }
+
+    @Override
+    public int getMaxWriteConnections() {
+        return 1;
+    }
+
+    @Override
+    public void configureConnection(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA journal_mode=WAL");
+            stmt.execute("PRAGMA synchronous=NORMAL");
+            stmt.execute("PRAGMA busy_timeout=5000");
+        }
+    }
+}
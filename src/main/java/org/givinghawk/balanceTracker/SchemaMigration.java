@@ -0,0 +1,93 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.ChatColor;
+
+import java.sql.SQLException;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+
+/**
+ * Drains history from the old schema into the current one while the server
+ * runs. Each chunk moves rows in a single short transaction, so the
+ * migration can be stopped at any point and simply continues on the next
+ * start. Chunks are separated by a pause and never overlap a sweep's write
+ * batch. In a cluster only the maintenance lease holder moves rows; other
+ * servers wait, and take over if the lease comes to them.
+ */
+public class SchemaMigration {
+    private static final int PROGRESS_EVERY_CHUNKS = 20;
+    private static final long LEASE_POLL_MILLIS = 30_000;
+
+    private final BalanceTrackerPlugin plugin;
+    private final BalanceStorage databaseManager;
+    private final int chunkSize;
+    private final long chunkDelayMillis;
+    private final BooleanSupplier leaseHeld;
+    private volatile boolean stopped;
+
+    public SchemaMigration(BalanceTrackerPlugin plugin, BalanceStorage databaseManager, int chunkSize,
+                           long chunkDelayMillis, BooleanSupplier leaseHeld) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.chunkDelayMillis = chunkDelayMillis;
+        this.leaseHeld = leaseHeld;
+    }
+
+    public void run() {
+        long startTime = System.currentTimeMillis();
+        long moved = 0;
+        int chunks = 0;
+
+        try {
+            logStyled("&6■ Starting history migration to the compact schema");
+            boolean waiting = false;
+            while (!stopped) {
+                if (!leaseHeld.getAsBoolean()) {
+                    // Another node holds the maintenance lease and moves the rows meanwhile
+                    if (!waiting) {
+                        logStyled("&6■ History migration waits for the cluster maintenance lease");
+                        waiting = true;
+                    }
+                    Thread.sleep(LEASE_POLL_MILLIS);
+                    continue;
+                }
+                waiting = false;
+                int rows = databaseManager.migrateLegacyChunk(chunkSize);
+                if (rows == 0) break;
+                moved += rows;
+                chunks++;
+
+                if (chunks % PROGRESS_EVERY_CHUNKS == 0) {
+                    logStyled("&6■ Migration progress: &e" + moved + "&6 records moved " +
+                            "(&e" + rowsPerSecond(moved, startTime) + "&6 rows/s)");
+                }
+                if (chunkDelayMillis > 0) {
+                    Thread.sleep(chunkDelayMillis);
+                }
+            }
+
+            logStyled("&6■ Migrated &e" + moved + "&6 records in &e" + chunks + "&6 chunks, &a" +
+                    (System.currentTimeMillis() - startTime) + "ms &7(&e" + rowsPerSecond(moved, startTime) +
+                    "&7 rows/s)" + (stopped ? " &c- stopped early, will resume" : ""));
+        } catch (SQLException e) {
+            logStyled("&c✘ History migration failed after &e" + moved + "&c records, will retry on next start");
+            plugin.getLogger().log(Level.SEVERE, "Schema migration failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    private static long rowsPerSecond(long rows, long startTime) {
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        return rows * 1000 / elapsed;
+    }
+
+    private void logStyled(String message) {
+        plugin.getLogger().info(ChatColor.translateAlternateColorCodes('&', message));
+    }
+}
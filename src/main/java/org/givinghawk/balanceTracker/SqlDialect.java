@@ -0,0 +1,90 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The parts of the SQL a storage backend needs that differ between database
+ * engines: connection settings, schema DDL and upsert syntax.
+ */
+public interface SqlDialect {
+    String getName();
+
+    String getJdbcUrl();
+
+    String getUsername();
+
+    String getPassword();
+
+    /**
+     * @return the statements that create every table and index, all idempotent
+     */
+    List<String> getSchema();
+
+    /**
+     * Builds the clause appended to a multi-row {@code INSERT} that turns it
+     * into an upsert on {@code keyColumns}.
+     */
+    String upsert(String keyColumns, String... assignments);
+
+    /**
+     * @return an expression for the value the upsert tried to insert into {@code column}
+     */
+    String excluded(String column);
+
+    String least(String a, String b);
+
+    String greatest(String a, String b);
+
+    /**
+     * Builds a {@code DELETE} that removes at most {@code limit} (the second
+     * parameter) rows of {@code table} older than the first parameter,
+     * oldest first, using the table's timestamp index.
+     */
+    String deleteOldest(String table);
+
+    /**
+     * @return the start of an {@code INSERT} that skips rows whose key is
+     *         already taken instead of failing, up to the table name
+     */
+    String insertIgnore();
+
+    /**
+     * @return whether a multi-row insert reports one generated key per row;
+     *         otherwise only the last row's key is returned
+     */
+    boolean returnsAllGeneratedKeys();
+
+    /**
+     * @return the largest write pool the engine can use productively
+     */
+    int getMaxWriteConnections();
+
+    /**
+     * Applies per-connection settings right after a connection is opened.
+     */
+    default void configureConnection(Connection connection) throws SQLException {
+    }
+
+    /**
+     * Checks tables created by an older version against the current schema.
+     * Runs after {@link #getSchema()} on every start.
+     *
+     * @return the statements that bring them up to date, usually none
+     */
+    default List<String> getSchemaUpgrades(Connection connection) throws SQLException {
+        return Collections.emptyList();
+    }
+
+    static SqlDialect fromConfig(FileConfiguration config, File dataFolder) {
+        if (config.getString("storage.type", "mysql").equalsIgnoreCase("sqlite")) {
+            return new SQLiteDialect(new File(dataFolder, config.getString("sqlite.file", "balances.db")));
+        }
+        return new MySqlDialect(config);
+    }
+}
@@ -0,0 +1,45 @@
+package org.givinghawk.balanceTracker;
+
+/**
+ * The money supply at the end of one hour, with the gains and losses
+ * recorded during it. Balances of players seen for the first time count
+ * towards the supply but not towards the gains.
+ */
+public class SupplyPoint {
+    private final long hourStart;
+    private final double supply;
+    private final int players;
+    private final double gained;
+    private final double lost;
+
+    public SupplyPoint(long hourStart, double supply, int players, double gained, double lost) {
+        this.hourStart = hourStart;
+        this.supply = supply;
+        this.players = players;
+        this.gained = gained;
+        this.lost = lost;
+    }
+
+    public long getHourStart() {
+        return hourStart;
+    }
+
+    public double getSupply() {
+        return supply;
+    }
+
+    public int getPlayers() {
+        return players;
+    }
+
+    public double getGained() {
+        return gained;
+    }
+
+    /**
+     * @return the total of all decreases, as a positive amount
+     */
+    public double getLost() {
+        return lost;
+    }
+}
@@ -0,0 +1,181 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Decides which players a balance check covers. Online and recently active
+ * players are checked every run, while everyone else is split into shards
+ * that are visited round-robin, one shard per run, within a time budget.
+ * A shard that does not finish within the budget resumes on the next run.
+ * <p>
+ * The offline players come from Bukkit's player list unless another source
+ * is given, which a cluster uses to sweep the players of its partitions
+ * whichever server they played on.
+ */
+public class SweepScheduler {
+    private final int shardCount;
+    private final long tickBudgetNanos;
+    private final long recentActivityMillis;
+    private final Supplier<? extends Iterable<OfflinePlayer>> players;
+
+    // Only UUIDs are kept, so players who logged out are not pinned in memory for the whole window
+    private final Map<UUID, Long> lastSeen = new HashMap<>();
+    private final Set<UUID> recentPlayers = Collections.unmodifiableSet(lastSeen.keySet());
+    private List<List<OfflinePlayer>> shards = Collections.emptyList();
+    private int currentShard;
+    private int shardCursor;
+    private long shardNanos;
+    private int shardPlayers;
+    private volatile boolean rebuildRequested;
+
+    public SweepScheduler(int shardCount, long tickBudgetMillis, int recentActivityDays) {
+        this(shardCount, tickBudgetMillis, recentActivityDays, () -> Arrays.asList(Bukkit.getOfflinePlayers()));
+    }
+
+    /**
+     * @param players every player the sweep may check, read again at the
+     *                start of each rotation
+     */
+    public SweepScheduler(int shardCount, long tickBudgetMillis, int recentActivityDays,
+                          Supplier<? extends Iterable<OfflinePlayer>> players) {
+        this.players = players;
+        this.shardCount = Math.max(1, shardCount);
+        this.tickBudgetNanos = tickBudgetMillis * 1_000_000L;
+        this.recentActivityMillis = recentActivityDays * 24L * 60 * 60 * 1000;
+    }
+
+    /**
+     * Returns the players that are checked on every run: everyone online plus
+     * anyone seen within the recent-activity window. The set is a live view
+     * that stays valid until the next call; resolve each player with
+     * {@link Bukkit#getOfflinePlayer(UUID)} when checking it.
+     */
+    public Set<UUID> collectPriorityPlayers() {
+        long now = System.currentTimeMillis();
+        if (shards.isEmpty() || rebuildRequested) {
+            rebuildRequested = false;
+            rebuildShards(now);
+            // The current shard's list was refilled, so it starts over
+            shardCursor = 0;
+        }
+
+        // Boxed once so refreshing an online player's entry allocates nothing
+        Long seenNow = now;
+        for (OfflinePlayer player : Bukkit.getOnlinePlayers()) {
+            lastSeen.put(player.getUniqueId(), seenNow);
+        }
+
+        Iterator<Map.Entry<UUID, Long>> it = lastSeen.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<UUID, Long> entry = it.next();
+            if (now - entry.getValue() > recentActivityMillis) {
+                it.remove();
+            }
+        }
+        return recentPlayers;
+    }
+
+    /**
+     * Checks players from the current shard until it is exhausted or the time
+     * budget runs out.
+     *
+     * @return the finished shard's statistics, or {@code null} if the shard
+     *         still has players left for the next run
+     */
+    public ShardResult sweepShard(Consumer<OfflinePlayer> checker) {
+        List<OfflinePlayer> shard = shards.get(currentShard);
+        long startTime = System.nanoTime();
+        long deadline = startTime + tickBudgetNanos;
+        int checked = 0;
+
+        while (shardCursor < shard.size()) {
+            checker.accept(shard.get(shardCursor++));
+            checked++;
+            if (System.nanoTime() - deadline > 0) {
+                break;
+            }
+        }
+
+        shardNanos += System.nanoTime() - startTime;
+        shardPlayers += checked;
+        if (shardCursor < shard.size()) {
+            return null;
+        }
+
+        ShardResult result = new ShardResult(currentShard, shardCount, shardPlayers, shardNanos);
+        shardCursor = 0;
+        shardNanos = 0;
+        shardPlayers = 0;
+        currentShard++;
+        if (currentShard >= shardCount) {
+            // Pick up newly registered players once every full rotation
+            currentShard = 0;
+            rebuildShards(System.currentTimeMillis());
+        }
+        return result;
+    }
+
+    /**
+     * Reads the player source again before the next run instead of waiting
+     * for the rotation to finish. Safe to call from any thread.
+     */
+    public void requestRebuild() {
+        rebuildRequested = true;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    private void rebuildShards(long now) {
+        // Shard lists are refilled in place so their backing arrays are reused every rotation
+        if (shards.isEmpty()) {
+            shards = new ArrayList<>(shardCount);
+            for (int i = 0; i < shardCount; i++) {
+                shards.add(new ArrayList<>());
+            }
+        }
+        for (List<OfflinePlayer> shard : shards) {
+            shard.clear();
+        }
+
+        for (OfflinePlayer player : players.get()) {
+            UUID uuid = player.getUniqueId();
+            if (uuid == null) continue;
+
+            long lastPlayed = player.getLastPlayed();
+            if (player.isOnline() || now - lastPlayed <= recentActivityMillis) {
+                lastSeen.merge(uuid, player.isOnline() ? now : lastPlayed, Math::max);
+            } else {
+                shards.get(Math.floorMod(uuid.hashCode(), shardCount)).add(player);
+            }
+        }
+    }
+
+    public static class ShardResult {
+        public final int shard;
+        public final int shardCount;
+        public final int players;
+        public final long nanos;
+
+        ShardResult(int shard, int shardCount, int players, long nanos) {
+            this.shard = shard;
+            this.shardCount = shardCount;
+            this.players = players;
+            this.nanos = nanos;
+        }
+
+        public long getMillis() {
+            return nanos / 1_000_000;
+        }
+
+        public long getPlayersPerSecond() {
+            return nanos > 0 ? players * 1_000_000_000L / nanos : players;
+        }
+    }
+}
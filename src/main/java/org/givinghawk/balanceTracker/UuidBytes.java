@@ -0,0 +1,39 @@
+package org.givinghawk.balanceTracker;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Converts UUIDs to and from the 16-byte form stored in binary key columns.
+ */
+public final class UuidBytes {
+    private UuidBytes() {
+    }
+
+    public static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
+    /**
+     * Encodes into an existing 16-byte array instead of allocating one.
+     *
+     * @return {@code target}
+     */
+    public static byte[] write(UUID uuid, byte[] target) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        for (int i = 0; i < 8; i++) {
+            target[i] = (byte) (msb >>> (56 - 8 * i));
+            target[8 + i] = (byte) (lsb >>> (56 - 8 * i));
+        }
+        return target;
+    }
+
+    public static UUID fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+}
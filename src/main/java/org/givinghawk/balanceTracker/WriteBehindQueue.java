@@ -0,0 +1,396 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.ChatColor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decouples balance checks from the database. Changes are appended to a
+ * local journal file and put on a bounded queue, and a dedicated writer
+ * thread drains the queue into {@link BalanceStorage#recordBalances} in
+ * batches. The journal header holds the offset up to which entries are
+ * known to be in the database; anything past it is replayed on startup.
+ * <p>
+ * When the queue is full, {@link #enqueue} blocks, which slows the sweep
+ * down to the rate the database can absorb instead of dropping changes.
+ * <p>
+ * If the journal cannot be written, the changes still go through the queue
+ * but are no longer journaled until everything journaled so far is in the
+ * database and the file can be started over.
+ */
+public class WriteBehindQueue {
+    private static final int HEADER_BYTES = Long.BYTES;
+    private static final int ENTRY_BYTES = 4 * Long.BYTES;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30_000;
+
+    private final Logger logger;
+    private final boolean debugMode;
+    private final BalanceStorage databaseManager;
+    private final File journalFile;
+    private final int batchSize;
+    private final BlockingQueue<PlayerBalance> queue;
+    // Keeps journal order and queue order identical
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    // Reused for every append under appendLock; grows to the largest batch seen
+    private ByteBuffer appendBuffer = ByteBuffer.allocate(ENTRY_BYTES * 256);
+
+    private FileChannel journal;
+    private Thread writer;
+    private volatile boolean stopped;
+    private volatile long checkpoint = HEADER_BYTES;
+    // End of the last complete append; the checkpoint never moves past it
+    private volatile long journalEnd = HEADER_BYTES;
+    private volatile boolean journaling = true;
+    private volatile PlayerBalance inFlightHead;
+
+    public WriteBehindQueue(Logger logger, boolean debugMode, BalanceStorage databaseManager, File journalFile,
+                            int capacity, int batchSize) {
+        this.logger = logger;
+        this.debugMode = debugMode;
+        this.databaseManager = databaseManager;
+        this.journalFile = journalFile;
+        this.batchSize = Math.max(1, batchSize);
+        this.queue = new ArrayBlockingQueue<>(Math.max(this.batchSize, capacity));
+    }
+
+    /**
+     * Opens the journal and starts the writer thread. Before it serves the
+     * queue, the writer replays any entries that were not flushed before the
+     * last shutdown, so the database sees changes in journal order.
+     *
+     * @return the number of entries waiting to be replayed
+     */
+    public long start() throws IOException {
+        journalFile.getParentFile().mkdirs();
+        journal = openJournal(journalFile);
+
+        long size = journal.size();
+        if (size >= HEADER_BYTES) {
+            header.clear();
+            journal.read(header, 0);
+            checkpoint = Math.max(HEADER_BYTES, Math.min(header.getLong(0), size));
+        } else {
+            writeCheckpoint(HEADER_BYTES);
+        }
+        // Drop a partially written trailing entry left by a crash
+        long end = checkpoint + (size - checkpoint) / ENTRY_BYTES * ENTRY_BYTES;
+        journalEnd = Math.max(end, HEADER_BYTES);
+        journal.truncate(journalEnd);
+
+        long pending = (end - checkpoint) / ENTRY_BYTES;
+        writer = new Thread(() -> runWriter(end), "BalanceTracker-Writer");
+        writer.setDaemon(true);
+        writer.start();
+        return pending;
+    }
+
+    // Package-private so tests can substitute a channel that fails
+    FileChannel openJournal(File file) throws IOException {
+        return FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Journals the changes and hands them to the writer. Blocks while the
+     * queue is full, unless the writer has died, in which case the rest of
+     * the changes are left to the journal replay on the next start.
+     */
+    public void enqueue(List<PlayerBalance> changes) {
+        if (changes.isEmpty()) return;
+
+        appendLock.lock();
+        try {
+            if (journaling) {
+                append(changes);
+            }
+
+            for (PlayerBalance change : changes) {
+                while (!queue.offer(change, 1, TimeUnit.SECONDS)) {
+                    if (!writer.isAlive()) {
+                        logStyled("&c✘ Balance writer is not running, &e" + changes.size() +
+                                "&c changes were not queued");
+                        return;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the changes after the last complete entry. On failure the file
+     * is cut back so no torn entry is left behind, and journaling stops: the
+     * changes only live in the queue, and the checkpoint cannot count bytes
+     * that never reached the file.
+     */
+    private void append(List<PlayerBalance> changes) {
+        int bytes = changes.size() * ENTRY_BYTES;
+        if (appendBuffer.capacity() < bytes) {
+            appendBuffer = ByteBuffer.allocate(Math.max(bytes, appendBuffer.capacity() * 2));
+        }
+        ByteBuffer buffer = appendBuffer;
+        buffer.clear();
+        for (PlayerBalance change : changes) {
+            buffer.putLong(change.uuid.getMostSignificantBits());
+            buffer.putLong(change.uuid.getLeastSignificantBits());
+            buffer.putLong(change.timestamp);
+            buffer.putDouble(change.balance);
+        }
+        buffer.flip();
+
+        long start = journalEnd;
+        try {
+            long position = start;
+            while (buffer.hasRemaining()) {
+                position += journal.write(buffer, position);
+            }
+            journal.force(false);
+            journalEnd = position;
+        } catch (IOException e) {
+            journaling = false;
+            logStyled("&c⚠ Failed to journal &e" + changes.size() + "&c balance changes, continuing without " +
+                    "the journal until the writer catches up");
+            logger.log(Level.WARNING, "Journal write failed", e);
+            try {
+                journal.truncate(start);
+            } catch (IOException truncateFailed) {
+                // Whatever lies past journalEnd is wiped when the journal is started over
+                logger.log(Level.WARNING, "Failed to cut the journal back after a failed write",
+                        truncateFailed);
+            }
+        }
+    }
+
+    /**
+     * Stops the writer after giving it up to {@code timeoutMillis} to flush
+     * what is queued. Anything left stays in the journal for the next start.
+     */
+    public void stop(long timeoutMillis) {
+        stopped = true;
+        if (writer != null) {
+            try {
+                writer.join(timeoutMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writer.interrupt();
+        }
+        try {
+            if (journal != null) {
+                journal.close();
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to close balance journal", e);
+        }
+        if (!queue.isEmpty()) {
+            logStyled(journaling
+                    ? "&6■ &e" + queue.size() + "&6 balance changes left in the journal for the next start"
+                    : "&c✘ &e" + queue.size() + "&c balance changes left unwritten, those queued after the " +
+                    "journal failed are lost");
+        }
+    }
+
+    public int getDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return false while changes are only queued because the journal could not be written
+     */
+    public boolean isJournaling() {
+        return journaling;
+    }
+
+    /**
+     * @return milliseconds since the oldest change that is not yet in the database was captured
+     */
+    public long getLagMillis() {
+        PlayerBalance oldest = inFlightHead;
+        if (oldest == null) {
+            oldest = queue.peek();
+        }
+        return oldest == null ? 0 : System.currentTimeMillis() - oldest.timestamp;
+    }
+
+    private void runWriter(long replayEnd) {
+        try {
+            if (!replay(replayEnd)) {
+                if (stopped) {
+                    // Queued changes come after the unreplayed ones, so they must wait for the next start too
+                    return;
+                }
+                skipUnreplayed(replayEnd, null);
+            }
+        } catch (IOException e) {
+            skipUnreplayed(replayEnd, e);
+        }
+
+        List<PlayerBalance> batch = new ArrayList<>(batchSize);
+        while (!(stopped && queue.isEmpty())) {
+            try {
+                PlayerBalance first = queue.poll(500, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+
+                if (!flush(batch)) break;
+                advanceCheckpoint(batch.size());
+            } catch (InterruptedException e) {
+                if (stopped) break;
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to update balance journal checkpoint", e);
+            } finally {
+                batch.clear();
+                inFlightHead = null;
+            }
+        }
+    }
+
+    /**
+     * Gives up on journal entries that could not be read back, so the writer
+     * can go on to serve the queue rather than leave every sweep blocked on
+     * a full queue.
+     */
+    private void skipUnreplayed(long replayEnd, IOException cause) {
+        logStyled("&c✘ Failed to replay the balance journal, skipping &e" +
+                Math.max(0, replayEnd - checkpoint) / ENTRY_BYTES + "&c unreadable changes");
+        logger.log(Level.SEVERE, "Journal replay failed", cause);
+        inFlightHead = null;
+        try {
+            writeCheckpoint(replayEnd);
+        } catch (IOException e) {
+            // Later checkpoints still count from the end of the skipped range
+            checkpoint = replayEnd;
+            logger.log(Level.WARNING, "Failed to update balance journal checkpoint", e);
+        }
+    }
+
+    /**
+     * Writes entries that were journaled but never confirmed, straight from
+     * the file rather than through the queue.
+     *
+     * @return whether every journaled entry was written
+     */
+    private boolean replay(long end) throws IOException {
+        if (checkpoint >= end) return true;
+
+        logStyled("&a✔ Replaying &e" + (end - checkpoint) / ENTRY_BYTES + "&a unflushed balance changes from the journal");
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_BYTES * batchSize);
+        List<PlayerBalance> batch = new ArrayList<>(batchSize);
+        // Tracked separately because the checkpoint resets if the journal gets truncated
+        long position = checkpoint;
+
+        while (position < end && !stopped) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            while (buffer.hasRemaining()) {
+                if (journal.read(buffer, position + buffer.position()) < 0) break;
+            }
+            buffer.flip();
+            position += buffer.remaining();
+
+            batch.clear();
+            while (buffer.remaining() >= ENTRY_BYTES) {
+                UUID uuid = new UUID(buffer.getLong(), buffer.getLong());
+                long timestamp = buffer.getLong();
+                batch.add(new PlayerBalance(uuid, buffer.getDouble(), null, timestamp));
+            }
+            if (batch.isEmpty()) break;
+
+            try {
+                if (!flush(batch)) return false;
+            } catch (InterruptedException e) {
+                return false;
+            }
+            advanceCheckpoint(batch.size());
+        }
+        inFlightHead = null;
+        return position >= end;
+    }
+
+    /**
+     * Writes a batch, retrying with backoff until it succeeds. Nothing is
+     * dropped while the database is unreachable.
+     *
+     * @return false if the queue was stopped before the batch could be written
+     */
+    private boolean flush(List<PlayerBalance> batch) throws InterruptedException {
+        inFlightHead = batch.get(0);
+        long retryDelay = 1000;
+
+        while (true) {
+            long startTime = System.nanoTime();
+            if (databaseManager.recordBalances(batch) == batch.size()) {
+                if (debugMode) {
+                    logStyled("&7◆ Flushed &e" + batch.size() + "&7 balance changes in &a" +
+                            (System.nanoTime() - startTime) / 1_000_000 + "ms &7(queue &e" + queue.size() +
+                            "&7, lag &e" + (System.currentTimeMillis() - batch.get(0).timestamp) + "ms&7)");
+                }
+                return true;
+            }
+            if (stopped) {
+                return false;
+            }
+            Thread.sleep(retryDelay);
+            retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MILLIS);
+        }
+    }
+
+    private void advanceCheckpoint(int entries) throws IOException {
+        // Changes queued while journaling was off come after every journaled one and are not in the file
+        long next = Math.min(checkpoint + (long) entries * ENTRY_BYTES, journalEnd);
+
+        // Once everything journaled is in the database, start the file over
+        if (queue.isEmpty() && appendLock.tryLock()) {
+            try {
+                if (queue.isEmpty() && next >= journalEnd) {
+                    // Truncate first: a crash in between then leaves nothing to replay rather than duplicates
+                    journal.truncate(HEADER_BYTES);
+                    journalEnd = HEADER_BYTES;
+                    writeCheckpoint(HEADER_BYTES);
+                    if (!journaling) {
+                        journaling = true;
+                        logStyled("&a✔ Balance journal restarted");
+                    }
+                    return;
+                }
+            } finally {
+                appendLock.unlock();
+            }
+        }
+        if (next != checkpoint) {
+            writeCheckpoint(next);
+        }
+    }
+
+    private void writeCheckpoint(long offset) throws IOException {
+        header.clear();
+        header.putLong(0, offset);
+        while (header.hasRemaining()) {
+            journal.write(header, header.position());
+        }
+        journal.force(false);
+        checkpoint = offset;
+    }
+
+    private void logStyled(String message) {
+        logger.info(ChatColor.translateAlternateColorCodes('&', message));
+    }
+}
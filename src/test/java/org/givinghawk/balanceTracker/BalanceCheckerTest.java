@@ -0,0 +1,58 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.OfflinePlayer;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BalanceCheckerTest {
+    private final LastBalanceIndex lastBalances = new LastBalanceIndex();
+    private final BalanceChecker checker = new BalanceChecker(player -> 10, lastBalances, 0.01,
+            new BalanceMetrics(), Logger.getLogger("test"), false);
+
+    @Test
+    void aColdPlayerWithAStoredBalanceIsNotNew() {
+        OfflinePlayer player = player(new UUID(1, 1));
+        checker.loadOnDemand(uuid -> 10);
+
+        List<PlayerBalance> changes = new ArrayList<>();
+        checker.check(player, changes);
+        assertTrue(changes.isEmpty());
+        assertEquals(1, checker.getColdLookups());
+    }
+
+    @Test
+    void aFailedColdLookupSkipsThePlayerInsteadOfRecordingThemAsNew() {
+        OfflinePlayer player = player(new UUID(2, 2));
+        checker.loadOnDemand(uuid -> {
+            throw new SQLException("connection reset");
+        });
+
+        List<PlayerBalance> changes = new ArrayList<>();
+        checker.check(player, changes);
+        assertTrue(changes.isEmpty());
+        assertFalse(lastBalances.contains(player.getUniqueId()));
+
+        // The next round looks the player up again
+        checker.loadOnDemand(uuid -> Double.NaN);
+        checker.check(player, changes);
+        assertEquals(1, changes.size());
+        assertEquals(10, lastBalances.get(player.getUniqueId()));
+    }
+
+    private static OfflinePlayer player(UUID uuid) {
+        return (OfflinePlayer) Proxy.newProxyInstance(BalanceCheckerTest.class.getClassLoader(),
+                new Class<?>[]{OfflinePlayer.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "getUniqueId" -> uuid;
+                    case "getName" -> "player";
+                    default -> null;
+                });
+    }
+}
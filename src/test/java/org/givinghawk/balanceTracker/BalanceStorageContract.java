@@ -0,0 +1,349 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Behaviour every {@link BalanceStorage} backend must share. Subclasses
+ * supply a dialect pointing at an empty database; each test gets its own.
+ */
+abstract class BalanceStorageContract {
+    private static final long HOUR = RollupRecord.HOURLY;
+    // An hour boundary well in the past, so rows around it are both old and bucket aligned
+    private static final long BASE = 400_000 * HOUR;
+
+    protected final UUID player = new UUID(1, 1);
+    protected final UUID other = new UUID(2, 2);
+    protected SqlDialect dialect;
+    protected DatabaseManager storage;
+
+    /**
+     * @return a dialect for a database with no BalanceTracker tables in it
+     */
+    protected abstract SqlDialect emptyDatabase() throws Exception;
+
+    @BeforeEach
+    void openStorage() throws Exception {
+        dialect = emptyDatabase();
+        storage = open();
+    }
+
+    private DatabaseManager open() throws SQLException {
+        YamlConfiguration config = new YamlConfiguration();
+        // Small chunks so writes span several transactions
+        config.set("writeBatchSize", 4);
+        DatabaseManager opened = new DatabaseManager(Logger.getLogger(getClass().getSimpleName()), false,
+                new BalanceMetrics(), config, dialect);
+        opened.initializeDatabase();
+        return opened;
+    }
+
+    @AfterEach
+    void closeStorage() {
+        if (storage != null) {
+            storage.close();
+        }
+    }
+
+    @Test
+    void recordsHistoryAndLastBalances() throws Exception {
+        assertEquals(3, storage.recordBalances(List.of(
+                new PlayerBalance(player, 10, "a", BASE + 1),
+                new PlayerBalance(other, 5, "b", BASE + 1),
+                new PlayerBalance(player, 20, "a", BASE + 2))));
+
+        assertEquals(20, storage.loadLastBalance(player));
+        assertEquals(5, storage.loadLastBalance(other));
+        assertTrue(Double.isNaN(storage.loadLastBalance(new UUID(3, 3))));
+
+        LastBalanceIndex index = new LastBalanceIndex();
+        assertEquals(2, storage.loadLastBalances(index));
+        assertEquals(20, index.get(player));
+
+        HistoryPage page = storage.getBalanceHistory(player, HistoryCursor.START, 0, Long.MAX_VALUE, 10);
+        assertEquals(List.of(20.0, 10.0), balances(page.getRecords()));
+        assertFalse(page.hasMore());
+    }
+
+    @Test
+    void lastBalancesKeyedByTextAreConvertedOnStart() throws Exception {
+        storage.close();
+        storage = null;
+        try (Connection connection = DriverManager.getConnection(dialect.getJdbcUrl(), dialect.getUsername(),
+                dialect.getPassword());
+             Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("DROP TABLE last_balances");
+            stmt.executeUpdate("CREATE TABLE last_balances (player_uuid VARCHAR(36) PRIMARY KEY, balance DOUBLE NOT NULL)");
+            // More rows than one copy chunk
+            for (int i = 0; i < 10; i++) {
+                stmt.executeUpdate("INSERT INTO last_balances VALUES ('" + new UUID(i, i) + "', " + i + ")");
+            }
+        }
+
+        storage = open();
+        LastBalanceIndex index = new LastBalanceIndex();
+        assertEquals(10, storage.loadLastBalances(index));
+        assertEquals(7, index.get(new UUID(7, 7)));
+
+        storage.recordBalances(List.of(new PlayerBalance(new UUID(7, 7), 70, "a", BASE)));
+        assertEquals(70, storage.loadLastBalance(new UUID(7, 7)));
+    }
+
+    @Test
+    void importedRowsLeaveLastBalancesAlone() throws Exception {
+        storage.recordBalances(List.of(new PlayerBalance(player, 20, "a", BASE + 10)));
+        assertEquals(2, storage.importHistory(List.of(100L, 101L), List.of(
+                new PlayerBalance(player, 1, null, BASE + 1),
+                new PlayerBalance(player, 2, null, BASE + 2))));
+
+        assertEquals(20, storage.loadLastBalance(player));
+        HistoryPage page = storage.getBalanceHistory(player, HistoryCursor.START, 0, Long.MAX_VALUE, 10);
+        assertEquals(List.of(20.0, 2.0, 1.0), balances(page.getRecords()));
+    }
+
+    @Test
+    void importKeepsExportedIdsAndSkipsRowsAlreadyPresent() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        List<PlayerBalance> rows = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ids.add(50L + i);
+            rows.add(new PlayerBalance(player, i, null, BASE + i));
+        }
+        assertEquals(10, storage.importHistory(ids, rows));
+        // A second run of the same file, and one that overlaps it
+        assertEquals(0, storage.importHistory(ids, rows));
+        assertEquals(2, storage.importHistory(List.of(59L, 60L, 61L), List.of(
+                rows.get(9),
+                new PlayerBalance(player, 10, null, BASE + 10),
+                new PlayerBalance(player, 11, null, BASE + 11))));
+
+        List<BalanceRecord> records = storage.getBalanceHistory(player, HistoryCursor.START, 0, Long.MAX_VALUE, 20)
+                .getRecords();
+        assertEquals(12, records.size());
+        assertEquals(61, records.get(0).getId());
+        assertEquals(50, records.get(11).getId());
+
+        // New rows are numbered after everything imported
+        storage.recordBalances(List.of(new PlayerBalance(player, 99, "a", BASE + 99)));
+        assertTrue(storage.getBalanceHistory(player, HistoryCursor.START, 0, Long.MAX_VALUE, 1)
+                .getRecords().get(0).getId() > 61);
+    }
+
+    @Test
+    void importStopsAtAnIdHeldByADifferentRecord() throws Exception {
+        assertEquals(1, storage.importHistory(List.of(50L), List.of(new PlayerBalance(player, 1, null, BASE + 1))));
+
+        // Same id, different balance: a file from another database, not a re-import
+        SQLException conflict = assertThrows(SQLException.class, () -> storage.importHistory(List.of(49L, 50L),
+                List.of(new PlayerBalance(other, 7, null, BASE), new PlayerBalance(player, 2, null, BASE + 1))));
+        assertTrue(conflict.getMessage().contains("50"), conflict.getMessage());
+
+        // The failed chunk was rolled back as a whole
+        assertTrue(storage.getBalanceHistory(other, HistoryCursor.START, 0, Long.MAX_VALUE, 10).getRecords().isEmpty());
+        assertEquals(List.of(1.0), balances(storage.getBalanceHistory(player, HistoryCursor.START, 0, Long.MAX_VALUE, 10)
+                .getRecords()));
+    }
+
+    @Test
+    void keysetPagesVisitEveryRowOnceNewestFirst() {
+        // Pairs of rows share a timestamp, so pages have to break ties on id
+        List<PlayerBalance> rows = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            rows.add(new PlayerBalance(player, i, "a", BASE + i / 2));
+            rows.add(new PlayerBalance(other, -i, "b", BASE + i / 2));
+        }
+        storage.recordBalances(rows);
+
+        List<BalanceRecord> seen = new ArrayList<>();
+        HistoryCursor cursor = HistoryCursor.START;
+        int pages = 0;
+        do {
+            HistoryPage page = storage.getBalanceHistory(player, cursor, 0, Long.MAX_VALUE, 10);
+            seen.addAll(page.getRecords());
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(25, seen.size());
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < seen.size(); i++) {
+            BalanceRecord record = seen.get(i);
+            assertTrue(ids.add(record.getId()), "row " + record.getId() + " returned twice");
+            assertEquals(24 - i, record.getBalance());
+            if (i > 0) {
+                BalanceRecord newer = seen.get(i - 1);
+                assertTrue(newer.getTimestamp() > record.getTimestamp() ||
+                        (newer.getTimestamp() == record.getTimestamp() && newer.getId() > record.getId()));
+            }
+        }
+    }
+
+    @Test
+    void historyRangeIncludesFromAndExcludesTo() {
+        storage.recordBalances(List.of(
+                new PlayerBalance(player, 1, "a", BASE + 1),
+                new PlayerBalance(player, 2, "a", BASE + 2),
+                new PlayerBalance(player, 3, "a", BASE + 3)));
+
+        HistoryPage page = storage.getBalanceHistory(player, HistoryCursor.START, BASE + 1, BASE + 3, 10);
+        assertEquals(List.of(2.0, 1.0), balances(page.getRecords()));
+    }
+
+    @Test
+    void seekLandsOnTheCursorOfTheSkippedToPage() {
+        List<PlayerBalance> rows = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            rows.add(new PlayerBalance(player, i, "a", BASE + i));
+        }
+        storage.recordBalances(rows);
+
+        HistoryPage first = storage.getBalanceHistory(player, HistoryCursor.START, 0, Long.MAX_VALUE, 10);
+        HistoryPage second = storage.getBalanceHistory(player, first.getNextCursor(), 0, Long.MAX_VALUE, 10);
+        HistoryCursor seek = storage.seekHistoryCursor(player, HistoryCursor.START, 0, Long.MAX_VALUE, 20);
+
+        assertNotNull(seek);
+        assertEquals(second.getNextCursor().getTimestamp(), seek.getTimestamp());
+        assertEquals(second.getNextCursor().getId(), seek.getId());
+        assertNull(storage.seekHistoryCursor(player, HistoryCursor.START, 0, Long.MAX_VALUE, 26));
+    }
+
+    @Test
+    void purgeRemovesExpiredRowsWhateverTheirIds() throws Exception {
+        long cutoff = BASE + 100;
+        storage.recordBalances(List.of(
+                new PlayerBalance(player, 1, "a", BASE + 1),
+                new PlayerBalance(player, 200, "a", BASE + 200)));
+        // Exported from elsewhere with higher ids than the newer row, yet expired
+        List<Long> ids = new ArrayList<>();
+        List<PlayerBalance> imported = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            ids.add(100L + i);
+            imported.add(new PlayerBalance(other, i, null, BASE + 2 + i));
+        }
+        storage.importHistory(ids, imported);
+
+        int deleted = 0;
+        int chunk;
+        do {
+            chunk = storage.purgeChunk(cutoff, 3);
+            deleted += chunk;
+        } while (chunk == 3);
+
+        assertEquals(8, deleted);
+        assertEquals(0, storage.purgeChunk(cutoff, 3));
+        assertEquals(List.of(200.0), balances(storage.getBalanceHistory(player, HistoryCursor.START, 0,
+                Long.MAX_VALUE, 10).getRecords()));
+        assertTrue(storage.getBalanceHistory(other, HistoryCursor.START, 0, Long.MAX_VALUE, 10)
+                .getRecords().isEmpty());
+    }
+
+    @Test
+    void compactionBuildsHourlyBucketsBehindRawHistory() throws Exception {
+        storage.recordBalances(List.of(
+                new PlayerBalance(player, 30, "a", BASE + 1_000),
+                new PlayerBalance(player, 10, "a", BASE + 2_000),
+                new PlayerBalance(player, 20, "a", BASE + 3_000),
+                new PlayerBalance(player, 50, "a", BASE + HOUR + 1_000)));
+
+        assertEquals(BASE + 1_000, storage.findOldestTimestamp(RollupRecord.HOURLY));
+        assertEquals(1, storage.compactWindow(BASE, RollupRecord.HOURLY));
+        assertEquals(BASE + HOUR + 1_000, storage.findOldestTimestamp(RollupRecord.HOURLY));
+
+        List<BalanceRecord> records = storage.getBalanceHistory(player, HistoryCursor.START, 0, Long.MAX_VALUE, 10)
+                .getRecords();
+        assertEquals(2, records.size());
+        assertEquals(50, records.get(0).getBalance());
+        RollupRecord bucket = assertInstanceOf(RollupRecord.class, records.get(1));
+        assertEquals(BASE, bucket.getTimestamp());
+        assertEquals(30, bucket.getOpen());
+        assertEquals(20, bucket.getBalance());
+        assertEquals(10, bucket.getMin());
+        assertEquals(30, bucket.getMax());
+        assertEquals(3, bucket.getSamples());
+    }
+
+    @Test
+    void lateRowsMergeIntoABucketInTimeOrder() throws Exception {
+        storage.recordBalances(List.of(
+                new PlayerBalance(player, 20, "a", BASE + 2_000),
+                new PlayerBalance(player, 30, "a", BASE + 3_000)));
+        storage.compactWindow(BASE, RollupRecord.HOURLY);
+
+        // Late rows on both sides of what is already compacted, plus one in the middle
+        storage.importHistory(List.of(100L, 101L), List.of(
+                new PlayerBalance(player, 10, null, BASE + 1_000),
+                new PlayerBalance(player, 25, null, BASE + 2_500)));
+        storage.compactWindow(BASE, RollupRecord.HOURLY);
+        storage.importHistory(List.of(102L), List.of(new PlayerBalance(player, 40, null, BASE + 4_000)));
+        storage.compactWindow(BASE, RollupRecord.HOURLY);
+
+        RollupRecord bucket = onlyBucket();
+        assertEquals(10, bucket.getOpen());
+        assertEquals(40, bucket.getBalance());
+        assertEquals(10, bucket.getMin());
+        assertEquals(40, bucket.getMax());
+        assertEquals(5, bucket.getSamples());
+    }
+
+    @Test
+    void dailyCompactionCombinesHourlyBuckets() throws Exception {
+        storage.recordBalances(List.of(
+                new PlayerBalance(player, 10, "a", BASE + 1_000),
+                new PlayerBalance(player, 5, "a", BASE + HOUR + 1_000),
+                new PlayerBalance(player, 15, "a", BASE + 2 * HOUR + 1_000)));
+        for (int hour = 0; hour < 3; hour++) {
+            storage.compactWindow(BASE + hour * HOUR, RollupRecord.HOURLY);
+        }
+
+        long day = Math.floorDiv(BASE, RollupRecord.DAILY) * RollupRecord.DAILY;
+        assertEquals(BASE, storage.findOldestTimestamp(RollupRecord.DAILY));
+        assertEquals(1, storage.compactWindow(day, RollupRecord.DAILY));
+        assertEquals(-1, storage.findOldestTimestamp(RollupRecord.DAILY));
+
+        RollupRecord bucket = onlyBucket();
+        assertEquals(RollupRecord.DAILY, bucket.getResolution());
+        assertEquals(10, bucket.getOpen());
+        assertEquals(15, bucket.getBalance());
+        assertEquals(5, bucket.getMin());
+        assertEquals(3, bucket.getSamples());
+    }
+
+    @Test
+    void stateValuesRoundTrip() {
+        assertEquals(-1, storage.getState("test.key", -1));
+        storage.setState("test.key", 42);
+        storage.setState("test.key", 43);
+        assertEquals(43, storage.getState("test.key", -1));
+    }
+
+    private RollupRecord onlyBucket() {
+        List<BalanceRecord> records = storage.getBalanceHistory(player, HistoryCursor.START, 0, Long.MAX_VALUE, 10)
+                .getRecords();
+        assertEquals(1, records.size());
+        return assertInstanceOf(RollupRecord.class, records.get(0));
+    }
+
+    private static List<Double> balances(List<BalanceRecord> records) {
+        List<Double> balances = new ArrayList<>();
+        for (BalanceRecord record : records) {
+            balances.add(record.getBalance());
+        }
+        return balances;
+    }
+}
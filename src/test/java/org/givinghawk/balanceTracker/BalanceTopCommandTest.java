@@ -0,0 +1,80 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.command.CommandSender;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BalanceTopCommandTest {
+    private static final int PLAYERS = 25;
+
+    // Rankings are answered from memory, so the analytics never touch storage here
+    private final EconomyAnalytics analytics = new EconomyAnalytics(null);
+    private final PlayerNameIndex names = new PlayerNameIndex();
+    private final BalanceTopCommand command = new BalanceTopCommand(analytics, names);
+    private final List<String> messages = new ArrayList<>();
+    private final CommandSender sender = (CommandSender) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[]{CommandSender.class}, (proxy, method, args) -> {
+                if (method.getName().equals("sendMessage")) {
+                    messages.add(String.valueOf(args[0]));
+                }
+                return null;
+            });
+
+    @BeforeEach
+    void rankPlayers() {
+        LastBalanceIndex balances = new LastBalanceIndex();
+        for (int i = 0; i < PLAYERS; i++) {
+            balances.put(player(i), i * 10);
+            names.update(player(i), "p" + i);
+        }
+        analytics.seed(balances);
+    }
+
+    @Test
+    void pagesListTheRichestFirst() {
+        run();
+        assertEquals("§6Top balances (page 1/3):", messages.get(0));
+        assertEquals("§7#1 §ep24§f: §b$240.00", messages.get(1));
+        assertEquals(11, messages.size());
+
+        messages.clear();
+        run("3");
+        assertEquals(6, messages.size());
+        assertEquals("§7#25 §ep0§f: §b$0.00", messages.get(5));
+    }
+
+    @Test
+    void aNameShowsThatPlayersRank() {
+        run("P3");
+        assertEquals(List.of("§ep3§6 is ranked §e#22§6 of §e25§6 with §b$30.00"), messages);
+
+        analytics.record(List.of(new PlayerBalance(player(3), 1_000, null, System.currentTimeMillis())));
+        messages.clear();
+        run("p3");
+        assertEquals(List.of("§ep3§6 is ranked §e#1§6 of §e25§6 with §b$1,000.00"), messages);
+    }
+
+    @Test
+    void badArgumentsAreReported() {
+        run("4");
+        run("nobody");
+        run("1", "2");
+        assertEquals(List.of("§cPage must be between 1 and 3", "§cNo recorded balance for nobody",
+                "§cUsage: /balancetop [page|player]"), messages);
+    }
+
+    private void run(String... args) {
+        assertTrue(command.onCommand(sender, null, "balancetop", args));
+    }
+
+    private static UUID player(int i) {
+        return new UUID(0, i + 1);
+    }
+}
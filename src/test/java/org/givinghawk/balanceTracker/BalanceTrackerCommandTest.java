@@ -0,0 +1,121 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives {@code /balancetracker export} and {@code import} the way a player
+ * would, running the transfers inline instead of on the scheduler.
+ */
+class BalanceTrackerCommandTest {
+    private static final long BASE = 1_700_000_000_000L;
+
+    @TempDir
+    Path dir;
+
+    private final List<DatabaseManager> databases = new ArrayList<>();
+    private final List<String> messages = new ArrayList<>();
+    private boolean permitted = true;
+    private int started;
+
+    private final CommandSender sender = (CommandSender) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[]{CommandSender.class}, (proxy, method, args) -> switch (method.getName()) {
+                case "sendMessage" -> {
+                    messages.add(String.valueOf(args[0]));
+                    yield null;
+                }
+                case "hasPermission" -> permitted;
+                default -> null;
+            });
+
+    @AfterEach
+    void closeDatabases() {
+        for (DatabaseManager database : databases) {
+            database.close();
+        }
+    }
+
+    @Test
+    void exportedFileCanBeTabCompletedAndImported() throws Exception {
+        DatabaseManager source = database("source");
+        source.recordBalances(List.of(
+                new PlayerBalance(new UUID(1, 1), 10, null, BASE),
+                new PlayerBalance(new UUID(2, 2), 20, null, BASE + 1)));
+        BalanceTrackerCommand export = command(source);
+        run(export, "export", "binary");
+        assertTrue(last().startsWith("§aExported 2 records"), last());
+
+        BalanceTrackerCommand target = command(database("target"));
+        List<String> files = target.onTabComplete(sender, null, "balancetracker", new String[]{"import", "hist"});
+        assertEquals(1, files.size());
+        assertTrue(files.get(0).endsWith(".bin.gz"));
+
+        run(target, "import", files.get(0));
+        assertTrue(last().contains("2 added, 0 already present"), last());
+        assertEquals(2, started);
+    }
+
+    @Test
+    void transfersNeedThePermission() throws Exception {
+        permitted = false;
+        BalanceTrackerCommand command = command(database("source"));
+        run(command, "export");
+        run(command, "import", "history.csv.gz");
+
+        assertEquals(0, started);
+        assertEquals(List.of("§cYou do not have permission to export or import history",
+                "§cYou do not have permission to export or import history"), messages);
+    }
+
+    @Test
+    void badArgumentsAreReportedWithoutStartingATransfer() throws Exception {
+        BalanceTrackerCommand command = command(database("source"));
+        run(command, "export", "xml");
+        assertEquals("§cFormat must be csv or binary", last());
+        run(command, "import");
+        assertTrue(last().startsWith("§cUsage"), last());
+        assertEquals(0, started);
+
+        // Names are resolved inside the exports folder only
+        run(command, "import", "../source.db");
+        assertTrue(last().startsWith("§cNo export named"), last());
+    }
+
+    private DatabaseManager database(String name) throws Exception {
+        DatabaseManager database = new DatabaseManager(Logger.getLogger(name), false, new BalanceMetrics(),
+                new YamlConfiguration(), new SQLiteDialect(dir.resolve(name + ".db").toFile()));
+        database.initializeDatabase();
+        databases.add(database);
+        return database;
+    }
+
+    private BalanceTrackerCommand command(DatabaseManager database) {
+        HistoryTransfer transfer = new HistoryTransfer(Logger.getLogger("transfer"), database,
+                new File(dir.toFile(), "exports"), 100, 0, 0);
+        return new BalanceTrackerCommand(new BalanceMetrics(), transfer, task -> {
+            started++;
+            task.run();
+        });
+    }
+
+    private void run(BalanceTrackerCommand command, String... args) {
+        assertTrue(command.onCommand(sender, null, "balancetracker", args));
+    }
+
+    private String last() {
+        return messages.get(messages.size() - 1);
+    }
+}
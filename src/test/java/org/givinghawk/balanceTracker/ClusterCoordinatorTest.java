@@ -0,0 +1,313 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Several nodes, each with its own storage, sharing one SQLite database the
+ * way servers share a MySQL one.
+ */
+class ClusterCoordinatorTest {
+    private static final int PARTITIONS = 8;
+    private static final long LEASE_MILLIS = 2_000;
+    private static final long HEARTBEAT_MILLIS = 200;
+
+    @TempDir
+    Path dir;
+
+    private final List<Node> nodes = new ArrayList<>();
+
+    @AfterEach
+    void closeNodes() {
+        for (Node node : nodes) {
+            node.storage.close();
+        }
+    }
+
+    @Test
+    void everyPartitionEndsUpWithExactlyOneNode() throws Exception {
+        Node a = node("a");
+        Node b = node("b");
+        Node c = node("c");
+        // The first node to join claims everything and hands partitions over once it sees the others
+        heartbeats(3, a, b, c);
+
+        int owned = 0;
+        for (Node node : List.of(a, b, c)) {
+            assertTrue(node.coordinator.getOwnedPartitions() > 0, node.coordinator.getNodeId() + " owns nothing");
+            owned += node.coordinator.getOwnedPartitions();
+        }
+        assertEquals(PARTITIONS, owned);
+        for (int i = 0; i < 1_000; i++) {
+            UUID player = new UUID(i, 31L * i);
+            int owners = 0;
+            for (Node node : List.of(a, b, c)) {
+                if (node.coordinator.owns(player)) owners++;
+            }
+            assertEquals(1, owners, "owners of " + player);
+        }
+        assertEquals(1, maintenanceHolders(a, b, c));
+    }
+
+    @Test
+    void leavingHandsOverPartitionsWithTheirLatestBalancesAndMaintenance() throws Exception {
+        Node a = node("a");
+        Node b = node("b");
+        heartbeats(2, a, b);
+        Node leaving = a.coordinator.holdsMaintenanceLease() ? a : b;
+        Node staying = leaving == a ? b : a;
+
+        UUID player = playerOwnedBy(leaving);
+        staying.cache.put(player, 1);
+        leaving.storage.recordBalances(List.of(new PlayerBalance(player, 42, "p", 1_000)));
+        leaving.coordinator.stop();
+        assertFalse(leaving.coordinator.owns(player));
+        assertFalse(leaving.coordinator.holdsMaintenanceLease());
+
+        staying.coordinator.heartbeat();
+        assertEquals(PARTITIONS, staying.coordinator.getOwnedPartitions());
+        assertTrue(staying.coordinator.owns(player));
+        // Reloaded before the partition was handed to the sweep
+        assertEquals(42, staying.cache.get(player));
+        assertTrue(staying.coordinator.holdsMaintenanceLease());
+    }
+
+    @Test
+    void leasesOfANodeThatStopsRenewingLapseBeforeAnotherTakesThem() throws Exception {
+        Node a = node("a");
+        Node b = node("b");
+        heartbeats(2, a, b);
+        Node crashed = a.coordinator.holdsMaintenanceLease() ? a : b;
+        Node survivor = crashed == a ? b : a;
+        UUID player = playerOwnedBy(crashed);
+
+        // Still leased to the silent node, so nothing moves yet
+        survivor.coordinator.heartbeat();
+        assertFalse(survivor.coordinator.owns(player));
+        assertFalse(survivor.coordinator.holdsMaintenanceLease());
+
+        Thread.sleep(LEASE_MILLIS + HEARTBEAT_MILLIS);
+        assertFalse(crashed.coordinator.owns(player));
+        assertFalse(crashed.coordinator.holdsMaintenanceLease());
+
+        survivor.coordinator.heartbeat();
+        assertEquals(PARTITIONS, survivor.coordinator.getOwnedPartitions());
+        assertTrue(survivor.coordinator.holdsMaintenanceLease());
+    }
+
+    @Test
+    void eachNodeSweepsItsPartitionsOfEveryServersPlayers() throws Exception {
+        Node a = node("a");
+        Node b = node("b");
+        // Each server has only seen its own players
+        Map<UUID, String> seenByA = new HashMap<>();
+        Map<UUID, String> seenByB = new HashMap<>();
+        for (int i = 0; i < 200; i++) {
+            (i % 2 == 0 ? seenByA : seenByB).put(new UUID(i, 31L * i), "p" + i);
+        }
+        a.storage.savePlayerNames(seenByA);
+        b.storage.savePlayerNames(seenByB);
+        heartbeats(2, a, b);
+
+        Set<UUID> sweptByA = new HashSet<>(a.coordinator.collectOwnedPlayers());
+        Set<UUID> sweptByB = new HashSet<>(b.coordinator.collectOwnedPlayers());
+        assertTrue(Collections.disjoint(sweptByA, sweptByB));
+        Set<UUID> swept = new HashSet<>(sweptByA);
+        swept.addAll(sweptByB);
+        Set<UUID> everyone = new HashSet<>(seenByA.keySet());
+        everyone.addAll(seenByB.keySet());
+        assertEquals(everyone, swept);
+        // Neither node only sweeps the players it has seen itself
+        assertFalse(Collections.disjoint(sweptByA, seenByB.keySet()));
+        assertFalse(Collections.disjoint(sweptByB, seenByA.keySet()));
+    }
+
+    @Test
+    void anAcquiredPlayerThatWasNeverCachedHereIsNotRecordedAsNew() throws Exception {
+        Node a = node("a");
+        Node b = node("b");
+        heartbeats(2, a, b);
+        Node leaving = a.coordinator.holdsMaintenanceLease() ? a : b;
+        Node staying = leaving == a ? b : a;
+        AtomicInteger acquisitions = new AtomicInteger();
+        staying.coordinator.onPartitionsAcquired(acquisitions::incrementAndGet);
+
+        UUID player = playerOwnedBy(leaving);
+        leaving.storage.savePlayerNames(Map.of(player, "p"));
+        leaving.storage.recordBalances(List.of(new PlayerBalance(player, 42, "p", 1_000)));
+        leaving.coordinator.stop();
+        staying.coordinator.heartbeat();
+        assertEquals(1, acquisitions.get());
+        assertTrue(staying.coordinator.collectOwnedPlayers().contains(player));
+        assertFalse(staying.cache.contains(player));
+
+        BalanceChecker checker = new BalanceChecker(p -> 42, staying.cache, 0.01, new BalanceMetrics(),
+                Logger.getLogger("checker"), false);
+        checker.loadOnDemand(staying.storage::loadLastBalance);
+        List<PlayerBalance> changes = new ArrayList<>();
+        checker.check(offlinePlayer(player), changes);
+        assertTrue(changes.isEmpty());
+        assertEquals(42, staying.cache.get(player));
+    }
+
+    @Test
+    void capturedPlayersOfAnotherNodeAreHandedToTheirOwner() throws Exception {
+        Node a = node("a");
+        Node b = node("b");
+        heartbeats(2, a, b);
+        UUID player = playerOwnedBy(b);
+
+        a.coordinator.forwardDirtyPlayers(List.of(player));
+        assertEquals(List.of(), a.coordinator.takeDirtyPlayers());
+        assertEquals(List.of(player), b.coordinator.takeDirtyPlayers());
+        assertEquals(List.of(), b.coordinator.takeDirtyPlayers());
+
+        // A flag raised after the owner read the list survives its clear
+        a.coordinator.forwardDirtyPlayers(List.of(player));
+        Map<UUID, Long> seen = b.storage.loadDirtyPlayers();
+        Thread.sleep(5);
+        a.coordinator.forwardDirtyPlayers(List.of(player));
+        b.storage.clearDirtyPlayers(seen);
+        assertEquals(List.of(player), b.coordinator.takeDirtyPlayers());
+    }
+
+    @Test
+    void analyticsCoverBalancesRecordedByOtherNodes() throws Exception {
+        Node a = node("a");
+        Node b = node("b");
+        heartbeats(2, a, b);
+        UUID ofA = playerOwnedBy(a);
+        UUID ofB = playerOwnedBy(b);
+        EconomyAnalytics analyticsOfA = new EconomyAnalytics(a.storage);
+        EconomyAnalytics analyticsOfB = new EconomyAnalytics(b.storage);
+
+        List<PlayerBalance> recordedByA = List.of(new PlayerBalance(ofA, 100, "a"));
+        analyticsOfA.record(recordedByA);
+        a.storage.recordBalances(recordedByA);
+        List<PlayerBalance> recordedByB = List.of(new PlayerBalance(ofB, 50, "b"));
+        analyticsOfB.record(recordedByB);
+        b.storage.recordBalances(recordedByB);
+        assertEquals(100, analyticsOfA.getSupply());
+
+        assertEquals(1, analyticsOfA.sync(a.coordinator::owns));
+        assertEquals(1, analyticsOfB.sync(b.coordinator::owns));
+        assertEquals(150, analyticsOfA.getSupply());
+        assertEquals(150, analyticsOfB.getSupply());
+        assertEquals(2, analyticsOfB.getBalances().rank(ofB));
+        assertTrue(analyticsOfA.getLastSyncedAt() > 0);
+
+        // A later change on B shows up on A as a gain, once
+        List<PlayerBalance> raised = List.of(new PlayerBalance(ofB, 80, "b"));
+        analyticsOfB.record(raised);
+        b.storage.recordBalances(raised);
+        assertEquals(1, analyticsOfA.sync(a.coordinator::owns));
+        assertEquals(0, analyticsOfA.sync(a.coordinator::owns));
+        assertEquals(180, analyticsOfA.getSupply());
+        assertEquals(30, analyticsOfA.getDailyChanges().get(ofB));
+        assertEquals(30, analyticsOfA.getLastDay().getGained());
+    }
+
+    @Test
+    void cachedHistoryPicksUpRowsOtherNodesWroteWithinTheClusterExpiry() throws Exception {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("cluster.enabled", true);
+        config.set("historyCache.clusterExpireSeconds", 1);
+        Node a = node("a", config);
+        Node b = node("b", config);
+        UUID player = new UUID(5, 5);
+        b.storage.recordBalances(List.of(new PlayerBalance(player, 10, "p", 1_000)));
+        assertEquals(1, history(a, player).size());
+
+        b.storage.recordBalances(List.of(new PlayerBalance(player, 20, "p", 2_000)));
+        Thread.sleep(1_100);
+        assertEquals(2, history(a, player).size());
+    }
+
+    @Test
+    void partitionsAreIndependentOfSweepShards() {
+        // 64 and 12 share a factor of 4, so hashing both by UUID.hashCode would leave most shards empty per partition
+        ClusterCoordinator coordinator = new ClusterCoordinator(Logger.getLogger("a"), false, null,
+                new LastBalanceIndex(), "a", 64, LEASE_MILLIS, HEARTBEAT_MILLIS);
+        int shards = 12;
+        int[] perShard = new int[shards];
+        int players = 0;
+        Random random = new Random(1);
+        while (players < 1_200) {
+            UUID player = new UUID(random.nextLong(), random.nextLong());
+            if (coordinator.partitionOf(player) == 0) {
+                perShard[Math.floorMod(player.hashCode(), shards)]++;
+                players++;
+            }
+        }
+        for (int shard = 0; shard < shards; shard++) {
+            assertTrue(perShard[shard] > 50, "shard " + shard + " got " + perShard[shard] + " of 1200");
+        }
+    }
+
+    private Node node(String nodeId) throws Exception {
+        return node(nodeId, new YamlConfiguration());
+    }
+
+    private Node node(String nodeId, YamlConfiguration config) throws Exception {
+        DatabaseManager storage = new DatabaseManager(Logger.getLogger(nodeId), false, new BalanceMetrics(),
+                config, new SQLiteDialect(dir.resolve("balances.db").toFile()));
+        storage.initializeDatabase();
+        LastBalanceIndex cache = new LastBalanceIndex();
+        Node node = new Node(storage, cache, new ClusterCoordinator(Logger.getLogger(nodeId), false, storage, cache,
+                nodeId, PARTITIONS, LEASE_MILLIS, HEARTBEAT_MILLIS));
+        nodes.add(node);
+        return node;
+    }
+
+    private static void heartbeats(int rounds, Node... nodes) {
+        for (int round = 0; round < rounds; round++) {
+            for (Node node : nodes) {
+                node.coordinator.heartbeat();
+            }
+        }
+    }
+
+    private static int maintenanceHolders(Node... nodes) {
+        int holders = 0;
+        for (Node node : nodes) {
+            if (node.coordinator.holdsMaintenanceLease()) holders++;
+        }
+        return holders;
+    }
+
+    private static UUID playerOwnedBy(Node node) {
+        for (int i = 0; ; i++) {
+            UUID player = new UUID(i, 31L * i);
+            if (node.coordinator.owns(player)) {
+                return player;
+            }
+        }
+    }
+
+    private static List<BalanceRecord> history(Node node, UUID player) {
+        return node.storage.getBalanceHistory(player, HistoryCursor.START, 0, Long.MAX_VALUE, 10).getRecords();
+    }
+
+    private static OfflinePlayer offlinePlayer(UUID uuid) {
+        return (OfflinePlayer) Proxy.newProxyInstance(ClusterCoordinatorTest.class.getClassLoader(),
+                new Class<?>[]{OfflinePlayer.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "getUniqueId" -> uuid;
+                    case "getName" -> "player";
+                    default -> null;
+                });
+    }
+
+    private record Node(DatabaseManager storage, LastBalanceIndex cache, ClusterCoordinator coordinator) {
+    }
+}
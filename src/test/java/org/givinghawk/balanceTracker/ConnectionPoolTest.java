@@ -0,0 +1,238 @@
+package org.givinghawk.balanceTracker;
+
+import org.givinghawk.balanceTracker.FakeJdbcDriver.FakeConnection;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionPoolTest {
+    private final String name = UUID.randomUUID().toString();
+    private ConnectionPool pool;
+
+    @AfterEach
+    void closePool() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    private ConnectionPool pool(int maxSize, long borrowTimeoutMillis, long keepaliveMillis, int statementCacheSize) {
+        pool = new ConnectionPool("test", FakeJdbcDriver.dialect(name), maxSize, borrowTimeoutMillis, keepaliveMillis,
+                statementCacheSize);
+        return pool;
+    }
+
+    @Test
+    void borrowTimesOutWhenEveryConnectionIsInUse() throws SQLException {
+        ConnectionPool pool = pool(1, 100, 60_000, 8);
+
+        try (PooledConnection held = pool.borrow()) {
+            long start = System.nanoTime();
+            SQLException e = assertThrows(SQLException.class, pool::borrow);
+            long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertTrue(e.getMessage().contains("Timed out"), e.getMessage());
+            assertTrue(waitedMillis >= 100, "gave up after " + waitedMillis + "ms");
+            assertEquals(1, pool.getOpenConnections());
+        }
+        assertEquals(0, pool.getActiveConnections());
+    }
+
+    @Test
+    void borrowWaitsForAReleasedConnection() throws Exception {
+        ConnectionPool pool = pool(1, 5_000, 60_000, 8);
+        PooledConnection held = pool.borrow();
+
+        Thread releaser = new Thread(() -> {
+            sleep(50);
+            held.close();
+        });
+        releaser.start();
+        try (PooledConnection next = pool.borrow()) {
+            assertSame(held, next);
+        }
+        releaser.join();
+        assertEquals(1, FakeJdbcDriver.connections(name).size());
+    }
+
+    @Test
+    void statementCacheEvictsAndClosesTheLeastRecentlyUsedStatement() throws SQLException {
+        ConnectionPool pool = pool(1, 1_000, 60_000, 2);
+
+        try (PooledConnection conn = pool.borrow()) {
+            FakeConnection fake = FakeJdbcDriver.connections(name).get(0);
+            PreparedStatement a = conn.prepare("SELECT a");
+            PreparedStatement b = conn.prepare("SELECT b");
+            // Touching a makes b the eldest
+            assertSame(a, conn.prepare("SELECT a"));
+            PreparedStatement c = conn.prepare("SELECT c");
+
+            assertTrue(fake.closedStatements.contains(b));
+            assertFalse(fake.closedStatements.contains(a));
+            assertFalse(fake.closedStatements.contains(c));
+            assertNotSame(b, conn.prepare("SELECT b"));
+            assertEquals(4, fake.statements.size());
+        }
+    }
+
+    @Test
+    void statementsWithGeneratedKeysAreCachedSeparately() throws SQLException {
+        ConnectionPool pool = pool(1, 1_000, 60_000, 8);
+
+        try (PooledConnection conn = pool.borrow()) {
+            PreparedStatement plain = conn.prepare("INSERT INTO t VALUES (?)");
+            PreparedStatement keys = conn.prepareReturningKeys("INSERT INTO t VALUES (?)");
+            assertNotSame(plain, keys);
+            assertSame(keys, conn.prepareReturningKeys("INSERT INTO t VALUES (?)"));
+        }
+    }
+
+    @Test
+    void releaseRollsBackAndRestoresAutocommit() throws SQLException {
+        ConnectionPool pool = pool(1, 1_000, 60_000, 8);
+
+        try (PooledConnection conn = pool.borrow()) {
+            conn.connection().setAutoCommit(false);
+        }
+        FakeConnection fake = FakeJdbcDriver.connections(name).get(0);
+        assertTrue(fake.autoCommit);
+        assertEquals(1, fake.rollbacks);
+
+        // A connection that was left in autocommit mode is returned untouched
+        try (PooledConnection ignored = pool.borrow()) {
+            assertEquals(1, pool.getActiveConnections());
+        }
+        assertEquals(1, fake.rollbacks);
+        assertEquals(0, pool.getActiveConnections());
+    }
+
+    @Test
+    void releaseDiscardsAClosedConnection() throws SQLException {
+        ConnectionPool pool = pool(1, 1_000, 60_000, 8);
+
+        try (PooledConnection conn = pool.borrow()) {
+            conn.connection().close();
+        }
+        assertEquals(0, pool.getOpenConnections());
+        try (PooledConnection ignored = pool.borrow()) {
+            assertEquals(2, FakeJdbcDriver.connections(name).size());
+        }
+    }
+
+    @Test
+    void keepaliveReplacesDeadIdleConnections() throws SQLException {
+        ConnectionPool pool = pool(2, 1_000, 1_000, 8);
+        PooledConnection first = pool.borrow();
+        PooledConnection second = pool.borrow();
+        first.close();
+        second.close();
+
+        List<FakeConnection> fakes = FakeJdbcDriver.connections(name);
+        fakes.get(0).valid = false;
+        first.lastUsed -= 5_000;
+        second.lastUsed -= 5_000;
+
+        pool.validateIdle();
+        assertEquals(1, pool.getOpenConnections());
+        assertTrue(fakes.get(0).closed);
+        assertEquals(1, fakes.get(1).validations);
+
+        // The survivor was just validated, so the next keepalive leaves it alone
+        pool.validateIdle();
+        assertEquals(1, fakes.get(1).validations);
+    }
+
+    @Test
+    void keepaliveSkipsRecentlyUsedConnections() throws SQLException {
+        ConnectionPool pool = pool(1, 1_000, 60_000, 8);
+        pool.borrow().close();
+
+        pool.validateIdle();
+        assertEquals(0, FakeJdbcDriver.connections(name).get(0).validations);
+    }
+
+    @Test
+    void borrowReplacesAStaleConnectionThatFailsValidation() throws SQLException {
+        ConnectionPool pool = pool(1, 1_000, 1_000, 8);
+        PooledConnection stale = pool.borrow();
+        stale.close();
+        stale.lastUsed -= 5_000;
+        FakeJdbcDriver.connections(name).get(0).valid = false;
+
+        try (PooledConnection fresh = pool.borrow()) {
+            assertNotSame(stale, fresh);
+        }
+        assertEquals(1, pool.getOpenConnections());
+    }
+
+    @Test
+    void keepaliveLeavesOtherConnectionsBorrowableWhileValidating() throws Exception {
+        ConnectionPool pool = pool(2, 200, 1_000, 8);
+        PooledConnection first = pool.borrow();
+        PooledConnection second = pool.borrow();
+        first.close();
+        second.close();
+        first.lastUsed -= 5_000;
+        second.lastUsed -= 5_000;
+
+        // The first validation passes straight away, the second is held open
+        AtomicInteger validations = new AtomicInteger();
+        CountDownLatch validating = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        for (FakeConnection fake : FakeJdbcDriver.connections(name)) {
+            fake.onValidate = () -> {
+                if (validations.incrementAndGet() == 2) {
+                    validating.countDown();
+                    await(finish);
+                }
+            };
+        }
+
+        Thread keepalive = new Thread(pool::validateIdle);
+        keepalive.start();
+        assertTrue(validating.await(5, TimeUnit.SECONDS));
+
+        // The connection validated first is back in the pool and is lent without opening a new one
+        try (PooledConnection borrowed = pool.borrow()) {
+            assertNotNull(borrowed);
+            assertEquals(2, pool.getOpenConnections());
+            assertEquals(2, FakeJdbcDriver.connections(name).size());
+        }
+
+        finish.countDown();
+        keepalive.join();
+        assertEquals(2, pool.getOpenConnections());
+    }
+
+    @Test
+    void closedPoolRefusesToLend() {
+        ConnectionPool pool = pool(1, 1_000, 60_000, 8);
+        pool.close();
+        assertThrows(SQLException.class, pool::borrow);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
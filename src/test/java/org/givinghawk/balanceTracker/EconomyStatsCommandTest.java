@@ -0,0 +1,111 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EconomyStatsCommandTest {
+    @TempDir
+    Path dir;
+
+    private DatabaseManager storage;
+    private EconomyAnalytics analytics;
+    private EconomyStatsCommand command;
+    private final PlayerNameIndex names = new PlayerNameIndex();
+    private final List<String> messages = new ArrayList<>();
+    private final CommandSender sender = (CommandSender) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[]{CommandSender.class}, (proxy, method, args) -> {
+                if (method.getName().equals("sendMessage")) {
+                    messages.add(String.valueOf(args[0]));
+                }
+                return null;
+            });
+
+    @BeforeEach
+    void openStorage() throws Exception {
+        storage = new DatabaseManager(Logger.getLogger("stats"), false, new BalanceMetrics(), new YamlConfiguration(),
+                new SQLiteDialect(dir.resolve("balances.db").toFile()));
+        storage.initializeDatabase();
+        analytics = new EconomyAnalytics(storage);
+        // Supply history is read inline instead of on the scheduler
+        command = new EconomyStatsCommand(analytics, storage, names, Runnable::run);
+
+        LastBalanceIndex balances = new LastBalanceIndex();
+        for (int i = 1; i <= 3; i++) {
+            balances.put(player(i), i * 100);
+            names.update(player(i), "p" + i);
+        }
+        analytics.seed(balances);
+        long now = System.currentTimeMillis();
+        analytics.record(List.of(
+                new PlayerBalance(player(1), 150, null, now),
+                new PlayerBalance(player(3), 250, null, now),
+                // A first sighting adds to the supply but is not a gain
+                new PlayerBalance(player(4), 40, null, now)));
+    }
+
+    @AfterEach
+    void closeStorage() {
+        storage.close();
+    }
+
+    @Test
+    void summaryShowsSupplyMedianAndMovers() {
+        run();
+        assertEquals(List.of(
+                "§6Economy statistics:",
+                "§7Money supply: §b$640.00§7 across §e4§7 players",
+                "§7Average: §b$160.00§7, median: §b$175.00",
+                "§7Last 24h: §a+$50.00 §c-$50.00 §7(net §e+$0.00§7)",
+                "§6Top gainers (24h):",
+                "§7- §ep1§f: §a+$50.00",
+                "§6Top losers (24h):",
+                "§7- §ep3§f: §c-$50.00"), messages);
+    }
+
+    @Test
+    void supplyChartReadsTheSavedHours() {
+        analytics.tick(true);
+        run("supply", "2");
+        assertEquals("§6Money supply over the last §e2§6 hours:", messages.get(0));
+        assertTrue(messages.get(1).endsWith("§b$640.00 §7(§e4§7 players)"), messages.get(1));
+        assertEquals("§7Change: §e+$0.00", messages.get(2));
+    }
+
+    @Test
+    void nothingSavedIsReported() {
+        // Not the server that saves supply figures
+        analytics.tick(false);
+        run("supply");
+        assertEquals(List.of("§eNo money supply recorded in the last 24 hours"), messages);
+    }
+
+    @Test
+    void badArgumentsAreReported() {
+        run("supply", "0");
+        run("supply", "x");
+        run("top");
+        assertEquals(List.of("§cHours must be between 1 and 720", "§cHours must be a number",
+                "§cUsage: /economystats [supply [hours]]"), messages);
+    }
+
+    private void run(String... args) {
+        assertTrue(command.onCommand(sender, null, "economystats", args));
+    }
+
+    private static UUID player(int i) {
+        return new UUID(0, i);
+    }
+}
@@ -0,0 +1,222 @@
+package org.givinghawk.balanceTracker;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+/**
+ * An in-memory JDBC driver for {@code jdbc:fake:} URLs that records what the
+ * pool does to its connections. Statements execute nothing.
+ */
+final class FakeJdbcDriver implements Driver {
+    private static final FakeJdbcDriver INSTANCE = new FakeJdbcDriver();
+    private static final List<FakeConnection> CONNECTIONS = new CopyOnWriteArrayList<>();
+
+    static {
+        try {
+            DriverManager.registerDriver(INSTANCE);
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private FakeJdbcDriver() {
+    }
+
+    /**
+     * @return a dialect whose connections come from this driver; the name keeps tests apart
+     */
+    static SqlDialect dialect(String name) {
+        String url = "jdbc:fake:" + name;
+        return new SqlDialect() {
+            @Override
+            public String getName() {
+                return "Fake";
+            }
+
+            @Override
+            public String getJdbcUrl() {
+                return url;
+            }
+
+            @Override
+            public String getUsername() {
+                return null;
+            }
+
+            @Override
+            public String getPassword() {
+                return null;
+            }
+
+            @Override
+            public List<String> getSchema() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public String upsert(String keyColumns, String... assignments) {
+                return "";
+            }
+
+            @Override
+            public String excluded(String column) {
+                return column;
+            }
+
+            @Override
+            public String least(String a, String b) {
+                return a;
+            }
+
+            @Override
+            public String greatest(String a, String b) {
+                return a;
+            }
+
+            @Override
+            public String deleteOldest(String table) {
+                return "";
+            }
+
+            @Override
+            public String insertIgnore() {
+                return "INSERT INTO ";
+            }
+
+            @Override
+            public boolean returnsAllGeneratedKeys() {
+                return false;
+            }
+
+            @Override
+            public int getMaxWriteConnections() {
+                return Integer.MAX_VALUE;
+            }
+        };
+    }
+
+    /**
+     * @return the connections opened for {@code name}, oldest first
+     */
+    static List<FakeConnection> connections(String name) {
+        List<FakeConnection> opened = new ArrayList<>();
+        for (FakeConnection connection : CONNECTIONS) {
+            if (connection.url.equals("jdbc:fake:" + name)) {
+                opened.add(connection);
+            }
+        }
+        return opened;
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        FakeConnection connection = new FakeConnection(url);
+        CONNECTIONS.add(connection);
+        return connection.proxy;
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url.startsWith("jdbc:fake:");
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() {
+        return Logger.getGlobal();
+    }
+
+    static final class FakeConnection {
+        final String url;
+        final Connection proxy;
+        final List<PreparedStatement> statements = new CopyOnWriteArrayList<>();
+        final Set<PreparedStatement> closedStatements = Collections.synchronizedSet(
+                Collections.newSetFromMap(new IdentityHashMap<>()));
+        volatile boolean autoCommit = true;
+        volatile boolean closed;
+        volatile boolean valid = true;
+        volatile int rollbacks;
+        volatile int validations;
+        // Runs inside isValid, so tests can hold a validation open
+        volatile Runnable onValidate = () -> { };
+
+        FakeConnection(String url) {
+            this.url = url;
+            this.proxy = proxy(Connection.class, (target, method, args) -> switch (method.getName()) {
+                case "prepareStatement" -> prepare();
+                case "setAutoCommit" -> {
+                    autoCommit = (Boolean) args[0];
+                    yield null;
+                }
+                case "getAutoCommit" -> autoCommit;
+                case "rollback" -> {
+                    rollbacks++;
+                    yield null;
+                }
+                case "commit" -> null;
+                case "isValid" -> {
+                    validations++;
+                    onValidate.run();
+                    yield valid && !closed;
+                }
+                case "isClosed" -> closed;
+                case "close" -> {
+                    closed = true;
+                    yield null;
+                }
+                case "hashCode" -> System.identityHashCode(target);
+                case "equals" -> target == args[0];
+                case "toString" -> "FakeConnection[" + url + "]";
+                default -> throw new SQLFeatureNotSupportedException(method.getName());
+            });
+        }
+
+        private PreparedStatement prepare() {
+            PreparedStatement[] self = new PreparedStatement[1];
+            self[0] = proxy(PreparedStatement.class, (target, method, args) -> switch (method.getName()) {
+                case "close" -> {
+                    closedStatements.add(self[0]);
+                    yield null;
+                }
+                case "isClosed" -> closedStatements.contains(self[0]);
+                case "hashCode" -> System.identityHashCode(target);
+                case "equals" -> target == args[0];
+                case "toString" -> "FakeStatement";
+                // Parameter setters and executes do nothing
+                default -> null;
+            });
+            statements.add(self[0]);
+            return self[0];
+        }
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(FakeJdbcDriver.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}
@@ -0,0 +1,73 @@
+package org.givinghawk.balanceTracker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryCacheTest {
+    private final UUID player = UUID.randomUUID();
+    private final HistoryCache cache = new HistoryCache(10, 60_000, 5);
+
+    private static List<BalanceRecord> rows(long... ids) {
+        List<BalanceRecord> rows = new ArrayList<>();
+        for (long id : ids) {
+            rows.add(new BalanceRecord(id, id * 1000, id));
+        }
+        return rows;
+    }
+
+    private static long[] ids(HistoryPage page) {
+        return page.getRecords().stream().mapToLong(BalanceRecord::getId).toArray();
+    }
+
+    @Test
+    void appendAddsNewRowsToTheFront() {
+        cache.put(player, rows(2, 1), true, cache.stamp());
+        cache.append(player, 3, 3000, 3);
+
+        assertEquals(List.of(3L, 2L, 1L), boxed(ids(cache.get(player, 3))));
+    }
+
+    @Test
+    void loadThatAlreadySawTheCommittedRowIsNotDuplicatedByAppend() {
+        // The chunk commits row 3, a load reads it and caches it, then the writer appends it
+        long stamp = cache.stamp();
+        cache.put(player, rows(3, 2, 1), true, stamp);
+        cache.append(player, 3, 3000, 3);
+
+        assertEquals(List.of(3L, 2L, 1L), boxed(ids(cache.get(player, 4))));
+    }
+
+    @Test
+    void loadThatRacedWithAWriteIsNotCached() {
+        long stamp = cache.stamp();
+        cache.append(player, 3, 3000, 3);
+        cache.put(player, rows(2, 1), true, stamp);
+
+        assertNull(cache.get(player, 2));
+    }
+
+    @Test
+    void appendTrimsToTheRowLimitAndMarksTheEntryIncomplete() {
+        cache.put(player, rows(5, 4, 3, 2, 1), true, cache.stamp());
+        cache.append(player, 6, 6000, 6);
+
+        HistoryPage page = cache.get(player, 3);
+        assertEquals(List.of(6L, 5L, 4L), boxed(ids(page)));
+        assertTrue(page.hasMore());
+        // Five rows are cached but more exist, so a page of five cannot be answered
+        assertNull(cache.get(player, 5));
+    }
+
+    private static List<Long> boxed(long[] ids) {
+        List<Long> list = new ArrayList<>();
+        for (long id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+}
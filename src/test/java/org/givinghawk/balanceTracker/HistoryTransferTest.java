@@ -0,0 +1,161 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Exports from one SQLite database and imports into another through the
+ * same files an operator would move between servers.
+ */
+class HistoryTransferTest {
+    private static final long BASE = 1_700_000_000_000L;
+    // Smaller than the row count so both directions span several chunks
+    private static final int CHUNK = 4;
+
+    @TempDir
+    Path dir;
+
+    private final List<DatabaseManager> databases = new ArrayList<>();
+    private final List<String> messages = new ArrayList<>();
+    private final CommandSender sender = (CommandSender) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[]{CommandSender.class}, (proxy, method, args) -> switch (method.getName()) {
+                case "sendMessage" -> {
+                    messages.add(String.valueOf(args[0]));
+                    yield null;
+                }
+                case "hasPermission" -> true;
+                default -> null;
+            });
+
+    @AfterEach
+    void closeDatabases() {
+        for (DatabaseManager database : databases) {
+            database.close();
+        }
+    }
+
+    @Test
+    void csvRoundTripKeepsIdsAndValues() throws Exception {
+        roundTrip(HistoryTransfer.Format.CSV);
+    }
+
+    @Test
+    void binaryRoundTripKeepsIdsAndValues() throws Exception {
+        roundTrip(HistoryTransfer.Format.BINARY);
+    }
+
+    @Test
+    void importingTheSameFileTwiceAddsNothing() throws Exception {
+        DatabaseManager source = database("source");
+        source.recordBalances(rows(10));
+        String file = export(source, HistoryTransfer.Format.BINARY);
+
+        DatabaseManager target = database("target");
+        importInto(target, file);
+        messages.clear();
+        importInto(target, file);
+        assertTrue(messages.get(messages.size() - 1).contains("0 added, 10 already present"), last());
+        assertEquals(history(source), history(target));
+    }
+
+    @Test
+    void importStopsWhenAnIdHoldsADifferentRecord() throws Exception {
+        DatabaseManager source = database("source");
+        source.recordBalances(rows(10));
+        String file = export(source, HistoryTransfer.Format.CSV);
+
+        // A different database whose ids overlap the export's
+        DatabaseManager target = database("target");
+        List<PlayerBalance> others = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            others.add(new PlayerBalance(new UUID(9, 9), 1_000 + i, null, BASE + i));
+        }
+        target.recordBalances(others);
+
+        importInto(target, file);
+        assertTrue(last().startsWith("§cImport stopped after 0 records"), last());
+        assertTrue(last().contains("already holds a different record"), last());
+        assertEquals(10, history(target).size());
+    }
+
+    private void roundTrip(HistoryTransfer.Format format) throws Exception {
+        DatabaseManager source = database("source");
+        // Balances that only survive exactly if the text form round-trips
+        List<PlayerBalance> rows = rows(10);
+        rows.add(new PlayerBalance(new UUID(1, 1), 0.1 + 0.2, null, BASE + 20));
+        rows.add(new PlayerBalance(new UUID(2, 2), -1e-300, null, BASE + 21));
+        source.recordBalances(rows);
+
+        String file = export(source, format);
+        DatabaseManager target = database("target");
+        importInto(target, file);
+
+        assertTrue(last().contains("12 added, 0 already present"), last());
+        assertEquals(history(source), history(target));
+        // Imports leave last balances alone
+        assertTrue(Double.isNaN(target.loadLastBalance(new UUID(1, 1))));
+    }
+
+    private DatabaseManager database(String name) throws Exception {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("writeBatchSize", CHUNK);
+        DatabaseManager database = new DatabaseManager(Logger.getLogger(name), false, new BalanceMetrics(), config,
+                new SQLiteDialect(dir.resolve(name + ".db").toFile()));
+        database.initializeDatabase();
+        databases.add(database);
+        return database;
+    }
+
+    private HistoryTransfer transfer(DatabaseManager database) {
+        return new HistoryTransfer(Logger.getLogger("transfer"), database, new File(dir.toFile(), "exports"),
+                CHUNK, 0, 0);
+    }
+
+    private String export(DatabaseManager database, HistoryTransfer.Format format) {
+        HistoryTransfer transfer = transfer(database);
+        transfer.export(format, sender);
+        assertTrue(last().startsWith("§aExported"), last());
+        List<String> files = transfer.listFiles();
+        assertEquals(1, files.size());
+        return files.get(0);
+    }
+
+    private void importInto(DatabaseManager database, String file) {
+        transfer(database).importFile(file, sender);
+    }
+
+    private String last() {
+        return messages.get(messages.size() - 1);
+    }
+
+    private static List<PlayerBalance> rows(int count) {
+        List<PlayerBalance> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            rows.add(new PlayerBalance(new UUID(i % 3, 1), i * 1.5, null, BASE + i));
+        }
+        return rows;
+    }
+
+    /**
+     * @return every raw row as {@code id uuid timestamp balance}, in id order
+     */
+    private static List<String> history(DatabaseManager database) throws Exception {
+        List<String> rows = new ArrayList<>();
+        database.readHistoryChunk(0, Integer.MAX_VALUE, (id, uuid, timestamp, balance) ->
+                rows.add(id + " " + uuid + " " + timestamp + " " + balance));
+        return rows;
+    }
+}
@@ -0,0 +1,118 @@
+package org.givinghawk.balanceTracker;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LastBalanceIndexTest {
+    private final LastBalanceIndex index = new LastBalanceIndex();
+
+    @Test
+    void growingPastEveryStripesInitialCapacityKeepsAllEntries() {
+        // 64 stripes of 16 slots resize at their twelfth entry, so this resizes every stripe several times
+        int count = 50_000;
+        for (int i = 0; i < count; i++) {
+            index.put(new UUID(i, ~i), i);
+        }
+        assertEquals(count, index.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, index.get(new UUID(i, ~i)), "entry " + i);
+        }
+        assertTrue(Double.isNaN(index.get(new UUID(count, ~count))));
+    }
+
+    @Test
+    void keysThatShareASlotAreKeptApart() throws Exception {
+        List<UUID> colliding = collidingKeys(6);
+        for (int i = 0; i < colliding.size(); i++) {
+            index.put(colliding.get(i), i);
+        }
+        assertEquals(colliding.size(), index.size());
+        for (int i = 0; i < colliding.size(); i++) {
+            assertEquals(i, index.get(colliding.get(i)));
+        }
+
+        // Updating and probing a key in the middle of the chain leaves its neighbours alone
+        UUID middle = colliding.get(3);
+        index.put(middle, 100);
+        assertFalse(index.putIfAbsent(middle, 200));
+        assertEquals(100, index.get(middle));
+        assertEquals(2, index.get(colliding.get(2)));
+        assertEquals(4, index.get(colliding.get(4)));
+        assertEquals(colliding.size(), index.size());
+    }
+
+    @Test
+    void collidingKeysSurviveAResize() throws Exception {
+        List<UUID> colliding = collidingKeys(12);
+        for (int i = 0; i < colliding.size(); i++) {
+            index.put(colliding.get(i), i);
+        }
+        // The twelfth key in one stripe pushes it past the load factor and it doubles
+        for (int i = 0; i < colliding.size(); i++) {
+            assertEquals(i, index.get(colliding.get(i)));
+        }
+        assertEquals(colliding.size(), index.size());
+    }
+
+    @Test
+    void swappedHalvesAreDifferentPlayers() {
+        index.put(new UUID(1, 2), 1);
+        index.put(new UUID(2, 1), 2);
+        assertEquals(1, index.get(new UUID(1, 2)));
+        assertEquals(2, index.get(new UUID(2, 1)));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    void putIfChangedOnlyOverwritesBeyondTheThreshold() {
+        UUID player = new UUID(7, 7);
+        assertTrue(Double.isNaN(index.putIfChanged(player, 10, 0.5)));
+        assertEquals(10, index.putIfChanged(player, 10.4, 0.5));
+        assertEquals(10, index.get(player));
+        assertEquals(10, index.putIfChanged(player, 11, 0.5));
+        assertEquals(11, index.get(player));
+    }
+
+    @Test
+    void forEachVisitsEveryEntryOnceAndClearEmptiesTheIndex() {
+        for (int i = 0; i < 1_000; i++) {
+            index.put(new UUID(i, i), i);
+        }
+        Map<UUID, Double> seen = new HashMap<>();
+        index.forEach((msb, lsb, balance) -> assertNull(seen.put(new UUID(msb, lsb), balance)));
+        assertEquals(1_000, seen.size());
+        assertEquals(500, (double) seen.get(new UUID(500, 500)));
+
+        index.clear();
+        assertEquals(0, index.size());
+        assertFalse(index.contains(new UUID(500, 500)));
+        index.put(new UUID(500, 500), 1);
+        assertEquals(1, index.get(new UUID(500, 500)));
+    }
+
+    /**
+     * Finds keys that hash to the same stripe and the same home slot in a
+     * fresh 16-slot stripe, so each one after the first has to probe.
+     */
+    private static List<UUID> collidingKeys(int count) throws Exception {
+        Method mix = LastBalanceIndex.class.getDeclaredMethod("mix", long.class, long.class);
+        mix.setAccessible(true);
+        long target = (long) mix.invoke(null, 0L, 0L);
+        List<UUID> keys = new ArrayList<>();
+        for (long i = 0; keys.size() < count; i++) {
+            long hash = (long) mix.invoke(null, i, 0L);
+            if (hash >>> 58 == target >>> 58 && (hash & 15) == (target & 15)) {
+                keys.add(new UUID(i, 0));
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,51 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the storage contract against a throwaway MySQL server. Skipped when
+ * Docker is not available.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class MySqlStorageTest extends BalanceStorageContract {
+    @Container
+    private static final MySQLContainer<?> MYSQL = new MySQLContainer<>("mysql:8.4");
+
+    @Override
+    protected SqlDialect emptyDatabase() throws SQLException {
+        // The server is shared by every test, so each one starts by dropping what the last one created
+        try (Connection connection = DriverManager.getConnection(MYSQL.getJdbcUrl(), MYSQL.getUsername(),
+                MYSQL.getPassword());
+             Statement stmt = connection.createStatement()) {
+            List<String> tables = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery("SELECT table_name FROM information_schema.tables " +
+                    "WHERE table_schema = DATABASE()")) {
+                while (rs.next()) {
+                    tables.add(rs.getString(1));
+                }
+            }
+            for (String table : tables) {
+                stmt.executeUpdate("DROP TABLE " + table);
+            }
+        }
+
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("mysql.host", MYSQL.getHost());
+        config.set("mysql.port", MYSQL.getMappedPort(MySQLContainer.MYSQL_PORT));
+        config.set("mysql.database", MYSQL.getDatabaseName());
+        config.set("mysql.username", MYSQL.getUsername());
+        config.set("mysql.password", MYSQL.getPassword());
+        return new MySqlDialect(config);
+    }
+}
@@ -0,0 +1,108 @@
+package org.givinghawk.balanceTracker;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelBalanceFetcherTest {
+    private ParallelBalanceFetcher fetcher;
+
+    @AfterEach
+    void closeFetcher() {
+        if (fetcher != null) {
+            fetcher.close();
+        }
+    }
+
+    @Test
+    void neverRunsMoreChecksThanTheConcurrency() {
+        for (boolean virtualThreads : new boolean[]{false, true}) {
+            fetcher = new ParallelBalanceFetcher(4, 0, virtualThreads);
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger peak = new AtomicInteger();
+            AtomicInteger done = new AtomicInteger();
+
+            for (int i = 0; i < 40; i++) {
+                assertTrue(fetcher.submit(() -> {
+                    peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    sleep(5);
+                    running.decrementAndGet();
+                    done.incrementAndGet();
+                }));
+            }
+            fetcher.awaitIdle();
+
+            assertEquals(40, done.get(), "virtualThreads=" + virtualThreads);
+            assertTrue(peak.get() <= 4, "peak " + peak.get());
+            fetcher.close();
+        }
+    }
+
+    @Test
+    void submitBlocksWhileEverySlotIsBusy() throws Exception {
+        fetcher = new ParallelBalanceFetcher(1, 0, false);
+        CountDownLatch release = new CountDownLatch(1);
+        fetcher.submit(() -> await(release));
+
+        Thread submitter = new Thread(() -> fetcher.submit(() -> {
+        }));
+        submitter.start();
+        submitter.join(200);
+        assertTrue(submitter.isAlive(), "second check started while the first was still running");
+
+        release.countDown();
+        submitter.join(5_000);
+        assertFalse(submitter.isAlive());
+        fetcher.awaitIdle();
+    }
+
+    @Test
+    void interruptedSubmitStartsNothing() {
+        fetcher = new ParallelBalanceFetcher(1, 0, false);
+        CountDownLatch release = new CountDownLatch(1);
+        fetcher.submit(() -> await(release));
+
+        AtomicInteger started = new AtomicInteger();
+        Thread.currentThread().interrupt();
+        assertFalse(fetcher.submit(started::incrementAndGet));
+        assertTrue(Thread.interrupted());
+
+        release.countDown();
+        fetcher.awaitIdle();
+        assertEquals(0, started.get());
+    }
+
+    @Test
+    void rateLimitSpacesOutCheckStarts() {
+        fetcher = new ParallelBalanceFetcher(8, 20, false);
+        long start = System.nanoTime();
+        for (int i = 0; i < 30; i++) {
+            fetcher.submit(() -> {
+            });
+        }
+        fetcher.awaitIdle();
+        // A one-second burst of 20 starts, then the other 10 at 20 per second
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 450);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
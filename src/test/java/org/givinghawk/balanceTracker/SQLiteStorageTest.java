@@ -0,0 +1,15 @@
+package org.givinghawk.balanceTracker;
+
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+class SQLiteStorageTest extends BalanceStorageContract {
+    @TempDir
+    Path dir;
+
+    @Override
+    protected SqlDialect emptyDatabase() {
+        return new SQLiteDialect(dir.resolve("balances.db").toFile());
+    }
+}
@@ -0,0 +1,24 @@
+package org.givinghawk.balanceTracker;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SqlDialectTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void backendComesFromTheStorageSection() {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("storage.type", "sqlite");
+        assertInstanceOf(SQLiteDialect.class, SqlDialect.fromConfig(config, dir.toFile()));
+
+        config.set("storage.type", "mysql");
+        assertInstanceOf(MySqlDialect.class, SqlDialect.fromConfig(config, dir.toFile()));
+    }
+}
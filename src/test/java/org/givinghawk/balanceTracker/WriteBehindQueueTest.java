@@ -0,0 +1,350 @@
+package org.givinghawk.balanceTracker;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteBehindQueueTest {
+    private static final int HEADER_BYTES = Long.BYTES;
+    private static final int ENTRY_BYTES = 4 * Long.BYTES;
+
+    @TempDir
+    Path dir;
+
+    private final List<WriteBehindQueue> queues = new ArrayList<>();
+
+    @AfterEach
+    void stopQueues() {
+        for (WriteBehindQueue queue : queues) {
+            queue.stop(100);
+        }
+    }
+
+    @Test
+    void flushedChangesStartTheJournalOver() throws Exception {
+        FakeStorage storage = new FakeStorage();
+        // The file is only started over when the writer gets the append lock, so let enqueue return first
+        storage.gate = new Semaphore(0);
+        WriteBehindQueue queue = started(new WriteBehindQueue(Logger.getLogger("test"), false, storage.proxy,
+                journalFile(), 100, 10));
+
+        queue.enqueue(List.of(change(1), change(2), change(3)));
+        assertEquals(HEADER_BYTES + 3 * ENTRY_BYTES, journalFile().length());
+        // The writer may have taken the changes in more than one batch
+        storage.gate.release(3);
+        waitFor(() -> storage.written.size() == 3);
+        waitFor(() -> journalFile().length() == HEADER_BYTES && checkpoint() == HEADER_BYTES);
+    }
+
+    @Test
+    void unflushedChangesAreReplayedOnTheNextStart() throws Exception {
+        FakeStorage failing = new FakeStorage();
+        failing.failing = true;
+        WriteBehindQueue first = started(new WriteBehindQueue(Logger.getLogger("test"), false, failing.proxy,
+                journalFile(), 100, 10));
+        first.enqueue(List.of(change(1), change(2)));
+        first.stop(100);
+
+        FakeStorage storage = new FakeStorage();
+        WriteBehindQueue second = new WriteBehindQueue(Logger.getLogger("test"), false, storage.proxy,
+                journalFile(), 100, 10);
+        assertEquals(2, start(second));
+        waitFor(() -> storage.written.size() == 2);
+        assertEquals(change(1).uuid, storage.written.get(0).uuid);
+    }
+
+    @Test
+    void failedJournalWriteLeavesNoTornEntryAndIsNeverCheckpointed() throws Exception {
+        FakeStorage storage = new FakeStorage();
+        storage.gate = new Semaphore(0);
+        FailingChannel[] channel = new FailingChannel[1];
+        WriteBehindQueue queue = started(new WriteBehindQueue(Logger.getLogger("test"), false, storage.proxy,
+                journalFile(), 100, 1) {
+            @Override
+            FileChannel openJournal(File file) throws IOException {
+                channel[0] = new FailingChannel(super.openJournal(file));
+                return channel[0];
+            }
+        });
+
+        queue.enqueue(List.of(change(1)));
+        channel[0].tearNextWrite = true;
+        queue.enqueue(List.of(change(2)));
+        queue.enqueue(List.of(change(3)));
+        // Only the first change made it into the file, and the torn half entry was cut off
+        assertEquals(HEADER_BYTES + ENTRY_BYTES, journalFile().length());
+
+        storage.gate.release(2);
+        waitFor(() -> storage.written.size() == 2);
+        // The unjournaled second change is in the database but must not move the checkpoint past the file
+        waitFor(() -> checkpoint() == HEADER_BYTES + ENTRY_BYTES);
+
+        storage.failing = true;
+        storage.gate.release(100);
+        queue.stop(100);
+        assertTrue(checkpoint() <= journalFile().length());
+
+        // Nothing journaled is left over, so nothing is replayed twice
+        WriteBehindQueue next = new WriteBehindQueue(Logger.getLogger("test"), false, new FakeStorage().proxy,
+                journalFile(), 100, 1);
+        assertEquals(0, start(next));
+    }
+
+    @Test
+    void journalingResumesOnceEverythingJournaledIsFlushed() throws Exception {
+        FakeStorage storage = new FakeStorage();
+        storage.gate = new Semaphore(0);
+        FailingChannel[] channel = new FailingChannel[1];
+        WriteBehindQueue queue = started(new WriteBehindQueue(Logger.getLogger("test"), false, storage.proxy,
+                journalFile(), 100, 10) {
+            @Override
+            FileChannel openJournal(File file) throws IOException {
+                channel[0] = new FailingChannel(super.openJournal(file));
+                return channel[0];
+            }
+        });
+
+        channel[0].tearNextWrite = true;
+        queue.enqueue(List.of(change(1)));
+        assertFalse(queue.isJournaling());
+        storage.gate.release();
+        // Nothing journaled is waiting, so the file starts over and journaling comes back once it is written
+        waitFor(() -> storage.written.size() == 1 && queue.isJournaling());
+        assertEquals(HEADER_BYTES, checkpoint());
+
+        storage.failing = true;
+        storage.gate.release(100);
+        queue.enqueue(List.of(change(2)));
+        assertEquals(HEADER_BYTES + ENTRY_BYTES, journalFile().length());
+    }
+
+    @Test
+    void unreadableJournalIsSkippedAndTheWriterKeepsServingTheQueue() throws Exception {
+        FakeStorage failing = new FakeStorage();
+        failing.failing = true;
+        WriteBehindQueue first = started(new WriteBehindQueue(Logger.getLogger("test"), false, failing.proxy,
+                journalFile(), 100, 10));
+        first.enqueue(List.of(change(1), change(2)));
+        first.stop(100);
+
+        FakeStorage storage = new FakeStorage();
+        WriteBehindQueue second = new WriteBehindQueue(Logger.getLogger("test"), false, storage.proxy,
+                journalFile(), 2, 1) {
+            @Override
+            FileChannel openJournal(File file) throws IOException {
+                FailingChannel channel = new FailingChannel(super.openJournal(file));
+                channel.failEntryReads = true;
+                return channel;
+            }
+        };
+        assertEquals(2, start(second));
+
+        // More changes than the queue holds, so a dead writer would block this call for good
+        List<PlayerBalance> changes = List.of(change(3), change(4), change(5), change(6));
+        Thread sweep = new Thread(() -> second.enqueue(changes));
+        sweep.start();
+        sweep.join(5_000);
+        assertFalse(sweep.isAlive());
+        waitFor(() -> storage.written.size() == 4);
+        assertEquals(change(3).uuid, storage.written.get(0).uuid);
+    }
+
+    private long start(WriteBehindQueue queue) throws IOException {
+        queues.add(queue);
+        return queue.start();
+    }
+
+    private WriteBehindQueue started(WriteBehindQueue queue) throws IOException {
+        start(queue);
+        return queue;
+    }
+
+    private File journalFile() {
+        return dir.resolve("journal.bin").toFile();
+    }
+
+    private long checkpoint() throws IOException {
+        byte[] bytes = Files.readAllBytes(journalFile().toPath());
+        return ByteBuffer.wrap(bytes).getLong(0);
+    }
+
+    private static PlayerBalance change(int player) {
+        return new PlayerBalance(new UUID(0, player), player * 10, null, 1_000L * player);
+    }
+
+    private static void waitFor(ConditionCheck condition) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.holds()) {
+            assertTrue(System.nanoTime() < deadline, "condition not reached within 5s");
+            Thread.sleep(10);
+        }
+    }
+
+    private interface ConditionCheck {
+        boolean holds() throws Exception;
+    }
+
+    /**
+     * Storage that only implements {@code recordBalances}: it records what it
+     * is given, or reports that nothing was written while {@code failing}.
+     */
+    private static final class FakeStorage {
+        final List<PlayerBalance> written = Collections.synchronizedList(new ArrayList<>());
+        volatile boolean failing;
+        // When set, each call waits for a permit first
+        volatile Semaphore gate;
+        final BalanceStorage proxy = (BalanceStorage) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{BalanceStorage.class}, (target, method, args) -> {
+                    if (!method.getName().equals("recordBalances")) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    @SuppressWarnings("unchecked")
+                    List<PlayerBalance> changes = (List<PlayerBalance>) args[0];
+                    return record(changes);
+                });
+
+        private int record(List<PlayerBalance> changes) throws InterruptedException {
+            Semaphore permits = gate;
+            if (permits != null) {
+                permits.acquire();
+            }
+            if (failing) {
+                return 0;
+            }
+            written.addAll(changes);
+            return changes.size();
+        }
+    }
+
+    /**
+     * Delegates to a real channel, optionally tearing the next positional
+     * write halfway through or failing every read past the header.
+     */
+    private static final class FailingChannel extends FileChannel {
+        private final FileChannel delegate;
+        volatile boolean tearNextWrite;
+        volatile boolean failEntryReads;
+
+        FailingChannel(FileChannel delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            if (failEntryReads && position >= HEADER_BYTES) {
+                throw new IOException("injected read failure");
+            }
+            return delegate.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            if (tearNextWrite && position >= HEADER_BYTES) {
+                tearNextWrite = false;
+                ByteBuffer half = src.duplicate();
+                half.limit(half.position() + half.remaining() / 2);
+                delegate.write(half, position);
+                throw new IOException("injected write failure");
+            }
+            return delegate.write(src, position);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return delegate.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return delegate.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return delegate.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return delegate.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return delegate.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return delegate.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            delegate.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return delegate.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return delegate.transferFrom(src, position, count);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return delegate.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return delegate.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return delegate.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            delegate.close();
+        }
+    }
+}